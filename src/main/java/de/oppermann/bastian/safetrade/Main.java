@@ -2,20 +2,38 @@ package de.oppermann.bastian.safetrade;
 
 import de.oppermann.bastian.safetrade.commands.TradeCommand;
 import de.oppermann.bastian.safetrade.commands.TradeTabCompleter;
+import de.oppermann.bastian.safetrade.listener.AsyncPlayerChatListener;
 import de.oppermann.bastian.safetrade.listener.InventoryClickListener;
 import de.oppermann.bastian.safetrade.listener.InventoryCloseListener;
 import de.oppermann.bastian.safetrade.listener.InventoryDragListener;
 import de.oppermann.bastian.safetrade.listener.PlayerDeathListener;
 import de.oppermann.bastian.safetrade.listener.PlayerInteractEntityListener;
+import de.oppermann.bastian.safetrade.listener.PlayerJoinListener;
 import de.oppermann.bastian.safetrade.listener.PlayerPickupItemListener;
+import de.oppermann.bastian.safetrade.listener.PlayerQuitListener;
+import de.oppermann.bastian.safetrade.listener.WorldSaveListener;
+import de.oppermann.bastian.safetrade.util.AcceptCommandManager;
+import de.oppermann.bastian.safetrade.util.AsyncEconomyAdapter;
 import de.oppermann.bastian.safetrade.util.Blacklist;
 import de.oppermann.bastian.safetrade.util.Design;
+import de.oppermann.bastian.safetrade.util.DroppedItemProtection;
+import de.oppermann.bastian.safetrade.util.EscrowLog;
+import de.oppermann.bastian.safetrade.util.EscrowLedger;
 import de.oppermann.bastian.safetrade.util.FileUtils;
+import de.oppermann.bastian.safetrade.util.IAsyncEconomy;
 import de.oppermann.bastian.safetrade.util.IEconomy;
+import de.oppermann.bastian.safetrade.util.InventoryUpdater;
 import de.oppermann.bastian.safetrade.util.InventoryUtil;
+import de.oppermann.bastian.safetrade.util.MainThreadExecutor;
+import de.oppermann.bastian.safetrade.util.Messages;
+import de.oppermann.bastian.safetrade.util.PlayerNameIndex;
 import de.oppermann.bastian.safetrade.util.ResourceBundleControl;
+import de.oppermann.bastian.safetrade.util.Settings;
+import de.oppermann.bastian.safetrade.util.SettlementQueue;
 import de.oppermann.bastian.safetrade.util.Trade;
+import de.oppermann.bastian.safetrade.util.TradeJournal;
 import net.milkbowl.vault.economy.Economy;
+import net.milkbowl.vault.economy.EconomyResponse;
 import org.bstats.bukkit.Metrics;
 import org.bstats.charts.SimplePie;
 import org.bstats.charts.SingleLineChart;
@@ -30,6 +48,8 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 
 /**
@@ -43,9 +63,9 @@ public class Main extends JavaPlugin {
     private static Main instance = null;
 
     /**
-     * The {@link ResourceBundle} which contains all messages.
+     * The compiled messages.
      */
-    private ResourceBundle messages;
+    private Messages messages;
 
     /**
      * The design of the trading inventory.
@@ -62,15 +82,60 @@ public class Main extends JavaPlugin {
      */
     private InventoryUtil inventoryUtil;
 
+    /**
+     * The updater which resends modified inventories once per tick.
+     */
+    private final InventoryUpdater inventoryUpdater = new InventoryUpdater();
+
+    /**
+     * The index of the names of all online players.
+     */
+    private final PlayerNameIndex playerNameIndex = new PlayerNameIndex();
+
+    /**
+     * The protection of dropped items which did not fit into the inventory of their owner.
+     */
+    private final DroppedItemProtection droppedItemProtection = new DroppedItemProtection();
+
     /**
      * The economy.
      */
     private IEconomy economy = null;
 
     /**
-     * Whether trading with money should be allowed or not.
+     * The economy which is called asynchronously.
+     */
+    private AsyncEconomyAdapter asyncEconomy = null;
+
+    /**
+     * The executor which runs tasks on the main thread.
+     */
+    private final MainThreadExecutor mainThreadExecutor = new MainThreadExecutor(this);
+
+    /**
+     * The money which is reserved in running trades.
      */
-    private boolean tradeWithMoney = false;
+    private final EscrowLedger escrowLedger = new EscrowLedger();
+
+    /**
+     * The queue which passes the money transfers to the economy once per tick.
+     */
+    private final SettlementQueue settlementQueue = new SettlementQueue();
+
+    /**
+     * The write-ahead log of the items which are offered in running trades.
+     */
+    private EscrowLog escrowLog = null;
+
+    /**
+     * The journal of all finished trades or <code>null</code> if it's disabled.
+     */
+    private TradeJournal tradeJournal = null;
+
+    /**
+     * The parsed config.yml file. Replaced on every reload.
+     */
+    private Settings settings = null;
 
     /**
      * Successful trades since last submit.
@@ -97,16 +162,27 @@ public class Main extends JavaPlugin {
         instance = this;
 
         loadConfiguration();
+        openEscrowLog();
+        openTradeJournal();
 
         getCommand("trade").setExecutor(new TradeCommand());
         getCommand("trade").setTabCompleter(new TradeTabCompleter());
 
+        Bukkit.getPluginManager().registerEvents(new AsyncPlayerChatListener(), this);
         Bukkit.getPluginManager().registerEvents(new InventoryClickListener(), this);
         Bukkit.getPluginManager().registerEvents(new InventoryCloseListener(), this);
         Bukkit.getPluginManager().registerEvents(new InventoryDragListener(), this);
         Bukkit.getPluginManager().registerEvents(new PlayerDeathListener(), this);
         Bukkit.getPluginManager().registerEvents(new PlayerInteractEntityListener(), this);
+        Bukkit.getPluginManager().registerEvents(new PlayerJoinListener(), this);
         Bukkit.getPluginManager().registerEvents(new PlayerPickupItemListener(), this);
+        Bukkit.getPluginManager().registerEvents(new PlayerQuitListener(), this);
+        Bukkit.getPluginManager().registerEvents(new WorldSaveListener(), this);
+
+        playerNameIndex.addOnlinePlayers();
+        inventoryUpdater.start(this);
+        settlementQueue.start(this);
+        AcceptCommandManager.start(this);
 
         // Start metrics
         setupCharts(new Metrics(this, 4));
@@ -114,10 +190,81 @@ public class Main extends JavaPlugin {
 
     @Override
     public void onDisable() {
-        // Abort all trades
+        // Abort all trades (the items are returned by finishSettlingTrades())
         for (Trade trade : Trade.getActiveTrades()) {
             trade.abort(null);
         }
+        inventoryUpdater.stop();
+        settlementQueue.stop();
+        AcceptCommandManager.stop();
+        finishSettlingTrades();
+        playerNameIndex.clear();
+        droppedItemProtection.clear();
+        escrowLedger.clear();
+        if (asyncEconomy != null) {
+            // let the remaining calls finish (or be reverted if they timed out)
+            asyncEconomy.shutdown(settings.getEconomyTimeout() * 2L);
+            asyncEconomy = null;
+        }
+        // after the economy, as its pending calls may still finish trades
+        escrowLog.close();
+        if (tradeJournal != null) {
+            tradeJournal.close();
+            tradeJournal = null;
+        }
+    }
+
+    /**
+     * Waits until the accepted and aborted trades are finished and the claimed items are delivered. Their economy
+     * calls and escrow log writes complete on other threads and hand the results to the main thread, which is
+     * blocked here, so the queued tasks are run by this method.
+     */
+    private void finishSettlingTrades() {
+        long deadline = System.currentTimeMillis() + settings.getEconomyTimeout() * 2L;
+        mainThreadExecutor.runPendingTasks();
+        while ((Trade.hasSettlingTrades() || escrowLog.hasPendingClaims()) && System.currentTimeMillis() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            mainThreadExecutor.runPendingTasks();
+        }
+        if (Trade.hasSettlingTrades() || escrowLog.hasPendingClaims()) {
+            getLogger().log(Level.WARNING, "Could not finish all trades in time. Their items are given "
+                    + "back to their owners when the plugin is enabled again.");
+        }
+    }
+
+    /**
+     * Opens the escrow log and gives the online players back the items of trades which were interrupted by a crash.
+     */
+    private void openEscrowLog() {
+        File file = new File(new File(getDataFolder(), "journal"), "escrow.log");
+        escrowLog = new EscrowLog(file, settings.getJournalFsyncInterval(), getLogger());
+        try {
+            escrowLog.open();
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Could not open the escrow log " + file.getPath()
+                    + "! Items of running trades will be lost if the server crashes.", e);
+            return;
+        }
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            escrowLog.returnUnclaimedItems(player);
+        }
+    }
+
+    /**
+     * Opens the trade journal if it's enabled in the config.
+     * It keeps the settings it was opened with, so the journal keys are not affected by a reload.
+     */
+    private void openTradeJournal() {
+        if (!settings.isTradeJournal()) {
+            return;
+        }
+        tradeJournal = new TradeJournal(new File(getDataFolder(), "journal"), settings, getLogger());
+        try {
+            tradeJournal.open();
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Could not open the trade journal " + tradeJournal.getFolder().getPath(), e);
+            tradeJournal = null;
+        }
     }
 
     /**
@@ -128,34 +275,34 @@ public class Main extends JavaPlugin {
     private void setupCharts(Metrics metrics) {
         // language in config
         metrics.addCustomChart(new SimplePie("used_language", () ->
-                getConfig().getString("language", "auto")));
+                settings.getLanguage()));
 
         metrics.addCustomChart(new SimplePie("default_locale", () ->
                 Locale.getDefault().toLanguageTag()));
 
         // encoding in config
         metrics.addCustomChart(new SimplePie("encoding", () ->
-                getConfig().getString("encoding", "UTF-8")));
+                settings.getEncoding()));
 
         // tradeWithMoney in config
         metrics.addCustomChart(new SimplePie("money_enabled", () ->
-                getConfig().getBoolean("tradeWithMoney", true) ? "enabled" : "disabled"));
+                settings.isTradeWithMoney() ? "enabled" : "disabled"));
 
         // noDebts in config
         metrics.addCustomChart(new SimplePie("no_debts_enabled", () ->
-                getConfig().getBoolean("noDebts", true) ? "enabled" : "disabled"));
+                settings.isNoDebts() ? "enabled" : "disabled"));
 
         // maxTradingDistance in config
         metrics.addCustomChart(new SimplePie("max_trading_distance", () ->
-                String.valueOf(getConfig().getInt("maxTradingDistance", 15))));
+                String.valueOf(settings.getMaxTradingDistance())));
 
         // tradeThroughWorlds in config
         metrics.addCustomChart(new SimplePie("trade_through_worlds_enabled", () ->
-                getConfig().getBoolean("tradeThroughWorlds", false) ? "enabled" : "disabled"));
+                settings.isTradeThroughWorlds() ? "enabled" : "disabled"));
 
         // fastTrade in config
         metrics.addCustomChart(new SimplePie("fast_trade_enabled", () ->
-                getConfig().getBoolean("fastTrade", false) ? "enabled" : "disabled"));
+                settings.isFastTrade() ? "enabled" : "disabled"));
 
         // successful trades
         metrics.addCustomChart(new SingleLineChart("successful_trades", () -> successfulTrades));
@@ -194,6 +341,7 @@ public class Main extends JavaPlugin {
      */
     private void loadConfiguration() {
         saveDefaultConfig();
+        settings = new Settings(getConfig(), getLogger());
         if (design == null) {
             design = new Design(this);
             inventoryUtil = new InventoryUtil(design);
@@ -205,17 +353,17 @@ public class Main extends JavaPlugin {
         } else {
             blacklist.reload();
         }
-        String strLocale = getConfig().getString("language");
+        String strLocale = settings.getLanguage();
         Locale locale;
-        if (strLocale == null || strLocale.equals("auto")) {
+        if (strLocale.equals("auto")) {
             locale = Locale.getDefault();
         } else {
             locale = Locale.forLanguageTag(strLocale);
         }
-        String encoding = getConfig().getString("encoding", "UTF-8");
-        messages = loadLanguage(locale, encoding); // load the language file
+        messages = loadLanguage(locale, settings.getEncoding()); // load the language file
+        inventoryUtil.invalidate();
 
-        tradeWithMoney = getConfig().getBoolean("tradeWithMoney", true);
+        boolean tradeWithMoney = settings.isTradeWithMoney();
         try {
             final Economy economy = getVaultEconomy();
             if (economy == null) {
@@ -230,7 +378,7 @@ public class Main extends JavaPlugin {
 
                         @Override
                         public void withdrawMoney(Player player, double amount) {
-                            economy.withdrawPlayer(player, amount);
+                            checkResponse(economy.withdrawPlayer(player, amount), "withdraw", player, amount);
                         }
 
                         @Override
@@ -240,7 +388,7 @@ public class Main extends JavaPlugin {
 
                         @Override
                         public void depositMoney(Player player, double amount) {
-                            economy.depositPlayer(player, amount);
+                            checkResponse(economy.depositPlayer(player, amount), "deposit", player, amount);
                         }
 
                         @Override
@@ -258,13 +406,29 @@ public class Main extends JavaPlugin {
     }
 
     /**
-     * Loads the {@link ResourceBundle} for the given {@link Locale locale}.
+     * Checks if a call of the Vault economy succeeded.
+     *
+     * @param response The response of the economy.
+     * @param action   The name of the call (only used for the error message).
+     * @param player   The player whose balance was changed.
+     * @param amount   The amount of money.
+     * @throws IllegalStateException If the call failed.
+     */
+    private static void checkResponse(EconomyResponse response, String action, Player player, double amount) {
+        if (response == null || !response.transactionSuccess()) {
+            throw new IllegalStateException("Could not " + action + " " + amount + " for " + player.getName() + ": "
+                    + (response == null ? "no response" : response.errorMessage));
+        }
+    }
+
+    /**
+     * Loads and compiles the messages for the given {@link Locale locale}.
      *
      * @param locale   The locale.
      * @param encoding The encoding.
-     * @return The ResourceBundle. If no ResourceBundle for the given locale was found it will return the default one.
+     * @return The messages. If no (valid) messages for the given locale were found it will return the default ones.
      */
-    private ResourceBundle loadLanguage(Locale locale, String encoding) {
+    private Messages loadLanguage(Locale locale, String encoding) {
         File languageFolder = new File(getDataFolder(), "languages");
         languageFolder.mkdirs();
 
@@ -300,7 +464,14 @@ public class Main extends JavaPlugin {
                     + locale.toString() + "! Using the default locale now!");
             messages = ResourceBundle.getBundle("Messages");
         }
-        return messages;
+
+        try {
+            return new Messages(messages);
+        } catch (IllegalArgumentException e) {
+            getLogger().log(Level.SEVERE, "Invalid messages for locale " + locale.toString() + ": "
+                    + e.getMessage() + "! Using the default messages now!");
+            return new Messages(ResourceBundle.getBundle("Messages"));
+        }
     }
 
     /**
@@ -317,8 +488,13 @@ public class Main extends JavaPlugin {
      * @param economy The economy.
      */
     public void setIEconomy(IEconomy economy) {
-        if (tradeWithMoney) {
+        if (settings != null && settings.isTradeWithMoney()) {
             this.economy = economy;
+            if (asyncEconomy != null) {
+                asyncEconomy.shutdown();
+            }
+            asyncEconomy = new AsyncEconomyAdapter(economy, settings.getEconomyThreads(), settings.getEconomyTimeout(), getLogger());
+            inventoryUtil.invalidate();
         }
     }
 
@@ -346,11 +522,74 @@ public class Main extends JavaPlugin {
     }
 
     /**
-     * Gets the {@link ResourceBundle} which contains all messages.
+     * Gets the economy which is called asynchronously.
+     *
+     * @return The economy which is called asynchronously or <code>null</code> if there is no economy.
+     */
+    public IAsyncEconomy getAsyncEconomy() {
+        return asyncEconomy;
+    }
+
+    /**
+     * Gets the executor which runs tasks on the main thread.
+     *
+     * @return The executor which runs tasks on the main thread.
+     */
+    public MainThreadExecutor getMainThreadExecutor() {
+        return mainThreadExecutor;
+    }
+
+    /**
+     * Gets the ledger of the money which is reserved in running trades.
+     *
+     * @return The ledger of the money which is reserved in running trades.
+     */
+    public EscrowLedger getEscrowLedger() {
+        return escrowLedger;
+    }
+
+    /**
+     * Gets the queue which passes the money transfers to the economy once per tick.
+     *
+     * @return The queue which passes the money transfers to the economy once per tick.
+     */
+    public SettlementQueue getSettlementQueue() {
+        return settlementQueue;
+    }
+
+    /**
+     * Gets the write-ahead log of the items which are offered in running trades.
+     *
+     * @return The write-ahead log of the items which are offered in running trades.
+     */
+    public EscrowLog getEscrowLog() {
+        return escrowLog;
+    }
+
+    /**
+     * Gets the journal of all finished trades.
+     *
+     * @return The journal of all finished trades or <code>null</code> if it's disabled.
+     */
+    public TradeJournal getTradeJournal() {
+        return tradeJournal;
+    }
+
+    /**
+     * Gets the parsed config.yml file.
      *
-     * @return The ResourceBundle which contains all messages.
+     * @return The parsed config.yml file.
      */
-    public ResourceBundle getMessages() {
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Gets the compiled messages.
+     *
+     * @return The compiled messages.
+     */
+    public Messages getMessages() {
         return messages;
     }
 
@@ -381,6 +620,33 @@ public class Main extends JavaPlugin {
         return inventoryUtil;
     }
 
+    /**
+     * Gets the updater which resends modified inventories once per tick.
+     *
+     * @return The updater which resends modified inventories once per tick.
+     */
+    public InventoryUpdater getInventoryUpdater() {
+        return inventoryUpdater;
+    }
+
+    /**
+     * Gets the index of the names of all online players.
+     *
+     * @return The index of the names of all online players.
+     */
+    public PlayerNameIndex getPlayerNameIndex() {
+        return playerNameIndex;
+    }
+
+    /**
+     * Gets the protection of dropped items which did not fit into the inventory of their owner.
+     *
+     * @return The protection of dropped items.
+     */
+    public DroppedItemProtection getDroppedItemProtection() {
+        return droppedItemProtection;
+    }
+
     /**
      * Gets the initialized instance if this class.
      *
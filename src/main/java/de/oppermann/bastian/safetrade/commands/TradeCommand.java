@@ -5,7 +5,15 @@ import de.oppermann.bastian.safetrade.events.TradeRequestAcceptEvent;
 import de.oppermann.bastian.safetrade.events.TradeRequestEvent;
 import de.oppermann.bastian.safetrade.util.AcceptAction;
 import de.oppermann.bastian.safetrade.util.AcceptCommandManager;
+import de.oppermann.bastian.safetrade.util.IEconomy;
+import de.oppermann.bastian.safetrade.util.ItemTradeIndex;
+import de.oppermann.bastian.safetrade.util.Message;
+import de.oppermann.bastian.safetrade.util.MessageTemplate;
+import de.oppermann.bastian.safetrade.util.RequestRateLimiter;
 import de.oppermann.bastian.safetrade.util.Trade;
+import de.oppermann.bastian.safetrade.util.TradeHistoryPage;
+import de.oppermann.bastian.safetrade.util.TradeJournal;
+import de.oppermann.bastian.safetrade.util.TradeRecord;
 import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.chat.ClickEvent;
 import net.md_5.bungee.api.chat.ComponentBuilder;
@@ -17,9 +25,17 @@ import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
-
-import java.util.HashMap;
+import org.bukkit.inventory.ItemStack;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 /**
  * This class is the executor for the /trade command.
@@ -27,32 +43,47 @@ import java.util.UUID;
 public class TradeCommand implements CommandExecutor {
 
     /**
-     * This HashMap stores the time of the last trade request.
+     * This limits how often trade requests can be sent.
      */
-    private final HashMap<UUID, Long> lastRequest = new HashMap<>();
+    private final RequestRateLimiter requestRateLimiter = new RequestRateLimiter();
+
+    /**
+     * The amount of trades shown on a page of /trade history.
+     */
+    private static final int HISTORY_PAGE_SIZE = 5;
 
     @Override
     public boolean onCommand(CommandSender sender, Command cmd, String label, String[] args) {
+        if (args.length >= 1 && args[0].equalsIgnoreCase("history")) { // show the trade history
+            showHistory(sender, args);
+            return true;
+        }
+
+        if (args.length >= 1 && args[0].equalsIgnoreCase("search")) { // search trades with certain items
+            search(sender, args);
+            return true;
+        }
+
         if (args.length != 1) {
-            sender.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("wrong_usage").replace("{command}",
+            sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.WRONG_USAGE,
                     ChatColor.GOLD + "/trade help" + ChatColor.RED));
             return true;
         }
 
         if (args[0].equalsIgnoreCase("reload")) { // reload the config
             if (!sender.hasPermission("safetrade.reload")) {
-                sender.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("no_permission"));
+                sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.NO_PERMISSION));
                 return true;
             }
 
             // reload
             Main.getInstance().reload();
-            sender.sendMessage(ChatColor.GREEN + Main.getInstance().getMessages().getString("reload_successful"));
+            sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.GREEN, Message.RELOAD_SUCCESSFUL));
             return true;
         }
 
         if (!(sender instanceof Player)) {
-            sender.sendMessage(Main.getInstance().getMessages().getString("players_only"));
+            sender.sendMessage(Main.getInstance().getMessages().get(Message.PLAYERS_ONLY));
             return true;
         }
         Player player = (Player) sender;
@@ -60,33 +91,46 @@ public class TradeCommand implements CommandExecutor {
         if (!player.hasPermission("safetrade.request")
                 && !player.hasPermission("safetrade.accept")
                 && !player.hasPermission("safetrade.deny")) {
-            sender.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("no_permission"));
+            sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.NO_PERMISSION));
             return true;
         }
 
         if (args[0].equalsIgnoreCase("help") || args[0].equalsIgnoreCase("?")) {
             player.sendMessage(ChatColor.BLUE + "---------------------" + ChatColor.RED + " SafeTrade " + ChatColor.BLUE + "---------------------");
             if (player.hasPermission("safetrade.request")) { // only send help is player is allowed to use the command
-                player.sendMessage(ChatColor.DARK_GRAY + " - " + ChatColor.GOLD + Main.getInstance().getMessages().getString("help_command_trade_player"));
-                for (String message : Main.getInstance().getMessages().getString("help_command_trade_player_description").split("\n")) {
+                player.sendMessage(ChatColor.DARK_GRAY + " - " + Main.getInstance().getMessages().get(ChatColor.GOLD, Message.HELP_COMMAND_TRADE_PLAYER));
+                for (String message : Main.getInstance().getMessages().get(Message.HELP_COMMAND_TRADE_PLAYER_DESCRIPTION).split("\n")) {
                     player.sendMessage(ChatColor.ITALIC + " " + message);
                 }
             }
             if (player.hasPermission("safetrade.accept")) {
-                player.sendMessage(ChatColor.DARK_GRAY + " - " + ChatColor.GOLD + Main.getInstance().getMessages().getString("help_command_trade_accept"));
-                for (String message : Main.getInstance().getMessages().getString("help_command_trade_accept_description").split("\n")) {
+                player.sendMessage(ChatColor.DARK_GRAY + " - " + Main.getInstance().getMessages().get(ChatColor.GOLD, Message.HELP_COMMAND_TRADE_ACCEPT));
+                for (String message : Main.getInstance().getMessages().get(Message.HELP_COMMAND_TRADE_ACCEPT_DESCRIPTION,
+                        String.valueOf(Main.getInstance().getSettings().getRequestTimeout())).split("\n")) {
                     player.sendMessage(ChatColor.ITALIC + " " + message);
                 }
             }
             if (player.hasPermission("safetrade.deny")) {
-                player.sendMessage(ChatColor.DARK_GRAY + " - " + ChatColor.GOLD + Main.getInstance().getMessages().getString("help_command_trade_deny"));
-                for (String message : Main.getInstance().getMessages().getString("help_command_trade_deny_description").split("\n")) {
+                player.sendMessage(ChatColor.DARK_GRAY + " - " + Main.getInstance().getMessages().get(ChatColor.GOLD, Message.HELP_COMMAND_TRADE_DENY));
+                for (String message : Main.getInstance().getMessages().get(Message.HELP_COMMAND_TRADE_DENY_DESCRIPTION).split("\n")) {
+                    player.sendMessage(ChatColor.ITALIC + " " + message);
+                }
+            }
+            if (player.hasPermission("safetrade.history")) {
+                player.sendMessage(ChatColor.DARK_GRAY + " - " + Main.getInstance().getMessages().get(ChatColor.GOLD, Message.HELP_COMMAND_TRADE_HISTORY));
+                for (String message : Main.getInstance().getMessages().get(Message.HELP_COMMAND_TRADE_HISTORY_DESCRIPTION).split("\n")) {
+                    player.sendMessage(ChatColor.ITALIC + " " + message);
+                }
+            }
+            if (player.hasPermission("safetrade.search")) {
+                player.sendMessage(ChatColor.DARK_GRAY + " - " + Main.getInstance().getMessages().get(ChatColor.GOLD, Message.HELP_COMMAND_TRADE_SEARCH));
+                for (String message : Main.getInstance().getMessages().get(Message.HELP_COMMAND_TRADE_SEARCH_DESCRIPTION).split("\n")) {
                     player.sendMessage(ChatColor.ITALIC + " " + message);
                 }
             }
             if (player.hasPermission("safetrade.reload")) {
-                player.sendMessage(ChatColor.DARK_GRAY + " - " + ChatColor.GOLD + Main.getInstance().getMessages().getString("help_command_trade_reload"));
-                for (String message : Main.getInstance().getMessages().getString("help_command_trade_reload_description").split("\n")) {
+                player.sendMessage(ChatColor.DARK_GRAY + " - " + Main.getInstance().getMessages().get(ChatColor.GOLD, Message.HELP_COMMAND_TRADE_RELOAD));
+                for (String message : Main.getInstance().getMessages().get(Message.HELP_COMMAND_TRADE_RELOAD_DESCRIPTION).split("\n")) {
                     player.sendMessage(ChatColor.ITALIC + " " + message);
                 }
             }
@@ -96,13 +140,13 @@ public class TradeCommand implements CommandExecutor {
 
         if (args[0].equalsIgnoreCase("accept")) { // accept the trade
             if (!player.hasPermission("safetrade.accept")) {
-                sender.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("no_permission"));
+                sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.NO_PERMISSION));
                 return true;
             }
             AcceptAction action = AcceptCommandManager.getAction(player);
 
             if (action == null) {
-                player.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("no_trade_to_accept"));
+                player.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.NO_TRADE_TO_ACCEPT));
                 return true;
             }
 
@@ -113,67 +157,63 @@ public class TradeCommand implements CommandExecutor {
 
         if (args[0].equalsIgnoreCase("deny")) { // deny the trade
             if (!player.hasPermission("safetrade.deny")) {
-                sender.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("no_permission"));
+                sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.NO_PERMISSION));
                 return true;
             }
             AcceptAction action = AcceptCommandManager.getAction(player);
 
             if (action == null) {
-                player.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("no_trade_to_deny"));
+                player.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.NO_TRADE_TO_DENY));
                 return true;
             }
 
             AcceptCommandManager.finish(player, true);
-            player.sendMessage(ChatColor.GREEN + Main.getInstance().getMessages().getString("trade_denied"));
+            player.sendMessage(Main.getInstance().getMessages().get(ChatColor.GREEN, Message.TRADE_DENIED));
             return true;
         }
 
         if (!player.hasPermission("safetrade.request")) {
-            sender.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("no_permission"));
+            sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.NO_PERMISSION));
             return true;
         }
 
-        if (lastRequest.containsKey(player.getUniqueId())) {
-            if (lastRequest.get(player.getUniqueId()) > System.currentTimeMillis() - 1000 * 10) {
-                player.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("no_request_spam"));
-                return true;
-            }
+        if (requestRateLimiter.isLimited(player.getUniqueId(), Main.getInstance().getSettings(), System.currentTimeMillis())) {
+            player.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.NO_REQUEST_SPAM));
+            return true;
         }
 
         // request a trade
         Player target = Bukkit.getPlayer(args[0]);
         if (target == null) {
-            player.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("player_not_online").replace("{player}", args[0]));
+            player.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.PLAYER_NOT_ONLINE, args[0]));
             return true;
         }
 
         // Don't allow trades with hidden players
-        if (!(player.canSee(target) || Main.getInstance().getConfig().getBoolean("tradeWithHiddenPlayers"))) {
-            player.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("player_not_online").replace("{player}", args[0]));
+        if (!(player.canSee(target) || Main.getInstance().getSettings().isTradeWithHiddenPlayers())) {
+            player.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.PLAYER_NOT_ONLINE, args[0]));
             return true;
         }
 
         if (target.getUniqueId().equals(player.getUniqueId())) {
-            player.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("cannot_trade_with_yourself"));
+            player.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.CANNOT_TRADE_WITH_YOURSELF));
             return true;
         }
 
-        if (!Main.getInstance().getConfig().getBoolean("tradeThroughWorlds") && !player.getWorld().equals(target.getWorld())) {
-            player.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("player_in_other_world").replace("{player}", target.getName()));
+        if (!Main.getInstance().getSettings().isTradeThroughWorlds() && !player.getWorld().equals(target.getWorld())) {
+            player.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.PLAYER_IN_OTHER_WORLD, target.getName()));
             return true;
         }
 
-        int maxDistance = Main.getInstance().getConfig().getInt("maxTradingDistance");
-        if (!Main.getInstance().getConfig().getBoolean("tradeThroughWorlds") && maxDistance > 0 &&
+        int maxDistance = Main.getInstance().getSettings().getMaxTradingDistance();
+        if (!Main.getInstance().getSettings().isTradeThroughWorlds() && maxDistance > 0 &&
                 player.getLocation().distanceSquared(target.getLocation()) > maxDistance * maxDistance) {
 
-            player.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("player_to_far_away")
-                    .replace("{player}", target.getName())
-                    .replace("{max_distance}", String.valueOf(maxDistance)));
+            player.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.PLAYER_TO_FAR_AWAY, target.getName(), String.valueOf(maxDistance)));
             return true;
         }
 
-        lastRequest.put(player.getUniqueId(), System.currentTimeMillis());
+        requestRateLimiter.acquire(player.getUniqueId(), Main.getInstance().getSettings(), System.currentTimeMillis());
 
         TradeRequestEvent event = new TradeRequestEvent(player, target);
         Bukkit.getPluginManager().callEvent(event);
@@ -182,10 +222,8 @@ public class TradeCommand implements CommandExecutor {
             return true;
         }
 
-        player.sendMessage(ChatColor.GREEN + Main.getInstance().getMessages().getString("successfully_requested_player")
-                .replace("{player}", target.getName()));
-        target.sendMessage(ChatColor.GREEN + Main.getInstance().getMessages().getString("player_wants_to_trade")
-                .replace("{player}", player.getName()));
+        player.sendMessage(Main.getInstance().getMessages().get(ChatColor.GREEN, Message.SUCCESSFULLY_REQUESTED_PLAYER, target.getName()));
+        target.sendMessage(Main.getInstance().getMessages().get(ChatColor.GREEN, Message.PLAYER_WANTS_TO_TRADE, player.getName()));
 
         target.spigot().sendMessage(generateTextComponents());
 
@@ -200,26 +238,24 @@ public class TradeCommand implements CommandExecutor {
                 Player player = Bukkit.getPlayer(playerUUID);
                 Player target = Bukkit.getPlayer(targetUUID);
                 if (player == null) { // (target cannot be offline)
-                    target.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("player_not_online").replace("{player}", playerName));
+                    target.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.PLAYER_NOT_ONLINE, playerName));
                     return;
                 }
-                if (!Main.getInstance().getConfig().getBoolean("tradeThroughWorlds") && !target.getWorld().equals(player.getWorld())) {
-                    target.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("player_in_other_world").replace("{player}", player.getName()));
+                if (!Main.getInstance().getSettings().isTradeThroughWorlds() && !target.getWorld().equals(player.getWorld())) {
+                    target.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.PLAYER_IN_OTHER_WORLD, player.getName()));
                     return;
                 }
 
                 if (player.isSleeping() || target.isSleeping()) {
-                    target.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("trading_not_possible_in_bed"));
+                    target.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.TRADING_NOT_POSSIBLE_IN_BED));
                     return;
                 }
 
-                int maxDistance = Main.getInstance().getConfig().getInt("maxTradingDistance");
-                if (!Main.getInstance().getConfig().getBoolean("tradeThroughWorlds") && maxDistance > 0 &&
+                int maxDistance = Main.getInstance().getSettings().getMaxTradingDistance();
+                if (!Main.getInstance().getSettings().isTradeThroughWorlds() && maxDistance > 0 &&
                         target.getLocation().distanceSquared(player.getLocation()) > maxDistance * maxDistance) {
 
-                    target.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("player_to_far_away")
-                            .replace("{player}", player.getName())
-                            .replace("{max_distance}", String.valueOf(maxDistance)));
+                    target.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.PLAYER_TO_FAR_AWAY, player.getName(), String.valueOf(maxDistance)));
                     return;
                 }
 
@@ -233,7 +269,7 @@ public class TradeCommand implements CommandExecutor {
                 try {
                     new Trade(target, player);
                 } catch (IllegalStateException e) {
-                    player.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("trade_not_possible"));
+                    player.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.TRADE_NOT_POSSIBLE));
                 }
             }
 
@@ -241,13 +277,236 @@ public class TradeCommand implements CommandExecutor {
             public void onTimeout() {
                 Player player = Bukkit.getPlayer(playerUUID);
                 if (player != null) {
-                    player.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("trade_request_not_accepted"));
+                    player.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.TRADE_REQUEST_NOT_ACCEPTED));
                 }
             }
         });
         return true;
     }
 
+    /**
+     * Handles /trade history [player] [page].
+     * <p>
+     * A single number is the page of the own history. The history is read asynchronously and sent on the main thread.
+     *
+     * @param sender The sender of the command.
+     * @param args   The arguments of the command, starting with "history".
+     */
+    private void showHistory(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("safetrade.history")) {
+            sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.NO_PERMISSION));
+            return;
+        }
+        TradeJournal journal = Main.getInstance().getTradeJournal();
+        if (journal == null) {
+            sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.JOURNAL_DISABLED));
+            return;
+        }
+
+        String playerName = null;
+        int page = 1;
+        try {
+            if (args.length == 2) {
+                try {
+                    page = Integer.parseInt(args[1]);
+                } catch (NumberFormatException e) {
+                    playerName = args[1];
+                }
+            } else if (args.length == 3) {
+                playerName = args[1];
+                page = Integer.parseInt(args[2]);
+            } else if (args.length > 3) {
+                page = 0;
+            }
+        } catch (NumberFormatException e) {
+            page = 0;
+        }
+        if (page < 1 || (playerName == null && !(sender instanceof Player))) {
+            sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.WRONG_USAGE,
+                    ChatColor.GOLD + "/trade help" + ChatColor.RED));
+            return;
+        }
+
+        UUID uuid;
+        String name;
+        if (playerName == null || (sender instanceof Player && playerName.equalsIgnoreCase(sender.getName()))) {
+            uuid = ((Player) sender).getUniqueId();
+            name = sender.getName();
+        } else {
+            if (!sender.hasPermission("safetrade.history.others")) {
+                sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.NO_PERMISSION));
+                return;
+            }
+            Player target = Bukkit.getPlayerExact(playerName);
+            uuid = target != null ? target.getUniqueId() : journal.findPlayer(playerName);
+            name = target != null ? target.getName() : playerName;
+            if (uuid == null) {
+                sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.HISTORY_NO_TRADES, name));
+                return;
+            }
+        }
+
+        journal.getHistory(uuid, page, HISTORY_PAGE_SIZE).whenCompleteAsync((history, error) -> {
+            if (error != null) {
+                Main.getInstance().getLogger().log(Level.SEVERE, "Could not read the trade history of " + name, error);
+                sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.JOURNAL_READ_FAILED));
+                return;
+            }
+            sendHistory(sender, uuid, name, history);
+        }, Main.getInstance().getMainThreadExecutor());
+    }
+
+    /**
+     * Sends a page of a trade history.
+     *
+     * @param sender  The receiver of the history.
+     * @param player  The uuid of the player whose history it is.
+     * @param name    The name of the player whose history it is.
+     * @param history The page of the history.
+     */
+    private void sendHistory(CommandSender sender, UUID player, String name, TradeHistoryPage history) {
+        if (history.getPageCount() == 0) {
+            sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.HISTORY_NO_TRADES, name));
+            return;
+        }
+        sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.BLUE, Message.HISTORY_HEADER, name,
+                String.valueOf(history.getPage()), String.valueOf(history.getPageCount())));
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        for (TradeRecord trade : history.getTrades()) {
+            boolean isPlayer1 = trade.getPlayer1().equals(player);
+            String partner = isPlayer1 ? trade.getPlayer2Name() : trade.getPlayer1Name();
+            sender.sendMessage(ChatColor.DARK_GRAY + " - " + Main.getInstance().getMessages().get(ChatColor.GOLD,
+                    Message.HISTORY_TRADE, dateFormat.format(new Date(trade.getTimestamp())), partner,
+                    Main.getInstance().getMessages().get(getResultMessage(trade.getType()))));
+            if (trade.getType() != TradeRecord.Type.SUCCESS) {
+                continue;
+            }
+            String gave = describe(isPlayer1 ? trade.getItems1To2() : trade.getItems2To1(),
+                    isPlayer1 ? trade.getMoney1To2() : trade.getMoney2To1());
+            String received = describe(isPlayer1 ? trade.getItems2To1() : trade.getItems1To2(),
+                    isPlayer1 ? trade.getMoney2To1() : trade.getMoney1To2());
+            sender.sendMessage("   " + Main.getInstance().getMessages().get(ChatColor.GRAY, Message.HISTORY_GAVE, gave));
+            sender.sendMessage("   " + Main.getInstance().getMessages().get(ChatColor.GRAY, Message.HISTORY_RECEIVED, received));
+        }
+    }
+
+    /**
+     * Handles /trade search &lt;days&gt; &lt;query&gt;.
+     * <p>
+     * The trades are searched asynchronously and sent on the main thread.
+     *
+     * @param sender The sender of the command.
+     * @param args   The arguments of the command, starting with "search".
+     */
+    private void search(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("safetrade.search")) {
+            sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.NO_PERMISSION));
+            return;
+        }
+        TradeJournal journal = Main.getInstance().getTradeJournal();
+        if (journal == null) {
+            sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.JOURNAL_DISABLED));
+            return;
+        }
+
+        int days = 0;
+        if (args.length >= 3) {
+            try {
+                days = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                days = 0;
+            }
+        }
+        if (days < 1) {
+            sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.WRONG_USAGE,
+                    ChatColor.GOLD + "/trade help" + ChatColor.RED));
+            return;
+        }
+
+        String[] terms = Arrays.copyOfRange(args, 2, args.length);
+        Set<String> keys;
+        try {
+            keys = ItemTradeIndex.parseQuery(terms);
+        } catch (IllegalArgumentException e) {
+            sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.SEARCH_UNKNOWN_TERM, e.getMessage()));
+            return;
+        }
+
+        String query = String.join(" ", terms);
+        String daysString = String.valueOf(days);
+        long since = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+        int limit = Main.getInstance().getSettings().getSearchResultLimit();
+        journal.search(keys, since, limit).whenCompleteAsync((trades, error) -> {
+            if (error != null) {
+                Main.getInstance().getLogger().log(Level.SEVERE, "Could not search the trades with " + query, error);
+                sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.JOURNAL_READ_FAILED));
+                return;
+            }
+            if (trades.isEmpty()) {
+                sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.SEARCH_NO_RESULTS, query, daysString));
+                return;
+            }
+            sender.sendMessage(Main.getInstance().getMessages().get(ChatColor.BLUE, Message.SEARCH_HEADER, query, daysString));
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+            for (TradeRecord trade : trades) {
+                sender.sendMessage(ChatColor.DARK_GRAY + " - " + Main.getInstance().getMessages().get(ChatColor.GOLD,
+                        Message.SEARCH_TRADE, dateFormat.format(new Date(trade.getTimestamp())),
+                        trade.getPlayer1Name(), trade.getPlayer2Name()));
+                sender.sendMessage("   " + Main.getInstance().getMessages().get(ChatColor.GRAY, Message.SEARCH_GAVE,
+                        trade.getPlayer1Name(), describe(trade.getItems1To2(), trade.getMoney1To2())));
+                sender.sendMessage("   " + Main.getInstance().getMessages().get(ChatColor.GRAY, Message.SEARCH_GAVE,
+                        trade.getPlayer2Name(), describe(trade.getItems2To1(), trade.getMoney2To1())));
+            }
+        }, Main.getInstance().getMainThreadExecutor());
+    }
+
+    /**
+     * Gets the message which describes the outcome of a trade.
+     *
+     * @param type The outcome of the trade.
+     * @return The message.
+     */
+    private static Message getResultMessage(TradeRecord.Type type) {
+        switch (type) {
+            case SUCCESS:
+                return Message.HISTORY_RESULT_SUCCESS;
+            case NOT_ENOUGH_MONEY:
+                return Message.HISTORY_RESULT_NOT_ENOUGH_MONEY;
+            case ECONOMY_FAILED:
+                return Message.HISTORY_RESULT_ECONOMY_FAILED;
+            case CANCELLED:
+                return Message.HISTORY_RESULT_CANCELLED;
+            default:
+                return Message.HISTORY_RESULT_ABORTED;
+        }
+    }
+
+    /**
+     * Describes the items and money a player gave or received in a trade (e.g. "10 Dollars, 3x diamond").
+     *
+     * @param items The items.
+     * @param money The money.
+     * @return The description.
+     */
+    private static String describe(List<ItemStack> items, double money) {
+        StringBuilder description = new StringBuilder();
+        if (money > 0) {
+            IEconomy economy = Main.getInstance().getEconomy();
+            description.append(economy != null ? economy.format(money) : String.valueOf(money));
+        }
+        for (ItemStack item : items) {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append(item.getAmount()).append("x ")
+                    .append(item.getType().name().toLowerCase(Locale.ROOT).replace('_', ' '));
+        }
+        if (description.length() == 0) {
+            return Main.getInstance().getMessages().get(Message.HISTORY_NOTHING);
+        }
+        return description.toString();
+    }
+
     /**
      * Generates the component for how_to_accept_trade message.
      *
@@ -255,17 +514,16 @@ public class TradeCommand implements CommandExecutor {
      */
     private BaseComponent[] generateTextComponents() {
         ComponentBuilder builder = new ComponentBuilder();
-        String howToMessage = Main.getInstance().getMessages().getString("how_to_accept_trade") + " ";
-        String[] splitHowToMessage = howToMessage.split("\\{command}");
-        for (int i = 0; i < splitHowToMessage.length - 1; i++) {
-            builder.append(splitHowToMessage[i]).color(net.md_5.bungee.api.ChatColor.GREEN);
+        MessageTemplate howToMessage = Main.getInstance().getMessages().getTemplate(Message.HOW_TO_ACCEPT_TRADE);
+        for (int i = 0; i < howToMessage.getSlotCount(); i++) {
+            builder.append(howToMessage.getLiteral(i)).color(net.md_5.bungee.api.ChatColor.GREEN);
             BaseComponent[] hoverComponents = new ComponentBuilder()
-                    .append(Main.getInstance().getMessages().getString("how_to_accept_trade_command_hover")).create();
+                    .append(Main.getInstance().getMessages().get(Message.HOW_TO_ACCEPT_TRADE_COMMAND_HOVER)).create();
             builder.append("/trade accept").color(net.md_5.bungee.api.ChatColor.GOLD)
                     .event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/trade accept"))
                     .event(new HoverEvent(HoverEvent.Action.SHOW_TEXT, new Text(hoverComponents)));
         }
-        builder.append(splitHowToMessage[splitHowToMessage.length - 1]).color(net.md_5.bungee.api.ChatColor.GREEN);
+        builder.append(howToMessage.getLiteral(howToMessage.getSlotCount()) + " ").color(net.md_5.bungee.api.ChatColor.GREEN);
         return builder.create();
     }
 
@@ -1,49 +1,45 @@
 package de.oppermann.bastian.safetrade.commands;
 
-import org.bukkit.Bukkit;
+import de.oppermann.bastian.safetrade.Main;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
-import org.bukkit.entity.Player;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * This is class is used for tab completion.
  */
 public class TradeTabCompleter implements TabCompleter {
 
+    /**
+     * The sub commands which can be completed.
+     */
+    private static final String[] SUB_COMMANDS = {"accept", "deny", "help", "history", "reload", "search"};
+
+    /**
+     * The maximum amount of player names which are suggested.
+     */
+    private static final int MAX_PLAYER_NAMES = 64;
+
     @Override
     public List<String> onTabComplete(CommandSender sender, Command cmd, String label, String[] args) {
-        List<String> list = new LinkedList<>();
-
-        if (args.length == 1) { // only 1 argument is possible atm
-            list.add("accept");
-            list.add("deny");
-            list.add("help");
-            list.add("reload");
-            for (Player player : Bukkit.getOnlinePlayers()) { // add all online players
-                if (!sender.equals(player)) { // except the player itself
-                    if (sender instanceof Player) {
-                        if (!((Player) sender).canSee(player)) {
-                            continue;
-                        }
-                    }
-                    list.add(player.getName());
-                }
-            }
+        if (args.length != 1) { // only 1 argument is possible atm
+            return Collections.emptyList();
         }
 
-        Iterator<String> iterator = list.iterator();
-        while (iterator.hasNext()) {
-            String str = iterator.next().toLowerCase();
-            // don't complete names which don't fit the current input
-            if (!str.startsWith(args[args.length - 1].toLowerCase())) {
-                iterator.remove();
+        List<String> list = new ArrayList<>();
+        String input = args[0].toLowerCase(Locale.ROOT);
+        for (String subCommand : SUB_COMMANDS) {
+            // don't complete sub commands which don't fit the current input
+            if (subCommand.startsWith(input)) {
+                list.add(subCommand);
             }
         }
+        Main.getInstance().getPlayerNameIndex().collectNames(sender, input, list, MAX_PLAYER_NAMES);
         return list;
     }
 
@@ -6,6 +6,9 @@ import org.bukkit.event.HandlerList;
 
 /**
  * This event is thrown when a trade gets aborted.
+ * <p>
+ * A trade with money is also aborted if a player doesn't own the offered money or the economy fails. This may happen
+ * after the {@link TradeSuccessEvent} was called, as the money is transferred afterwards.
  */
 public class TradeAbortEvent extends Event {
 
@@ -20,7 +23,8 @@ public class TradeAbortEvent extends Event {
     /**
      * Creates a new trade abort event.
      *
-     * @param aborter        The player who aborted the trade.
+     * @param aborter        The player who aborted the trade, the player who doesn't own the offered money or
+     *                       <code>null</code> if the plugin aborted the trade (e.g. because the economy failed).
      * @param tradingPartner The trading partner.
      */
     public TradeAbortEvent(Player aborter, Player tradingPartner) {
@@ -31,7 +35,8 @@ public class TradeAbortEvent extends Event {
     /**
      * Gets the player who aborted the trade.
      *
-     * @return The player who aborted the trade.
+     * @return The player who aborted the trade, the player who doesn't own the offered money or <code>null</code> if
+     * the plugin aborted the trade.
      */
     public Player getAborter() {
         return aborter;
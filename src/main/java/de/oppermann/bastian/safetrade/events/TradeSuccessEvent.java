@@ -10,6 +10,9 @@ import java.util.List;
 
 /**
  * This event is thrown when both players accept a trade.
+ * <p>
+ * If money is traded, the event is called before the money is transferred, so it can still be cancelled. If the
+ * transfer fails afterwards, the players get their items back and a {@link TradeAbortEvent} is called.
  */
 public class TradeSuccessEvent extends Event implements Cancellable {
 
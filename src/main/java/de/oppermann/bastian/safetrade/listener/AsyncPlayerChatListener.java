@@ -0,0 +1,39 @@
+package de.oppermann.bastian.safetrade.listener;
+
+import de.oppermann.bastian.safetrade.Main;
+import de.oppermann.bastian.safetrade.util.Trade;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerChatEvent;
+
+/**
+ * This class receives the amount of money a player enters in the chat.
+ */
+public class AsyncPlayerChatListener implements Listener {
+
+    /**
+     * This is called automatically by Bukkit.
+     *
+     * @param event The event.
+     */
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onAsyncPlayerChat(AsyncPlayerChatEvent event) {
+        if (!Trade.isEnteringMoney(event.getPlayer().getUniqueId())) {
+            return;
+        }
+        // the message is not meant for the other players
+        event.setCancelled(true);
+
+        final Player player = event.getPlayer();
+        final String message = event.getMessage();
+        Main.getInstance().getMainThreadExecutor().execute(() -> {
+            Trade trade = Trade.getTradeOf(player);
+            if (trade != null) {
+                trade.enterMoney(player, message);
+            }
+        });
+    }
+
+}
@@ -1,9 +1,8 @@
 package de.oppermann.bastian.safetrade.listener;
 
 import de.oppermann.bastian.safetrade.Main;
+import de.oppermann.bastian.safetrade.util.SlotRole;
 import de.oppermann.bastian.safetrade.util.Trade;
-import org.bukkit.Bukkit;
-import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -28,12 +27,13 @@ public class InventoryClickListener implements Listener {
             return;
         }
         Trade trade = Trade.getTradeOf((Player) event.getWhoClicked());
-        if (trade == null) {
+        if (trade == null || trade.isSettling()) {
             return;
         }
         if (event.getClickedInventory() == event.getWhoClicked().getOpenInventory().getTopInventory()) {
             final Inventory partnerInventory = trade.getInventoryOfPartner(event.getWhoClicked().getUniqueId());
-            if (trade.getCurrentAllowedSlots(event.getWhoClicked().getUniqueId()).contains(event.getRawSlot())) {
+            SlotRole role = trade.getSlotRole(event.getWhoClicked().getUniqueId(), event.getRawSlot());
+            if (role == SlotRole.TRADE) {
                 if (trade.isReadyOrHasAccepted(event.getWhoClicked().getUniqueId())) {
                     event.setCancelled(true);
                     return;
@@ -121,22 +121,19 @@ public class InventoryClickListener implements Listener {
                     return;
                 }
 
-                Bukkit.getScheduler().runTaskLater(Main.getInstance(), () -> {
-                    for (HumanEntity player : partnerInventory.getViewers()) {
-                        ((Player) player).updateInventory();
-                    }
-                }, 1);
+                Main.getInstance().getInventoryUpdater().markViewersDirty(partnerInventory);
+                trade.markOfferChanged(event.getWhoClicked().getUniqueId());
             } else { // if they aren't the allowed slots
-                if (trade.getCurrentAcceptSlots(event.getWhoClicked().getUniqueId()).contains(event.getRawSlot())) {
+                if (role == SlotRole.ACCEPT) {
                     trade.approve((Player) event.getWhoClicked());
-                } else if (trade.getCurrentAbortSlots(event.getWhoClicked().getUniqueId()).contains(event.getRawSlot())) {
+                } else if (role == SlotRole.ABORT) {
                     trade.abort((Player) event.getWhoClicked());
-                }
-
-                for (byte i = 0; i < 4; i++) {
-                    if (trade.getCurrentIncreaseMoneySlot(event.getWhoClicked().getUniqueId(), i).contains(event.getRawSlot())) {
-                        trade.changeMoney(event.getWhoClicked().getUniqueId(), i, event.isLeftClick());
-                    }
+                } else if (role.isMoneyButton()) {
+                    // shift-click adds or removes the tenfold value
+                    trade.changeMoney(event.getWhoClicked().getUniqueId(), role.getIncreaseType(), event.isLeftClick(),
+                            event.isShiftClick() ? 10 : 1);
+                } else if (role == SlotRole.ENTER_MONEY) {
+                    trade.promptMoney((Player) event.getWhoClicked());
                 }
                 event.setCancelled(true);
             }
@@ -19,7 +19,7 @@ public class InventoryCloseListener implements Listener {
     @EventHandler
     public void onInventoryClose(InventoryCloseEvent event) {
         Trade trade = Trade.getTradeOf((Player) event.getPlayer());
-        if (trade == null) {
+        if (trade == null || Trade.isEnteringMoney(event.getPlayer().getUniqueId())) {
             return;
         }
         trade.abort((Player) event.getPlayer());
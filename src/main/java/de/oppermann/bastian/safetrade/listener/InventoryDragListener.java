@@ -1,9 +1,8 @@
 package de.oppermann.bastian.safetrade.listener;
 
 import de.oppermann.bastian.safetrade.Main;
+import de.oppermann.bastian.safetrade.util.SlotRole;
 import de.oppermann.bastian.safetrade.util.Trade;
-import org.bukkit.Bukkit;
-import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -11,7 +10,6 @@ import org.bukkit.event.inventory.InventoryDragEvent;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 
-import java.util.List;
 import java.util.Map.Entry;
 
 /**
@@ -27,13 +25,12 @@ public class InventoryDragListener implements Listener {
     @EventHandler
     public void onInventoryDrag(final InventoryDragEvent event) {
         Trade trade = Trade.getTradeOf((Player) event.getWhoClicked());
-        if (trade == null) {
+        if (trade == null || trade.isSettling()) {
             return;
         }
 
-        List<Integer> allowedSlots = trade.getCurrentAllowedSlots(event.getWhoClicked().getUniqueId());
         for (int slot : event.getRawSlots()) {
-            if (!allowedSlots.contains(slot)) {
+            if (trade.getSlotRole(event.getWhoClicked().getUniqueId(), slot) != SlotRole.TRADE) {
                 event.setCancelled(true);
                 return;
             }
@@ -50,11 +47,8 @@ public class InventoryDragListener implements Listener {
             partnerInventory.setItem(entry.getKey() + 5, toSet);
         }
 
-        Bukkit.getScheduler().runTaskLater(Main.getInstance(), () -> {
-            for (HumanEntity player : partnerInventory.getViewers()) {
-                ((Player) player).updateInventory();
-            }
-        }, 1);
+        Main.getInstance().getInventoryUpdater().markViewersDirty(partnerInventory);
+        trade.markOfferChanged(event.getWhoClicked().getUniqueId());
     }
 
 }
@@ -28,7 +28,7 @@ public class PlayerInteractEntityListener implements Listener {
         if (!(event.getRightClicked() instanceof Player)) {
             return;
         }
-        if (!Main.getInstance().getConfig().getBoolean("fastTrade")) {
+        if (!Main.getInstance().getSettings().isFastTrade()) {
             return;
         }
         Player target = (Player) event.getRightClicked();
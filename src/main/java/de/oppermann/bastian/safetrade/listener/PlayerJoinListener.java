@@ -0,0 +1,25 @@
+package de.oppermann.bastian.safetrade.listener;
+
+import de.oppermann.bastian.safetrade.Main;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+
+/**
+ * This class adds players who join the server to the player name index used for tab completion and gives them back
+ * the items of trades which were interrupted by a server crash.
+ */
+public class PlayerJoinListener implements Listener {
+
+    /**
+     * This is called automatically by Bukkit.
+     *
+     * @param event The event.
+     */
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Main.getInstance().getPlayerNameIndex().add(event.getPlayer());
+        Main.getInstance().getEscrowLog().returnUnclaimedItems(event.getPlayer());
+    }
+
+}
@@ -0,0 +1,37 @@
+package de.oppermann.bastian.safetrade.listener;
+
+import de.oppermann.bastian.safetrade.Main;
+import de.oppermann.bastian.safetrade.util.AcceptCommandManager;
+import de.oppermann.bastian.safetrade.util.Trade;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * This class discards the pending trade request of a player who leaves the server, aborts his trade if he was
+ * entering an amount of money, marks his offers in the escrow log as saved and removes him from the player name index.
+ */
+public class PlayerQuitListener implements Listener {
+
+    /**
+     * This is called automatically by Bukkit.
+     *
+     * @param event The event.
+     */
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        AcceptCommandManager.finish(event.getPlayer(), true);
+        if (Trade.isEnteringMoney(event.getPlayer().getUniqueId())) {
+            // the trading inventory is not open, so the InventoryCloseListener won't abort the trade
+            Trade trade = Trade.getTradeOf(event.getPlayer());
+            if (trade != null) {
+                trade.abort(event.getPlayer());
+            }
+        }
+        // the server saves his data when he left, so it's marked as saved before any change
+        Trade.writeChangedOffers();
+        Main.getInstance().getEscrowLog().markSaved(event.getPlayer().getUniqueId());
+        Main.getInstance().getPlayerNameIndex().remove(event.getPlayer());
+    }
+
+}
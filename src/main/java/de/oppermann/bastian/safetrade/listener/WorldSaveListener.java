@@ -0,0 +1,26 @@
+package de.oppermann.bastian.safetrade.listener;
+
+import de.oppermann.bastian.safetrade.Main;
+import de.oppermann.bastian.safetrade.util.Trade;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldSaveEvent;
+
+/**
+ * This class marks the offers and deliveries in the escrow log as saved when the server saves the worlds. On an
+ * autosave and on /save-all the server saves the data of all online players right before the worlds.
+ */
+public class WorldSaveListener implements Listener {
+
+    /**
+     * This is called automatically by Bukkit.
+     *
+     * @param event The event.
+     */
+    @EventHandler
+    public void onWorldSave(WorldSaveEvent event) {
+        Trade.writeChangedOffers(); // the saved data contains their current state already
+        Main.getInstance().getEscrowLog().markSaved();
+    }
+
+}
@@ -1,24 +1,79 @@
 package de.oppermann.bastian.safetrade.util;
 
 import de.oppermann.bastian.safetrade.Main;
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
-import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * This is a simple class for the <code>/trade accept</code> command.
  * <p>
- * (note: This class is copied from an old project of mine and should be rewritten...)
+ * Pending actions expire in a hashed timing wheel which is driven by a single repeating task, so adding, replacing
+ * and expiring an action is O(1) and does not create a scheduler task per request.
  */
 public class AcceptCommandManager {
 
-    // the timeout is 30 seconds so we don't need to use UUIDs, do we?
-    private final static HashMap<String, AcceptAction> actions = new HashMap<>();
-    private final static HashMap<String, BukkitRunnable> runnables = new HashMap<>();
+    /**
+     * The amount of buckets of the timing wheel (must be a power of two).
+     */
+    private final static int WHEEL_SIZE = 256;
+
+    /**
+     * The pending actions by the uuid of the player who has to accept them.
+     */
+    private final static Map<UUID, PendingAction> actions = new HashMap<>();
+
+    /**
+     * The timing wheel. Every bucket contains the actions which may expire when the wheel reaches it.
+     * Actions which were finished or replaced stay in their bucket until it's reached and are dropped then.
+     */
+    @SuppressWarnings("unchecked")
+    private final static List<PendingAction>[] wheel = new List[WHEEL_SIZE];
+
+    /**
+     * The current tick of the timing wheel.
+     */
+    private static long currentTick = 0;
+
+    /**
+     * The repeating task which drives the timing wheel.
+     */
+    private static BukkitTask task = null;
 
     private AcceptCommandManager() { /* nope */ }
 
+    /**
+     * Starts the repeating task which expires the actions.
+     *
+     * @param plugin The SafeTrade plugin.
+     */
+    public static void start(Plugin plugin) {
+        if (task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(plugin, AcceptCommandManager::tick, 1, 1);
+        }
+    }
+
+    /**
+     * Stops the repeating task and discards all pending actions.
+     */
+    public static void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        actions.clear();
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = null;
+        }
+    }
+
     /**
      * Gets the action that is waiting to be confirmed by the player.
      *
@@ -26,7 +81,8 @@ public class AcceptCommandManager {
      * @return The action that is waiting to be confirmed by the player, or <code>null</code> if there is no action.
      */
     public static AcceptAction getAction(Player player) {
-        return actions.getOrDefault(player.getName().toLowerCase(), null);
+        PendingAction pendingAction = actions.get(player.getUniqueId());
+        return pendingAction == null ? null : pendingAction.action;
     }
 
     /**
@@ -37,15 +93,9 @@ public class AcceptCommandManager {
      * @param timeout <code>true</code> if the action was not performed.
      */
     public static void finish(Player player, boolean timeout) {
-        if (actions.containsKey(player.getName().toLowerCase())) {
-            if (timeout) {
-                actions.get(player.getName().toLowerCase()).onTimeout();
-            }
-            actions.remove(player.getName().toLowerCase());
-        }
-
-        if (runnables.containsKey(player.getName().toLowerCase())) {
-            runnables.get(player.getName().toLowerCase()).cancel();
+        PendingAction pendingAction = actions.remove(player.getUniqueId());
+        if (pendingAction != null && timeout) {
+            pendingAction.action.onTimeout();
         }
     }
 
@@ -56,22 +106,72 @@ public class AcceptCommandManager {
      * @param action The (new) action.
      */
     public static void addAction(Player player, AcceptAction action) {
-        actions.put(player.getName().toLowerCase(), action);
+        long timeoutTicks = Math.max(1, Main.getInstance().getSettings().getRequestTimeout() * 20L);
+        PendingAction pendingAction = new PendingAction(player.getUniqueId(), action, currentTick + timeoutTicks);
+        actions.put(pendingAction.player, pendingAction);
+
+        int bucket = (int) (pendingAction.deadline & (WHEEL_SIZE - 1));
+        if (wheel[bucket] == null) {
+            wheel[bucket] = new ArrayList<>();
+        }
+        wheel[bucket].add(pendingAction);
+    }
 
-        if (runnables.containsKey(player.getName().toLowerCase())) {
-            runnables.get(player.getName().toLowerCase()).cancel();
+    /**
+     * Advances the timing wheel by one tick and expires all due actions.
+     */
+    private static void tick() {
+        currentTick++;
+        int bucket = (int) (currentTick & (WHEEL_SIZE - 1));
+        List<PendingAction> due = wheel[bucket];
+        if (due == null || due.isEmpty()) {
+            return;
         }
+        // onTimeout() may add new actions to this bucket, so we have to work on our own list
+        wheel[bucket] = null;
 
-        final Player PLAYER = player;
-        BukkitRunnable runnable = new BukkitRunnable() {
-            @Override
-            public void run() {
-                finish(PLAYER, true);
+        List<PendingAction> expired = null;
+        for (PendingAction pendingAction : due) {
+            if (actions.get(pendingAction.player) != pendingAction) {
+                continue; // already finished or replaced
+            }
+            if (pendingAction.deadline > currentTick) {
+                // the action expires in a later round of the wheel
+                if (wheel[bucket] == null) {
+                    wheel[bucket] = new ArrayList<>();
+                }
+                wheel[bucket].add(pendingAction);
+                continue;
+            }
+            actions.remove(pendingAction.player);
+            if (expired == null) {
+                expired = new ArrayList<>();
             }
-        };
+            expired.add(pendingAction);
+        }
+
+        if (expired != null) {
+            for (PendingAction pendingAction : expired) {
+                pendingAction.action.onTimeout();
+            }
+        }
+    }
+
+    /**
+     * An action that is waiting to be confirmed.
+     */
+    private static final class PendingAction {
+
+        private final UUID player;
+        private final AcceptAction action;
+        private final long deadline;
+
+        private PendingAction(UUID player, AcceptAction action, long deadline) {
+            this.player = player;
+            this.action = action;
+            this.deadline = deadline;
+        }
 
-        runnable.runTaskLater(Main.getInstance(), 20 * 30);
-        runnables.put(player.getName().toLowerCase(), runnable);
     }
 
 }
@@ -0,0 +1,706 @@
+package de.oppermann.bastian.safetrade.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of length-prefixed records which is written by a dedicated thread.
+ * <p>
+ * Every record is stored as its length (int), the record itself and its CRC32 checksum (int). The writer thread
+ * writes all records which were appended since its last run at once and forces them to the disk at most once per
+ * fsync interval (group commit). A record which was only partially written when the server crashed is detected by
+ * its checksum and cut off when the log is opened again.
+ * <p>
+ * A log can also be split into {@link LogSegment}s (see {@link #segmented(File, long, Logger)}). Then a new segment is
+ * started whenever the log is opened or {@link #rotate()} is called. The position of a record is its position in the
+ * whole log, i.e. the base of its segment plus its position in the segment file.
+ */
+public class AppendLog implements Runnable {
+
+    /**
+     * The maximum amount of records which are waiting for the writer thread.
+     */
+    private static final int MAX_QUEUED_RECORDS = 4096;
+
+    /**
+     * The maximum size of a single record.
+     */
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * How long the writer thread sleeps if there is nothing to write.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * How long a producer sleeps if the queue is full.
+     */
+    private static final long FULL_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /**
+     * The marker which is appended to start a new segment. It's compared by identity.
+     */
+    private static final byte[] ROTATE = new byte[0];
+
+    /**
+     * The marker which is appended to force all records appended before to the disk. It's compared by identity.
+     */
+    private static final byte[] SYNC = new byte[0];
+
+    /**
+     * The folder of the segments or <code>null</code> if the log is a single file.
+     */
+    private final File folder;
+    private final long fsyncIntervalMillis;
+    private final Logger logger;
+    private final RingBuffer<byte[]> queue = new RingBuffer<>(MAX_QUEUED_RECORDS);
+
+    /**
+     * The futures of {@link #awaitSync()} in the order of their {@link #SYNC} markers.
+     */
+    private final Queue<CompletableFuture<Void>> syncRequests = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = false;
+
+    /**
+     * Whether writing failed. A failed log discards all further records until it's opened again.
+     */
+    private volatile boolean failed = false;
+    private Thread writer = null;
+    private FileOutputStream fileOut = null;
+    private DataOutputStream out = null;
+
+    /**
+     * The file which is written, i.e. the log file or the current segment.
+     */
+    private volatile File file;
+
+    /**
+     * The base of the segment which is written. All segments with a smaller base are sealed.
+     */
+    private volatile long segmentBase = 0;
+
+    /**
+     * The listener which is informed about records forced to the disk or <code>null</code>.
+     */
+    private SyncListener syncListener = null;
+
+    /**
+     * The position at which the next record is written. Only used by the writer thread after the log was opened.
+     */
+    private long position = 0;
+
+    /*
+     * The state of the writer thread.
+     */
+    private long lastSync = 0;
+    private boolean dirty = false;
+    private final List<byte[]> unsyncedRecords = new ArrayList<>();
+    private long unsyncedPosition = 0;
+
+    /**
+     * Creates a new log. It must be opened before records can be appended.
+     *
+     * @param file                The file of the log.
+     * @param fsyncIntervalMillis The time in milliseconds after which written records are forced to the disk.
+     * @param logger              The logger used to report write errors.
+     */
+    public AppendLog(File file, long fsyncIntervalMillis, Logger logger) {
+        this(file, null, fsyncIntervalMillis, logger);
+    }
+
+    private AppendLog(File file, File folder, long fsyncIntervalMillis, Logger logger) {
+        this.file = file;
+        this.folder = folder;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.logger = logger;
+    }
+
+    /**
+     * Creates a new log which is split into segments. It must be opened before records can be appended.
+     *
+     * @param folder              The folder of the segments.
+     * @param fsyncIntervalMillis The time in milliseconds after which written records are forced to the disk.
+     * @param logger              The logger used to report write errors.
+     * @return The log.
+     */
+    public static AppendLog segmented(File folder, long fsyncIntervalMillis, Logger logger) {
+        return new AppendLog(null, folder, fsyncIntervalMillis, logger);
+    }
+
+    /**
+     * Opens the log and starts the writer thread.
+     * An incomplete record at the end of the file (e.g. after a crash) is removed.
+     *
+     * @throws IOException If the file cannot be opened.
+     */
+    public void open() throws IOException {
+        open((record, position) -> { });
+    }
+
+    /**
+     * Sets the listener which is informed about records forced to the disk. Must be set before the log is opened.
+     *
+     * @param syncListener The listener or <code>null</code>.
+     */
+    public void setSyncListener(SyncListener syncListener) {
+        this.syncListener = syncListener;
+    }
+
+    /**
+     * Opens the log and starts the writer thread.
+     * An incomplete record at the end of the file (e.g. after a crash) is removed.
+     * <p>
+     * A segmented log always continues in a new segment (unless the last segment is still empty), so the existing
+     * segments are sealed and may be compressed.
+     *
+     * @param existingRecords The handler which is called for every record which already exists in the file.
+     * @throws IOException If the file cannot be opened or the handler fails.
+     */
+    public void open(RecordHandler existingRecords) throws IOException {
+        if (running) {
+            return;
+        }
+        if (folder != null) {
+            openSegments(existingRecords);
+        } else {
+            openFile(existingRecords);
+        }
+        fileOut = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+        failed = false;
+        running = true;
+        writer = new Thread(this, "SafeTrade Log Writer (" + (folder != null ? folder : file).getName() + ")");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Reads the log file and removes an incomplete record at its end.
+     *
+     * @param existingRecords The handler which is called for every record which already exists in the file.
+     * @throws IOException If the file cannot be read or the handler fails.
+     */
+    private void openFile(RecordHandler existingRecords) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        position = 0;
+        if (file.exists()) {
+            position = read(file, existingRecords);
+            truncate(file, position);
+        }
+    }
+
+    /**
+     * Reads all segments, removes an incomplete record at the end of the last one and chooses the segment which is
+     * written.
+     *
+     * @param existingRecords The handler which is called for every record which already exists in the segments.
+     * @throws IOException If a segment cannot be read or the handler fails.
+     */
+    private void openSegments(RecordHandler existingRecords) throws IOException {
+        folder.mkdirs();
+        LogSegment.cleanUp(folder);
+        position = 0;
+        LogSegment last = null;
+        List<LogSegment> segments = LogSegment.list(folder);
+        for (int i = 0; i < segments.size(); i++) {
+            LogSegment segment = segments.get(i);
+            if (i < segments.size() - 1) {
+                long end = segments.get(i + 1).getBase(); // a sealed segment ends where the next one starts
+                if (!existingRecords.handlesSegment(segment.getBase(), end)) {
+                    position = end;
+                    continue;
+                }
+            }
+            existingRecords.segmentStarted(segment.getBase());
+            position = segment.read(existingRecords);
+            last = segment;
+        }
+        if (last != null && !last.isCompressed()) {
+            truncate(last.getFile(), position - last.getBase());
+        }
+        if (last != null && !last.isCompressed() && position == last.getBase()) {
+            file = last.getFile(); // the last segment is empty, so it can be used
+        } else {
+            file = LogSegment.getFile(folder, position);
+            existingRecords.segmentStarted(position);
+        }
+        segmentBase = position;
+    }
+
+    /**
+     * Removes an incomplete record at the end of a file.
+     *
+     * @param file        The file.
+     * @param validLength The length of the valid part of the file.
+     * @throws IOException If the file cannot be truncated.
+     */
+    private void truncate(File file, long validLength) throws IOException {
+        if (validLength < file.length()) {
+            logger.log(Level.WARNING, "Removing an incomplete record at the end of " + file.getPath());
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                randomAccessFile.setLength(validLength);
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the log. The record is written asynchronously by the writer thread.
+     * <p>
+     * This method never does any disk I/O. It only blocks if the writer thread cannot keep up with the appended
+     * records.
+     *
+     * @param record The record.
+     */
+    public void append(byte[] record) {
+        if (record.length > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("The record is too large (" + record.length + " bytes)");
+        }
+        if (failed && record != SYNC) {
+            return; // the failure was already reported
+        }
+        while (!queue.offer(record)) {
+            if (!running) {
+                logger.log(Level.WARNING, "Discarding a record for the closed log " + file.getPath());
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, FULL_NANOS);
+        }
+    }
+
+    /**
+     * Starts a new segment. All records which were appended before are written to the current segment.
+     * Like {@link #append(byte[])}, this method never does any disk I/O.
+     *
+     * @throws IllegalStateException If the log is not segmented.
+     */
+    public void rotate() {
+        if (folder == null) {
+            throw new IllegalStateException("The log is not segmented");
+        }
+        append(ROTATE);
+    }
+
+    /**
+     * Forces all records which were appended before to the disk without waiting for the fsync interval.
+     * Like {@link #append(byte[])}, this method never does any disk I/O.
+     *
+     * @return A future which is completed by the writer thread when the records are on the disk. It fails if they
+     * cannot be written or the log is closed.
+     */
+    public CompletableFuture<Void> awaitSync() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!running || failed) {
+            future.completeExceptionally(new IOException("Cannot write to " + file.getPath()));
+            return future;
+        }
+        // the marker which is processed first completes the oldest future, whose records were appended before it
+        syncRequests.add(future);
+        append(SYNC);
+        return future;
+    }
+
+    /**
+     * Writes all appended records, forces them to the disk and stops the writer thread.
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!failed) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not close " + file.getPath(), e);
+            }
+        }
+        completeSyncRequests(Integer.MAX_VALUE, true); // requested after the writer thread stopped
+        writer = null;
+        out = null;
+        fileOut = null;
+    }
+
+    /**
+     * Checks if the log is open.
+     *
+     * @return Whether the log is open. A log which stopped writing after a write error is still open.
+     */
+    public boolean isOpen() {
+        return running;
+    }
+
+    /**
+     * Gets the file of the log. The file of a segmented log is the segment which is currently written.
+     *
+     * @return The file of the log.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the base of the segment which is currently written. All segments with a smaller base are sealed, i.e. they
+     * are never written again.
+     *
+     * @return The base of the current segment.
+     */
+    public long getSegmentBase() {
+        return segmentBase;
+    }
+
+    /**
+     * The loop of the writer thread.
+     */
+    @Override
+    public void run() {
+        CRC32 crc = new CRC32();
+        lastSync = System.currentTimeMillis();
+        dirty = false;
+        unsyncedRecords.clear();
+        unsyncedPosition = position;
+        while (true) {
+            boolean stop = !running; // read before draining, so records appended before close() are written
+            boolean wroteRecords = false;
+            int requestedSyncs = 0;
+            try {
+                byte[] record;
+                while ((record = queue.poll()) != null) {
+                    if (record == SYNC) {
+                        requestedSyncs++;
+                        continue;
+                    }
+                    if (failed) {
+                        continue; // the records cannot be written behind the incomplete one
+                    }
+                    if (record == ROTATE) {
+                        startSegment();
+                        continue;
+                    }
+                    writeRecord(out, record, crc);
+                    position += record.length + 8;
+                    if (syncListener != null) {
+                        unsyncedRecords.add(record);
+                    }
+                    wroteRecords = true;
+                }
+                if (wroteRecords) {
+                    out.flush();
+                    dirty = true;
+                }
+                if (dirty && (stop || requestedSyncs > 0
+                        || System.currentTimeMillis() - lastSync >= fsyncIntervalMillis)) {
+                    sync();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+            completeSyncRequests(requestedSyncs, failed);
+            if (stop) {
+                return;
+            }
+            if (!wroteRecords) {
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Stops writing after a write error. Only called by the writer thread.
+     * <p>
+     * The records which were polled but not written are lost, and the buffer may have been written partially, so
+     * records written behind it would follow an incomplete record and the positions counted by the producers would
+     * be wrong. Therefore all further records are discarded. The incomplete record is at the end of the file then, so
+     * it's removed when the log is opened again.
+     *
+     * @param e The write error.
+     */
+    private void fail(IOException e) {
+        logger.log(Level.SEVERE, "Could not write to " + file.getPath() + "! No more records are written to it "
+                + "until the plugin is enabled again.", e);
+        failed = true;
+        unsyncedRecords.clear();
+        dirty = false;
+        try {
+            fileOut.close(); // the buffered records are discarded
+        } catch (IOException closeException) {
+            // already failed
+        }
+    }
+
+    /**
+     * Completes the oldest futures of {@link #awaitSync()}.
+     *
+     * @param amount The amount of futures to complete.
+     * @param failed Whether the futures fail because their records could not be written.
+     */
+    private void completeSyncRequests(int amount, boolean failed) {
+        CompletableFuture<Void> future;
+        for (int i = 0; i < amount && (future = syncRequests.poll()) != null; i++) {
+            if (failed) {
+                future.completeExceptionally(new IOException("Cannot write to " + file.getPath()));
+            } else {
+                future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Forces the written records to the disk and informs the sync listener. Only called by the writer thread.
+     *
+     * @throws IOException If the records cannot be forced to the disk.
+     */
+    private void sync() throws IOException {
+        fileOut.getChannel().force(false);
+        lastSync = System.currentTimeMillis();
+        dirty = false;
+        if (syncListener != null && !unsyncedRecords.isEmpty()) {
+            notifySyncListener(unsyncedRecords, unsyncedPosition);
+        }
+        unsyncedRecords.clear();
+        unsyncedPosition = position;
+    }
+
+    /**
+     * Seals the current segment and starts a new one. Only called by the writer thread.
+     *
+     * @throws IOException If the current segment cannot be closed or the new one cannot be created.
+     */
+    private void startSegment() throws IOException {
+        out.flush();
+        sync();
+        out.close();
+        File segment = LogSegment.getFile(folder, position);
+        fileOut = new FileOutputStream(segment, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+        file = segment;
+        segmentBase = position;
+    }
+
+    /**
+     * Informs the sync listener about records which were forced to the disk.
+     *
+     * @param records  The records.
+     * @param position The position of the first record.
+     */
+    private void notifySyncListener(List<byte[]> records, long position) {
+        try {
+            syncListener.synced(records, position);
+        } catch (Throwable t) {
+            logger.log(Level.SEVERE, "Could not process the records written to " + file.getPath(), t);
+        }
+    }
+
+    /**
+     * Replaces a log file with the given records. The records are written into a temporary file first which replaces
+     * the log file atomically, so the log file is never incomplete. The log must not be open.
+     *
+     * @param file    The log file.
+     * @param records The records.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void replace(File file, List<byte[]> records) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream tempOut = new FileOutputStream(tempFile)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(tempOut, 64 * 1024));
+            for (byte[] record : records) {
+                writeRecord(out, record, crc);
+            }
+            out.flush();
+            tempOut.getChannel().force(true);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes a single record with its length and checksum.
+     *
+     * @param out    The output.
+     * @param record The record.
+     * @param crc    The checksum used to compute the checksum of the record.
+     * @throws IOException If the record cannot be written.
+     */
+    public static void writeRecord(DataOutputStream out, byte[] record, CRC32 crc) throws IOException {
+        crc.reset();
+        crc.update(record, 0, record.length);
+        out.writeInt(record.length);
+        out.write(record);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Reads all records of a log file. Reading stops at the first incomplete or corrupt record.
+     *
+     * @param file    The log file.
+     * @param handler The handler which is called for every record.
+     * @return The length of the valid part of the file.
+     * @throws IOException If the file cannot be read or the handler fails.
+     */
+    public static long read(File file, RecordHandler handler) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in, 0, handler);
+        }
+    }
+
+    /**
+     * Reads all records of a stream. Reading stops at the first incomplete or corrupt record.
+     *
+     * @param in       The stream. It's not closed.
+     * @param position The position of the first record.
+     * @param handler  The handler which is called for every record.
+     * @return The position behind the last valid record.
+     * @throws IOException If the stream cannot be read or the handler fails.
+     */
+    public static long read(InputStream in, long position, RecordHandler handler) throws IOException {
+        CRC32 crc = new CRC32();
+        DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        byte[] record;
+        while ((record = readRecord(dataIn, crc)) != null) {
+            handler.handle(record, position);
+            position += record.length + 8;
+        }
+        return position;
+    }
+
+    /**
+     * Reads a single record at the given position of a log file.
+     *
+     * @param file     The log file opened for reading.
+     * @param position The position of the record.
+     * @return The record.
+     * @throws IOException If the record cannot be read, is incomplete or corrupt.
+     */
+    public static byte[] readRecord(RandomAccessFile file, long position) throws IOException {
+        file.seek(position);
+        return readRecord((DataInput) file, position);
+    }
+
+    /**
+     * Reads a single record.
+     *
+     * @param in       The input which is positioned at the record.
+     * @param position The position of the record (only used for error messages).
+     * @return The record.
+     * @throws IOException If the record cannot be read, is incomplete or corrupt.
+     */
+    public static byte[] readRecord(DataInput in, long position) throws IOException {
+        byte[] record = readRecord(in, new CRC32());
+        if (record == null) {
+            throw new IOException("Invalid record at position " + position);
+        }
+        return record;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @param in  The input.
+     * @param crc The checksum used to verify the record.
+     * @return The record or <code>null</code> if it's incomplete or corrupt.
+     * @throws IOException If the input cannot be read.
+     */
+    private static byte[] readRecord(DataInput in, CRC32 crc) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length < 0 || length > MAX_RECORD_SIZE) {
+                return null;
+            }
+            byte[] record = new byte[length];
+            in.readFully(record);
+            crc.reset();
+            crc.update(record, 0, length);
+            return in.readInt() == (int) crc.getValue() ? record : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Handles the records read by {@link #read(File, RecordHandler)}.
+     */
+    public interface RecordHandler {
+
+        /**
+         * Handles a record.
+         *
+         * @param record   The record.
+         * @param position The position of the record in the file.
+         * @throws IOException If the record cannot be handled.
+         */
+        void handle(byte[] record, long position) throws IOException;
+
+        /**
+         * Is called before the records of a segment of a segmented log are handled.
+         *
+         * @param base The base of the segment.
+         * @throws IOException If the segment cannot be handled.
+         */
+        default void segmentStarted(long base) throws IOException {
+        }
+
+        /**
+         * Checks if the records of a sealed segment of a segmented log are handled. The other sealed segments are not
+         * read at all. The last segment is always read, as the log continues behind its last valid record.
+         *
+         * @param base The base of the segment.
+         * @param end  The position behind the segment, i.e. the base of the next segment.
+         * @return Whether the records of the segment are handled.
+         */
+        default boolean handlesSegment(long base, long end) {
+            return true;
+        }
+
+    }
+
+    /**
+     * Is informed about records which were forced to the disk. It's called by the writer thread.
+     */
+    public interface SyncListener {
+
+        /**
+         * Handles records which were forced to the disk.
+         *
+         * @param records  The records in the order they were written. The records are stored directly after each
+         *                 other, i.e. the position of the next record is the position of the previous record plus its
+         *                 length plus 8 (for its length and checksum).
+         * @param position The position of the first record in the file.
+         * @throws IOException If the records cannot be handled.
+         */
+        void synced(List<byte[]> records, long position) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,215 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class runs the calls of a (blocking) {@link IEconomy} on a bounded thread pool.
+ * <p>
+ * Every call has a timeout. A batch of transfers gets the timeout once per transfer, as the economy executes them one
+ * by one, so a large batch doesn't time out just because of its size. A call which times out before it was started is
+ * not executed at all. A call which is already running keeps running, but its result is ignored. If such a call
+ * changes a balance, it's reverted with the opposite call as soon as it finished, so a timeout never changes a balance.
+ */
+public class AsyncEconomyAdapter implements IAsyncEconomy {
+
+    /**
+     * The maximum amount of calls which are waiting for a free thread.
+     */
+    private static final int MAX_QUEUED_CALLS = 256;
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_TIMED_OUT = 2;
+
+    private final IEconomy economy;
+    private final long timeoutMillis;
+    private final Logger logger;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor timeoutScheduler;
+
+    /**
+     * Creates a new adapter.
+     *
+     * @param economy       The blocking economy.
+     * @param threads       The amount of threads which call the economy.
+     * @param timeoutMillis The timeout of every call (and of every transfer of a batch) in milliseconds.
+     * @param logger        The logger used to report failed reverts.
+     */
+    public AsyncEconomyAdapter(IEconomy economy, int threads, long timeoutMillis, Logger logger) {
+        this.economy = economy;
+        this.timeoutMillis = timeoutMillis;
+        this.logger = logger;
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_CALLS), createThreadFactory("SafeTrade Economy"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timeoutScheduler = new ScheduledThreadPoolExecutor(1, createThreadFactory("SafeTrade Economy Timeout"));
+        this.timeoutScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public CompletableFuture<Double> getMoney(Player player) {
+        return submit(() -> economy.getMoney(player), null, timeoutMillis);
+    }
+
+    @Override
+    public CompletableFuture<Void> withdrawMoney(Player player, double amount) {
+        return submit(() -> {
+            economy.withdrawMoney(player, amount);
+            return null;
+        }, () -> economy.depositMoney(player, amount), timeoutMillis);
+    }
+
+    @Override
+    public CompletableFuture<Void> depositMoney(Player player, double amount) {
+        return submit(() -> {
+            economy.depositMoney(player, amount);
+            return null;
+        }, () -> economy.withdrawMoney(player, amount), timeoutMillis);
+    }
+
+    @Override
+    public CompletableFuture<Void> transferAll(List<Transfer> transfers) {
+        return submit(() -> {
+            // the balances are checked right before the transfer, as they may have changed since the trade was accepted
+            checkBalances(transfers);
+            economy.transferAll(transfers);
+            return null;
+        }, () -> {
+            List<Transfer> reverted = new ArrayList<>(transfers.size());
+            for (Transfer transfer : transfers) {
+                reverted.add(new Transfer(transfer.getTo(), transfer.getFrom(), transfer.getAmount()));
+            }
+            economy.transferAll(reverted);
+        }, timeoutMillis * transfers.size());
+    }
+
+    /**
+     * Checks if the players who pay covered transfers own the money. Called by an economy thread.
+     *
+     * @param transfers The transfers.
+     * @throws InsufficientFundsException If a player doesn't own the money he pays.
+     */
+    private void checkBalances(List<Transfer> transfers) {
+        Map<UUID, Double> payments = new HashMap<>();
+        for (Transfer transfer : transfers) {
+            if (transfer.isCovered()) {
+                payments.merge(transfer.getFrom().getUniqueId(), transfer.getAmount(), Double::sum);
+            }
+        }
+        for (Transfer transfer : transfers) {
+            Double payment = payments.remove(transfer.getFrom().getUniqueId());
+            if (payment != null && economy.getMoney(transfer.getFrom()) < payment) {
+                throw new InsufficientFundsException(transfer.getFrom());
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new calls and waits until all queued calls are finished.
+     *
+     * @param waitMillis The maximum time to wait in milliseconds.
+     */
+    public void shutdown(long waitMillis) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        timeoutScheduler.shutdown();
+    }
+
+    /**
+     * Stops accepting new calls. Queued calls are still executed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        timeoutScheduler.shutdown();
+    }
+
+    /**
+     * Submits a call.
+     *
+     * @param call          The call.
+     * @param revert        Reverts the call if it finished after its timeout. May be <code>null</code>.
+     * @param timeoutMillis The timeout of the call in milliseconds.
+     * @param <T>           The type of the result.
+     * @return A future which is completed with the result of the call.
+     */
+    private <T> CompletableFuture<T> submit(Callable<T> call, Runnable revert, long timeoutMillis) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        AtomicInteger state = new AtomicInteger(STATE_PENDING);
+        try {
+            executor.execute(() -> {
+                if (!state.compareAndSet(STATE_PENDING, STATE_RUNNING)) {
+                    return; // timed out while waiting in the queue
+                }
+                T result;
+                try {
+                    result = call.call();
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                    return;
+                }
+                if (!future.complete(result) && revert != null) {
+                    try {
+                        revert.run();
+                    } catch (Throwable t) {
+                        logger.log(Level.SEVERE, "Could not revert an economy call which timed out!", t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        ScheduledFuture<?> timeout;
+        try {
+            timeout = timeoutScheduler.schedule(() -> {
+                state.compareAndSet(STATE_PENDING, STATE_TIMED_OUT);
+                future.completeExceptionally(new TimeoutException("The economy did not respond within "
+                        + timeoutMillis + " ms"));
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return future; // the adapter is shutting down, the call is still executed
+        }
+        future.whenComplete((result, throwable) -> timeout.cancel(false));
+        return future;
+    }
+
+    /**
+     * Creates a thread factory for daemon threads.
+     *
+     * @param name The name of the threads.
+     * @return The thread factory.
+     */
+    private static ThreadFactory createThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + " #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
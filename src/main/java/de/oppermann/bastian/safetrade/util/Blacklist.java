@@ -1,23 +1,49 @@
 package de.oppermann.bastian.safetrade.util;
 
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.Material;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.material.MaterialData;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * This class is used to manage the blacklist.
+ * <p>
+ * The blacklist.yml file is compiled when it's loaded, so checking an item does not need to parse the configuration
+ * again.
  */
 public class Blacklist {
 
+    /**
+     * Matches legacy ids in the format "id" or "id:data".
+     */
+    private static final Pattern LEGACY_ID_PATTERN = Pattern.compile("(\\d+)(?::(\\d+))?");
+
     private final JavaPlugin plugin;
     private FileConfiguration config;
 
+    /**
+     * The compiled blacklist.
+     */
+    private CompiledBlacklist compiled = CompiledBlacklist.EMPTY;
+
     /**
      * Creates a new Blacklist object.
      *
@@ -34,6 +60,7 @@ public class Blacklist {
             }
         }
         config = YamlConfiguration.loadConfiguration(configFile);
+        compiled = compile();
     }
 
     /**
@@ -42,7 +69,7 @@ public class Blacklist {
      * @return Whether the blacklist is enabled or not.
      */
     public boolean isEnabled() {
-        return config.getBoolean("enabled", false);
+        return compiled.enabled;
     }
 
     /**
@@ -52,67 +79,191 @@ public class Blacklist {
      * @return Whether the item is blacklisted or not. Always <code>false</code> if the blacklist is disabled.
      */
     public boolean isBlacklisted(ItemStack itemToCheck) {
-        if (!isEnabled() || itemToCheck == null) {
-            // Always return false if blacklist is disabled
-            return false;
-        }
+        return compiled.matches(itemToCheck);
+    }
 
-        // Blacklist based on id
-        List<String> blacklistedItems = config.getStringList("ids");
-        for (String item : blacklistedItems) {
+    /**
+     * Reloads the blacklist.yml file.
+     */
+    public void reload() {
+        config = YamlConfiguration.loadConfiguration(new File(plugin.getDataFolder(), "blacklist.yml"));
+        config.options().copyDefaults(true);
+        compiled = compile();
+    }
 
-            String[] split = item.split(":");
-            String itemId = split[0];
-            String itemData = split.length > 1 ? split[1] : null;
+    /**
+     * Compiles the current configuration.
+     * Invalid entries are reported once and ignored afterwards.
+     *
+     * @return The compiled blacklist.
+     */
+    private CompiledBlacklist compile() {
+        if (!config.getBoolean("enabled", false)) {
+            return CompiledBlacklist.EMPTY;
+        }
 
-            if (itemData == null) {
-                // Only check the item id
-                if (String.valueOf(itemToCheck.getType().getId()).equals(itemId)) {
-                    return true;
+        Set<Material> materials = EnumSet.noneOf(Material.class);
+        for (String entry : config.getStringList("ids")) {
+            entry = entry.trim();
+            Matcher legacyId = LEGACY_ID_PATTERN.matcher(entry);
+            if (legacyId.matches()) {
+                Set<Material> resolved = resolveLegacyId(Integer.parseInt(legacyId.group(1)),
+                        legacyId.group(2) == null ? -1 : Integer.parseInt(legacyId.group(2)));
+                if (resolved.isEmpty()) {
+                    plugin.getLogger().warning("Your blacklist.yml file contains an unknown legacy id: '" + entry + "'");
                 }
-            } else {
-                // Check item id and data
-                if (String.valueOf(itemToCheck.getType().getId()).equals(itemId) &&
-                    String.valueOf(itemToCheck.getData().getData()).equals(itemData))
-                {
-                    return true;
+                materials.addAll(resolved);
+                continue;
+            }
+            Material material = Material.matchMaterial(entry);
+            if (material == null) {
+                plugin.getLogger().warning("Your blacklist.yml file contains an unknown material: '" + entry + "'");
+                continue;
+            }
+            materials.add(material);
+        }
+
+        Set<String> displayNames = new HashSet<>();
+        for (String displayName : config.getStringList("displayName")) {
+            displayNames.add(ChatColor.stripColor(displayName).toLowerCase(Locale.ROOT));
+        }
+
+        Set<String> lores = new HashSet<>();
+        for (String lore : config.getStringList("lore")) {
+            lores.add(ChatColor.stripColor(lore).toLowerCase(Locale.ROOT));
+        }
+
+        List<Pattern> patterns = new ArrayList<>();
+        for (String regex : config.getStringList("regex")) {
+            try {
+                patterns.add(Pattern.compile(regex, Pattern.CASE_INSENSITIVE));
+            } catch (PatternSyntaxException e) {
+                plugin.getLogger().warning("Your blacklist.yml file contains an invalid regex: '" + regex + "' ("
+                        + e.getDescription() + ")");
+            }
+        }
+
+        return new CompiledBlacklist(true, materials, displayNames, lores, patterns);
+    }
+
+    /**
+     * Resolves a legacy id (and data value) to all modern materials it stands for.
+     *
+     * @param id   The legacy id.
+     * @param data The data value or <code>-1</code> if all data values should be matched.
+     * @return The modern materials. Empty if the id is unknown.
+     */
+    @SuppressWarnings("deprecation")
+    private Set<Material> resolveLegacyId(int id, int data) {
+        Set<Material> resolved = EnumSet.noneOf(Material.class);
+        for (Material legacyMaterial : Material.values()) {
+            if (!legacyMaterial.isLegacy() || legacyMaterial.getId() != id) {
+                continue;
+            }
+            int minData = data < 0 ? 0 : data;
+            int maxData = data < 0 ? 15 : data;
+            for (int i = minData; i <= maxData; i++) {
+                Material material = Bukkit.getUnsafe().fromLegacy(new MaterialData(legacyMaterial, (byte) i));
+                if (material != null && material != Material.AIR) {
+                    resolved.add(material);
                 }
             }
         }
+        return resolved;
+    }
+
+    /**
+     * A compiled and immutable version of the blacklist.yml file.
+     */
+    private static final class CompiledBlacklist {
+
+        /**
+         * A compiled blacklist which does not match any item.
+         */
+        private static final CompiledBlacklist EMPTY = new CompiledBlacklist(false, EnumSet.noneOf(Material.class),
+                Collections.<String>emptySet(), Collections.<String>emptySet(), Collections.<Pattern>emptyList());
+
+        private final boolean enabled;
+        private final Set<Material> materials;
+        private final Set<String> displayNames;
+        private final Set<String> lores;
+        private final List<Pattern> patterns;
+
+        /**
+         * Creates a new compiled blacklist.
+         *
+         * @param enabled      Whether the blacklist is enabled.
+         * @param materials    The blacklisted materials.
+         * @param displayNames The blacklisted display names (lower case, without colors).
+         * @param lores        The blacklisted lore lines (lower case, without colors).
+         * @param patterns     The patterns matched against display names and lore lines.
+         */
+        private CompiledBlacklist(boolean enabled, Set<Material> materials, Set<String> displayNames, Set<String> lores,
+                                  List<Pattern> patterns) {
+            this.enabled = enabled;
+            this.materials = materials;
+            this.displayNames = displayNames;
+            this.lores = lores;
+            this.patterns = patterns;
+        }
+
+        /**
+         * Checks if a given item is blacklisted.
+         *
+         * @param itemToCheck The item to check.
+         * @return Whether the item is blacklisted or not.
+         */
+        private boolean matches(ItemStack itemToCheck) {
+            if (!enabled || itemToCheck == null) {
+                // Always return false if blacklist is disabled
+                return false;
+            }
 
-        // Blacklist based on display name
-        List<String> blacklistedDisplayNames = config.getStringList("displayName");
-        for (String displayName : blacklistedDisplayNames) {
-            if (itemToCheck.hasItemMeta() &&
-                itemToCheck.getItemMeta().hasDisplayName() &&
-                itemToCheck.getItemMeta().getDisplayName().equalsIgnoreCase(displayName))
-            {
+            // Blacklist based on material
+            if (materials.contains(itemToCheck.getType())) {
                 return true;
             }
-        }
 
-        // Blacklist based on lore
-        List<String> blacklistedLores = config.getStringList("lore");
-        for (String lore : blacklistedLores) {
-            lore = ChatColor.stripColor(lore);
-            if (itemToCheck.hasItemMeta() && itemToCheck.getItemMeta().hasLore()) {
-                for (String itemLore : itemToCheck.getItemMeta().getLore()) {
+            if ((displayNames.isEmpty() && lores.isEmpty() && patterns.isEmpty()) || !itemToCheck.hasItemMeta()) {
+                return false;
+            }
+            ItemMeta itemMeta = itemToCheck.getItemMeta();
+
+            // Blacklist based on display name
+            if (itemMeta.hasDisplayName()) {
+                String displayName = ChatColor.stripColor(itemMeta.getDisplayName());
+                if (displayNames.contains(displayName.toLowerCase(Locale.ROOT)) || matchesPattern(displayName)) {
+                    return true;
+                }
+            }
+
+            // Blacklist based on lore
+            if (itemMeta.hasLore() && (!lores.isEmpty() || !patterns.isEmpty())) {
+                for (String itemLore : itemMeta.getLore()) {
                     itemLore = ChatColor.stripColor(itemLore);
-                    if (lore.equalsIgnoreCase(itemLore)) {
+                    if (lores.contains(itemLore.toLowerCase(Locale.ROOT)) || matchesPattern(itemLore)) {
                         return true;
                     }
                 }
             }
+            return false;
+        }
+
+        /**
+         * Checks if the given text matches one of the patterns.
+         *
+         * @param text The text to check.
+         * @return Whether the text matches one of the patterns or not.
+         */
+        private boolean matchesPattern(String text) {
+            for (Pattern pattern : patterns) {
+                if (pattern.matcher(text).find()) {
+                    return true;
+                }
+            }
+            return false;
         }
-        return false;
-    }
 
-    /**
-     * Reloads the blacklist.yml file.
-     */
-    public void reload() {
-        config = YamlConfiguration.loadConfiguration(new File(plugin.getDataFolder(), "blacklist.yml"));
-        config.options().copyDefaults(true);
     }
 
 }
@@ -0,0 +1,186 @@
+package de.oppermann.bastian.safetrade.util;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * This class contains methods to write and read compact values (varints, strings, uuids) to and from a
+ * {@link ByteBuffer}.
+ */
+public class ByteBufferUtils {
+
+    private ByteBufferUtils() { /* nope */ }
+
+    /**
+     * Writes a non-negative int with 7 bits per byte. Small values only need a single byte.
+     *
+     * @param out   The buffer.
+     * @param value The value. Must not be negative.
+     */
+    public static void writeVarInt(ByteBuffer out, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative varint " + value);
+        }
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads a varint written by {@link #writeVarInt(ByteBuffer, int)}.
+     *
+     * @param in The buffer.
+     * @return The value.
+     * @throws IOException If the varint is invalid.
+     */
+    public static int readVarInt(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = get(in);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Negative varint");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Varint is too long");
+    }
+
+    /**
+     * Writes a non-negative long with 7 bits per byte. Small values only need a single byte.
+     *
+     * @param out   The buffer.
+     * @param value The value. Must not be negative.
+     */
+    public static void writeVarLong(ByteBuffer out, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative varlong " + value);
+        }
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads a varlong written by {@link #writeVarLong(ByteBuffer, long)}.
+     *
+     * @param in The buffer.
+     * @return The value.
+     * @throws IOException If the varlong is invalid.
+     */
+    public static long readVarLong(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = get(in);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Negative varlong");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Varlong is too long");
+    }
+
+    /**
+     * Writes a string as its UTF-8 length (varint) and bytes.
+     *
+     * @param out   The buffer.
+     * @param value The string.
+     */
+    public static void writeString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.put(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(ByteBuffer, String)}.
+     *
+     * @param in The buffer.
+     * @return The string.
+     * @throws IOException If the string is invalid.
+     */
+    public static String readString(ByteBuffer in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a byte array as its length (varint) and content.
+     *
+     * @param out   The buffer.
+     * @param bytes The bytes.
+     */
+    public static void writeBytes(ByteBuffer out, byte[] bytes) {
+        writeVarInt(out, bytes.length);
+        out.put(bytes);
+    }
+
+    /**
+     * Reads a byte array written by {@link #writeBytes(ByteBuffer, byte[])}.
+     *
+     * @param in The buffer.
+     * @return The bytes.
+     * @throws IOException If the length is invalid.
+     */
+    public static byte[] readBytes(ByteBuffer in) throws IOException {
+        int length = readVarInt(in);
+        if (length > in.remaining()) {
+            throw new IOException("Unexpected end of record");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a uuid.
+     *
+     * @param out  The buffer.
+     * @param uuid The uuid.
+     */
+    public static void writeUUID(ByteBuffer out, UUID uuid) {
+        out.putLong(uuid.getMostSignificantBits());
+        out.putLong(uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Reads a uuid.
+     *
+     * @param in The buffer.
+     * @return The uuid.
+     * @throws IOException If the buffer ends too early.
+     */
+    public static UUID readUUID(ByteBuffer in) throws IOException {
+        try {
+            return new UUID(in.getLong(), in.getLong());
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Unexpected end of record", e);
+        }
+    }
+
+    /**
+     * Reads a single byte.
+     *
+     * @param in The buffer.
+     * @return The byte.
+     * @throws IOException If the buffer ends too early.
+     */
+    public static byte get(ByteBuffer in) throws IOException {
+        if (!in.hasRemaining()) {
+            throw new IOException("Unexpected end of record");
+        }
+        return in.get();
+    }
+
+}
@@ -10,6 +10,11 @@ import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.logging.Level;
 
 /**
@@ -17,10 +22,25 @@ import java.util.logging.Level;
  */
 public class Design {
 
+    /**
+     * The maximum amount of cached item templates.
+     */
+    private static final int MAX_CACHED_TEMPLATES = 256;
+
     private final JavaPlugin plugin;
     private FileConfiguration config;
     private FileConfiguration fallbackConfig;
 
+    /**
+     * The resolved materials by their id. Replaced on every reload.
+     */
+    private Map<String, ResolvedMaterial> resolvedMaterials = new HashMap<>();
+
+    /**
+     * The cached item templates. Replaced on every reload.
+     */
+    private Map<TemplateKey, ItemStack> templates = createTemplateCache();
+
     /**
      * Creates a new Design object.
      *
@@ -57,6 +77,51 @@ public class Design {
      * @return A ItemStack with the given values.
      */
     public ItemStack getItem(String id, String displayName, String... lore) {
+        TemplateKey key = new TemplateKey(id, displayName, lore);
+        ItemStack template = templates.get(key);
+        if (template == null) {
+            template = createItem(id, displayName, lore);
+            // the caller may reuse the lore array, so the key gets its own copy
+            templates.put(new TemplateKey(id, displayName, lore.clone()), template);
+        }
+        return template.clone();
+    }
+
+    /**
+     * Creates a new {@link ItemStack} which is used as template by {@link #getItem(String, String, String...)}.
+     *
+     * @param id          The id of the item (e.g. 'acceptTrade')
+     * @param displayName The display name of the ItemStack.
+     * @param lore        The lore of the ItemStack.
+     * @return A ItemStack with the given values.
+     */
+    private ItemStack createItem(String id, String displayName, String... lore) {
+        ResolvedMaterial resolved = resolvedMaterials.get(id);
+        if (resolved == null) {
+            resolved = resolveMaterial(id);
+            resolvedMaterials.put(id, resolved);
+        }
+        if (resolved.lore != null) {
+            lore = resolved.lore;
+        }
+
+        ItemStack itemStack = new ItemStack(resolved.material, 1);
+        ItemMeta itemMeta = itemStack.getItemMeta();
+        itemMeta.setDisplayName(displayName);
+        if (lore.length != 0) {
+            itemMeta.setLore(Lists.newArrayList(lore));
+        }
+        itemStack.setItemMeta(itemMeta);
+        return itemStack;
+    }
+
+    /**
+     * Resolves the material for the given id. Problems are only logged here, so they are reported once per id.
+     *
+     * @param id The id of the item (e.g. 'acceptTrade')
+     * @return The resolved material.
+     */
+    private ResolvedMaterial resolveMaterial(String id) {
         String item = config.getString(id);
         if (item == null) {
             item = fallbackConfig.getString(id);
@@ -64,7 +129,7 @@ public class Design {
                 plugin.getLogger().log(Level.SEVERE, "Failed to find material for id '" + id + "'! " +
                         "Please update to the latest SafeTrade version or report this as a bug if you are already " +
                         "using the latest version!");
-                return new ItemStack(Material.TNT);
+                return new ResolvedMaterial(Material.TNT, null);
             }
         }
 
@@ -72,27 +137,18 @@ public class Design {
         if (material == null) {
             String invalidItem = item;
             item = fallbackConfig.getString(id);
-            material = Material.matchMaterial(item);
+            material = item == null ? null : Material.matchMaterial(item);
             if (material == null) {
-                material = Material.TNT;
-                lore = new String[] { "Invalid material in style.yml file for " + id + "!\n" +
-                        "Please update to the latest SafeTrade version or report this as a bug if you are already " +
-                        "using the latest version!" };
+                return new ResolvedMaterial(Material.TNT, new String[] { "Invalid material in style.yml file for " +
+                        id + "!\n" + "Please update to the latest SafeTrade version or report this as a bug if you " +
+                        "are already using the latest version!" });
             } else {
                 plugin.getLogger().warning("Your style.yml file contains an invalid material for id '" + id +
                         "': '" + invalidItem + "'. Please fix your configuration. Take a look at the " +
                         "style_original.yml file for a correct configuration.");
             }
         }
-
-        ItemStack itemStack = new ItemStack(material, 1);
-        ItemMeta itemMeta = itemStack.getItemMeta();
-        itemMeta.setDisplayName(displayName);
-        if (lore.length != 0) {
-            itemMeta.setLore(Lists.newArrayList(lore));
-        }
-        itemStack.setItemMeta(itemMeta);
-        return itemStack;
+        return new ResolvedMaterial(material, null);
     }
 
     /**
@@ -101,6 +157,78 @@ public class Design {
     public void reload() {
         config = YamlConfiguration.loadConfiguration(new File(plugin.getDataFolder(), "style.yml"));
         config.options().copyDefaults(true);
+        resolvedMaterials = new HashMap<>();
+        templates = createTemplateCache();
+    }
+
+    /**
+     * Creates a new, empty cache for item templates.
+     *
+     * @return A new, empty cache for item templates.
+     */
+    private static Map<TemplateKey, ItemStack> createTemplateCache() {
+        return new LinkedHashMap<TemplateKey, ItemStack>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TemplateKey, ItemStack> eldest) {
+                return size() > MAX_CACHED_TEMPLATES;
+            }
+        };
+    }
+
+    /**
+     * The material of an id, resolved from the style.yml file.
+     */
+    private static final class ResolvedMaterial {
+
+        private final Material material;
+
+        /**
+         * The lore which replaces the requested lore (used to show configuration errors) or <code>null</code>.
+         */
+        private final String[] lore;
+
+        private ResolvedMaterial(Material material, String[] lore) {
+            this.material = material;
+            this.lore = lore;
+        }
+
+    }
+
+    /**
+     * The key of a cached item template.
+     */
+    private static final class TemplateKey {
+
+        private final String id;
+        private final String displayName;
+        private final String[] lore;
+        private final int hashCode;
+
+        private TemplateKey(String id, String displayName, String[] lore) {
+            this.id = id;
+            this.displayName = displayName;
+            this.lore = lore;
+            this.hashCode = 31 * (31 * id.hashCode() + Objects.hashCode(displayName)) + Arrays.hashCode(lore);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TemplateKey)) {
+                return false;
+            }
+            TemplateKey other = (TemplateKey) obj;
+            return hashCode == other.hashCode && id.equals(other.id)
+                    && Objects.equals(displayName, other.displayName) && Arrays.equals(lore, other.lore);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
     }
 
 }
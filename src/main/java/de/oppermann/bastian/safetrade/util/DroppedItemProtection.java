@@ -0,0 +1,97 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.bukkit.entity.Item;
+import org.bukkit.entity.Player;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+/**
+ * When a player trades items but then does not have enough place in their inventory, we drop the items on the floor.
+ * This class makes sure that the owner has 30 seconds to pick up these items before anyone else is able to.
+ * <p>
+ * The protected items are stored by their entity uuid. As every item is protected for the same time, the entries are
+ * ordered by their expiry and expired entries can be removed from the head of the map.
+ */
+public class DroppedItemProtection {
+
+    /**
+     * The time in milliseconds the owner has to pick up his items.
+     */
+    private static final long PROTECTION_TIME = 1000 * 30;
+
+    /**
+     * The protected items by their entity uuid, ordered by their expiry.
+     */
+    private final LinkedHashMap<UUID, Protection> protectedItems = new LinkedHashMap<>();
+
+    /**
+     * Protects a dropped item, so only its owner can pick it up for the next 30 seconds.
+     *
+     * @param item  The dropped item.
+     * @param owner The uuid of the owner.
+     */
+    public void protect(Item item, UUID owner) {
+        long now = System.currentTimeMillis();
+        removeExpired(now);
+        protectedItems.put(item.getUniqueId(), new Protection(owner, now + PROTECTION_TIME));
+    }
+
+    /**
+     * Checks if a player is allowed to pick up an item.
+     *
+     * @param item   The item.
+     * @param player The player.
+     * @return Whether the player is allowed to pick up the item.
+     */
+    public boolean canPickUp(Item item, Player player) {
+        Protection protection = protectedItems.get(item.getUniqueId());
+        if (protection == null) {
+            return true;
+        }
+        if (protection.expiry <= System.currentTimeMillis()) {
+            protectedItems.remove(item.getUniqueId());
+            return true;
+        }
+        return protection.owner.equals(player.getUniqueId());
+    }
+
+    /**
+     * Removes all protections.
+     */
+    public void clear() {
+        protectedItems.clear();
+    }
+
+    /**
+     * Removes all expired protections.
+     *
+     * @param now The current time in milliseconds.
+     */
+    private void removeExpired(long now) {
+        Iterator<Protection> iterator = protectedItems.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expiry > now) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * The owner of a protected item and the end of the protection.
+     */
+    private static final class Protection {
+
+        private final UUID owner;
+        private final long expiry;
+
+        private Protection(UUID owner, long expiry) {
+            this.owner = owner;
+            this.expiry = expiry;
+        }
+
+    }
+
+}
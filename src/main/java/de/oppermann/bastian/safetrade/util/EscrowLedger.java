@@ -0,0 +1,160 @@
+package de.oppermann.bastian.safetrade.util;
+
+import de.oppermann.bastian.safetrade.Main;
+import org.bukkit.entity.Player;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class holds the money players offer in their trades.
+ * <p>
+ * The balance of a player is fetched once, when he offers money for the first time, and is cached as long as money is
+ * held for him. An offer is only held as far as it's covered by the cached balance minus the money held for his
+ * other trades, so neither changing the offer nor accepting the trade has to wait for the economy. The held money is
+ * committed when it was transferred and released when the trade was aborted. As other plugins may change the balance
+ * meanwhile, the settlement checks the balance of the payer once more right before it transfers the money.
+ */
+public class EscrowLedger {
+
+    /**
+     * The accounts of all players with held money by the uuid of the player.
+     */
+    private final Map<UUID, Account> accounts = new HashMap<>();
+
+    /**
+     * Holds money of a player for a trade. It replaces the money held for this trade before. If the balance of the
+     * player is known already, only the part of the amount which is covered by it is held.
+     *
+     * @param player  The player.
+     * @param tradeId The id of the trade.
+     * @param amount  The amount of money to hold.
+     * @return The amount of money which is held now.
+     */
+    public int hold(Player player, long tradeId, int amount) {
+        Account account = accounts.get(player.getUniqueId());
+        if (account == null) {
+            if (amount == 0) {
+                return 0;
+            }
+            account = new Account(Main.getInstance().getAsyncEconomy().getMoney(player));
+            accounts.put(player.getUniqueId(), account);
+        }
+        double available = getAvailable(account, tradeId);
+        if (amount > available) { // false if the balance is not known yet
+            amount = (int) Math.max(0, Math.floor(available));
+        }
+        account.holds.put(tradeId, amount);
+        return amount;
+    }
+
+    /**
+     * Checks if the money held for a trade is covered by the cached balance of the player. The balance must be known,
+     * see {@link #getBalance(Player)}.
+     *
+     * @param player  The uuid of the player.
+     * @param tradeId The id of the trade.
+     * @return Whether the held money is covered.
+     */
+    public boolean isCovered(UUID player, long tradeId) {
+        Account account = accounts.get(player);
+        if (account == null) {
+            return true; // nothing is held
+        }
+        Integer held = account.holds.get(tradeId);
+        return held == null || held <= getAvailable(account, tradeId);
+    }
+
+    /**
+     * Gets the balance of a player who has held money. The balance is only fetched again if fetching it failed.
+     *
+     * @param player The player.
+     * @return A future which is completed with the balance of the player.
+     */
+    public CompletableFuture<Double> getBalance(Player player) {
+        Account account = accounts.get(player.getUniqueId());
+        if (account == null) {
+            return Main.getInstance().getAsyncEconomy().getMoney(player);
+        }
+        if (account.balance.isCompletedExceptionally()) {
+            account.balance = Main.getInstance().getAsyncEconomy().getMoney(player);
+        }
+        return account.balance;
+    }
+
+    /**
+     * Commits the money held for a trade after the money was transferred. The cached balance is changed by the
+     * transferred amount, as it's still used by the other trades of the player.
+     *
+     * @param player        The uuid of the player.
+     * @param tradeId       The id of the trade.
+     * @param balanceChange The money the player received (positive) or paid (negative).
+     */
+    public void commit(UUID player, long tradeId, double balanceChange) {
+        Account account = accounts.get(player);
+        if (account != null && balanceChange != 0) {
+            account.balance = account.balance.thenApply(balance -> balance + balanceChange);
+        }
+        release(player, tradeId);
+    }
+
+    /**
+     * Releases the money held for a trade, e.g. because it was aborted.
+     *
+     * @param player  The uuid of the player.
+     * @param tradeId The id of the trade.
+     */
+    public void release(UUID player, long tradeId) {
+        Account account = accounts.get(player);
+        if (account != null) {
+            account.holds.remove(tradeId);
+            if (account.holds.isEmpty()) {
+                accounts.remove(player); // the balance may be outdated when he offers money again
+            }
+        }
+    }
+
+    /**
+     * Releases all held money.
+     */
+    public void clear() {
+        accounts.clear();
+    }
+
+    /**
+     * Gets the money of a player which is not held for other trades.
+     *
+     * @param account The account of the player.
+     * @param tradeId The id of the trade.
+     * @return The available money or {@link Double#NaN} if the balance is not known (yet).
+     */
+    private static double getAvailable(Account account, long tradeId) {
+        if (!account.balance.isDone() || account.balance.isCompletedExceptionally()) {
+            return Double.NaN;
+        }
+        double available = account.balance.join();
+        for (Map.Entry<Long, Integer> hold : account.holds.entrySet()) {
+            if (hold.getKey() != tradeId) {
+                available -= hold.getValue();
+            }
+        }
+        return available;
+    }
+
+    /**
+     * The cached balance of a player and the money held for his trades.
+     */
+    private static final class Account {
+
+        private CompletableFuture<Double> balance;
+        private final Map<Long, Integer> holds = new HashMap<>();
+
+        private Account(CompletableFuture<Double> balance) {
+            this.balance = balance;
+        }
+
+    }
+
+}
@@ -0,0 +1,437 @@
+package de.oppermann.bastian.safetrade.util;
+
+import de.oppermann.bastian.safetrade.Main;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A write-ahead log of the items which are offered in running trades.
+ * <p>
+ * After a crash the server loads a player from his last save, so the log has to know which of its records the saved
+ * player data already reflects. Whenever a player changes his offer, the complete offer is appended to the log. When
+ * the server saved the player data (autosave, save-all or the player left), the offer is marked as saved: Only then
+ * it's missing in the saved inventory of its owner, so only saved offers are recovered. Items which leave the escrow
+ * are written as a delivery after the trade was marked as resolved, and they are given to their receiver when both
+ * are on the disk. A delivery is recovered until it's marked as saved, as the saved inventory of the receiver doesn't
+ * contain it before. So a crash may lose items which were just offered or delivered, but it never duplicates them.
+ * <p>
+ * If the server crashes during a trade, the last saved offers of all unresolved trades and all unsaved deliveries
+ * are recovered when the plugin is enabled again and given to their owners as soon as they are online. The items of
+ * a finished trade whose receiver left the server are kept the same way.
+ * <p>
+ * The log is written by the writer thread of an {@link AppendLog}, so no method of this class does any disk I/O
+ * except {@link #open()} and {@link #close()}.
+ */
+public class EscrowLog {
+
+    private static final byte TYPE_OFFER = 1;
+    private static final byte TYPE_RESOLVE = 2;
+    private static final byte TYPE_CLAIM = 3;
+    private static final byte TYPE_SAVED = 4;
+    private static final byte TYPE_DELIVER = 5;
+
+    private final File file;
+    private final long fsyncIntervalMillis;
+    private final Logger logger;
+    private AppendLog log = null;
+
+    /**
+     * The codec of the log file. Only used while holding the lock of this log.
+     */
+    private ItemCodec codec = new ItemCodec();
+
+    /**
+     * The id of the next trade.
+     */
+    private long nextTradeId = 1;
+
+    /**
+     * The recovered items of interrupted trades by their owner and trade id.
+     */
+    private final Map<UUID, Map<Long, List<ItemStack>>> unclaimedItems = new HashMap<>();
+
+    /**
+     * The ids of the offers and deliveries which were not marked as saved yet by their owner.
+     */
+    private final Map<UUID, Set<Long>> unsavedRecords = new HashMap<>();
+
+    /**
+     * The amount of claimed items which are waiting for their claim to be on the disk.
+     */
+    private int pendingClaims = 0;
+
+    /**
+     * Creates a new escrow log.
+     *
+     * @param file                The log file.
+     * @param fsyncIntervalMillis The time in milliseconds after which written records are forced to the disk.
+     * @param logger              The logger used to report errors.
+     */
+    public EscrowLog(File file, long fsyncIntervalMillis, Logger logger) {
+        this.file = file;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.logger = logger;
+    }
+
+    /**
+     * Recovers the offers of all unresolved trades and opens the log.
+     * <p>
+     * The log is compacted first: It's rewritten with only the unresolved offers into a temporary file which replaces
+     * the old log atomically, so a crash during the recovery doesn't lose any offer either.
+     *
+     * @throws IOException If the log cannot be read or opened.
+     */
+    public synchronized void open() throws IOException {
+        if (log != null) {
+            return;
+        }
+        codec = new ItemCodec(); // the dictionary belongs to the file, so it starts empty for the compacted file
+        if (file.exists()) {
+            recover();
+            compact();
+        }
+        log = new AppendLog(file, fsyncIntervalMillis, logger);
+        log.open();
+    }
+
+    /**
+     * Saves the players with unsaved offers or deliveries, writes all pending records to the disk and closes the log.
+     * The players are saved here, as the server may not save them after the plugin was disabled (e.g. on a reload).
+     */
+    public synchronized void close() {
+        if (log != null) {
+            for (UUID owner : unsavedRecords.keySet()) {
+                Player player = Bukkit.getPlayer(owner);
+                if (player != null) {
+                    player.saveData();
+                }
+            }
+            markSaved();
+            log.close();
+            log = null;
+        }
+        unsavedRecords.clear();
+        unclaimedItems.clear();
+    }
+
+    /**
+     * Gets a new id for a trade. The id is unique for all trades in the log.
+     *
+     * @return A new trade id.
+     */
+    public long nextTradeId() {
+        return nextTradeId++;
+    }
+
+    /**
+     * Writes the current offer of a player. It's recovered after a crash once it was marked as saved.
+     *
+     * @param tradeId The id of the trade.
+     * @param owner   The player who offers the items.
+     * @param items   All items the player currently offers.
+     */
+    public synchronized void writeOffer(long tradeId, UUID owner, List<ItemStack> items) {
+        if (log == null) {
+            return;
+        }
+        log.append(encode(TYPE_OFFER, tradeId, owner, items));
+        unsavedRecords.computeIfAbsent(owner, uuid -> new HashSet<>()).add(tradeId);
+    }
+
+    /**
+     * Marks all offers and deliveries as saved. Must be called right after the server saved the data of all online
+     * players, before any of them changed.
+     */
+    public synchronized void markSaved() {
+        for (UUID owner : new ArrayList<>(unsavedRecords.keySet())) {
+            markSaved(owner);
+        }
+    }
+
+    /**
+     * Marks the offers and deliveries of a player as saved. Must be called right before or after the server saved
+     * his data (e.g. when he leaves), before it changed.
+     *
+     * @param owner The uuid of the player.
+     */
+    public synchronized void markSaved(UUID owner) {
+        Set<Long> ids = unsavedRecords.remove(owner);
+        if (ids == null || log == null) {
+            return;
+        }
+        for (long id : ids) {
+            log.append(encode(TYPE_SAVED, id, owner, null));
+        }
+    }
+
+    /**
+     * Marks a trade as resolved and delivers its items to their receivers when this is on the disk, so they cannot
+     * be recovered after a crash although their receiver has them already. Items of a receiver who left the server
+     * are given to him when he joins again. Must be called on the main thread.
+     *
+     * @param tradeId The id of the trade.
+     * @param items   The items by the uuid of their receiver. The lists may contain <code>null</code>s.
+     * @return A future which is completed on the main thread when the items were delivered. It fails if the log
+     * cannot be written, then the items are recovered when the plugin is enabled again.
+     */
+    public synchronized CompletableFuture<Void> release(long tradeId, Map<UUID, List<ItemStack>> items) {
+        List<Delivery> deliveries = new ArrayList<>();
+        for (Map.Entry<UUID, List<ItemStack>> receiverItems : items.entrySet()) {
+            List<ItemStack> deliveredItems = new ArrayList<>();
+            for (ItemStack item : receiverItems.getValue()) {
+                if (item != null && item.getType() != Material.AIR && item.getAmount() > 0) {
+                    deliveredItems.add(item.clone());
+                }
+            }
+            if (!deliveredItems.isEmpty()) {
+                // an own id, so resolving the trade doesn't discard the delivery
+                deliveries.add(new Delivery(nextTradeId(), receiverItems.getKey(), deliveredItems));
+            }
+        }
+
+        CompletableFuture<Void> resolved = CompletableFuture.completedFuture(null); // nothing could be recovered anyway
+        if (log != null) {
+            // resolved first, a crash between both records must rather lose the items than duplicate them
+            log.append(encode(TYPE_RESOLVE, tradeId, null, null));
+            for (Delivery delivery : deliveries) {
+                log.append(encode(TYPE_DELIVER, delivery.id, delivery.receiver, delivery.items));
+            }
+            resolved = log.awaitSync();
+        }
+        return resolved.thenRunAsync(() -> {
+            for (Delivery delivery : deliveries) {
+                deliver(delivery);
+            }
+        }, Main.getInstance().getMainThreadExecutor());
+    }
+
+    /**
+     * Gives a player all recovered items of interrupted trades he offered and the items which were kept for him.
+     * The items are claimed and written as a delivery in the log first and delivered when this is on the disk. Items
+     * which don't fit into his inventory are dropped.
+     *
+     * @param player The player.
+     */
+    public synchronized void returnUnclaimedItems(Player player) {
+        UUID owner = player.getUniqueId();
+        Map<Long, List<ItemStack>> items = unclaimedItems.remove(owner);
+        if (items == null) {
+            return;
+        }
+        List<ItemStack> claimedItems = new ArrayList<>();
+        for (List<ItemStack> offer : items.values()) {
+            claimedItems.addAll(offer);
+        }
+        Delivery delivery = new Delivery(nextTradeId(), owner, claimedItems);
+        CompletableFuture<Void> claimed = CompletableFuture.completedFuture(null);
+        if (log != null) {
+            // claimed first, a crash between the records must rather lose the items than duplicate them
+            for (long tradeId : items.keySet()) {
+                log.append(encode(TYPE_CLAIM, tradeId, owner, null));
+            }
+            log.append(encode(TYPE_DELIVER, delivery.id, owner, claimedItems));
+            claimed = log.awaitSync();
+        }
+        pendingClaims++;
+        claimed.whenCompleteAsync((ignored, throwable) -> {
+            pendingClaims--;
+            if (throwable != null) {
+                logger.log(Level.SEVERE, "Could not claim the recovered items of " + player.getName()
+                        + ". They are given back when the plugin is enabled again.", throwable);
+                return;
+            }
+            if (deliver(delivery)) {
+                Bukkit.getPlayer(owner).sendMessage(
+                        Main.getInstance().getMessages().get(ChatColor.GREEN, Message.ITEMS_RECOVERED));
+            }
+        }, Main.getInstance().getMainThreadExecutor());
+    }
+
+    /**
+     * Checks if there are claimed items which were not delivered yet. Must be called on the main thread.
+     *
+     * @return Whether there are claimed items which were not delivered yet.
+     */
+    public boolean hasPendingClaims() {
+        return pendingClaims > 0;
+    }
+
+    /**
+     * Gives the items of a delivery to their receiver. If he left the server meanwhile, they are kept until he joins
+     * again, as his saved data doesn't contain them. Must be called on the main thread.
+     *
+     * @param delivery The delivery.
+     * @return Whether the receiver got the items.
+     */
+    private synchronized boolean deliver(Delivery delivery) {
+        Player receiver = Bukkit.getPlayer(delivery.receiver); // not the player who accepted, he may have joined again
+        if (receiver == null) {
+            unclaimedItems.computeIfAbsent(delivery.receiver, uuid -> new LinkedHashMap<>())
+                    .put(delivery.id, delivery.items);
+            return false;
+        }
+        ItemDelivery itemDelivery = new ItemDelivery(receiver);
+        for (ItemStack item : delivery.items) {
+            itemDelivery.add(item);
+        }
+        itemDelivery.deliver();
+        if (log != null) {
+            unsavedRecords.computeIfAbsent(delivery.receiver, uuid -> new HashSet<>()).add(delivery.id);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the log and collects the last saved offers of all unresolved trades and all unsaved deliveries.
+     *
+     * @throws IOException If the log cannot be read.
+     */
+    private void recover() throws IOException {
+        Map<Long, Map<UUID, List<ItemStack>>> lastOffers = new HashMap<>();
+        Map<Long, Map<UUID, List<ItemStack>>> offers = new LinkedHashMap<>(); // the saved ones
+        Map<Long, Map<UUID, List<ItemStack>>> deliveries = new LinkedHashMap<>(); // the unsaved ones
+        long[] maxTradeId = {0};
+        ItemCodec readCodec = new ItemCodec();
+        AppendLog.read(file, (record, position) -> {
+            ByteBuffer in = ByteBuffer.wrap(record);
+            byte type = ByteBufferUtils.get(in);
+            long tradeId = ByteBufferUtils.readVarLong(in);
+            maxTradeId[0] = Math.max(maxTradeId[0], tradeId);
+            switch (type) {
+                case TYPE_OFFER:
+                    UUID owner = ByteBufferUtils.readUUID(in);
+                    List<ItemStack> items = readCodec.readItems(in);
+                    lastOffers.computeIfAbsent(tradeId, id -> new HashMap<>()).put(owner, items);
+                    break;
+                case TYPE_DELIVER:
+                    UUID receiver = ByteBufferUtils.readUUID(in);
+                    List<ItemStack> deliveredItems = readCodec.readItems(in);
+                    deliveries.computeIfAbsent(tradeId, id -> new HashMap<>()).put(receiver, deliveredItems);
+                    break;
+                case TYPE_SAVED:
+                    UUID savedOwner = ByteBufferUtils.readUUID(in);
+                    Map<UUID, List<ItemStack>> tradeDeliveries = deliveries.get(tradeId);
+                    if (tradeDeliveries != null && tradeDeliveries.remove(savedOwner) != null) {
+                        break; // the saved inventory of the receiver contains the items
+                    }
+                    Map<UUID, List<ItemStack>> tradeLastOffers = lastOffers.get(tradeId);
+                    if (tradeLastOffers != null && tradeLastOffers.containsKey(savedOwner)) {
+                        offers.computeIfAbsent(tradeId, id -> new LinkedHashMap<>())
+                                .put(savedOwner, tradeLastOffers.get(savedOwner));
+                    }
+                    break;
+                case TYPE_RESOLVE:
+                    lastOffers.remove(tradeId);
+                    offers.remove(tradeId);
+                    break;
+                case TYPE_CLAIM:
+                    UUID claimingOwner = ByteBufferUtils.readUUID(in);
+                    for (Map<Long, Map<UUID, List<ItemStack>>> map : Arrays.asList(lastOffers, offers, deliveries)) {
+                        Map<UUID, List<ItemStack>> tradeOffers = map.get(tradeId);
+                        if (tradeOffers != null) {
+                            tradeOffers.remove(claimingOwner);
+                        }
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown escrow record type " + type);
+            }
+        });
+        nextTradeId = maxTradeId[0] + 1;
+
+        offers.putAll(deliveries); // the ids of deliveries are never used by trades
+        int recoveredTrades = 0;
+        for (Map.Entry<Long, Map<UUID, List<ItemStack>>> trade : offers.entrySet()) {
+            boolean recovered = false;
+            for (Map.Entry<UUID, List<ItemStack>> offer : trade.getValue().entrySet()) {
+                if (!offer.getValue().isEmpty()) {
+                    unclaimedItems.computeIfAbsent(offer.getKey(), uuid -> new LinkedHashMap<>())
+                            .put(trade.getKey(), offer.getValue());
+                    recovered = true;
+                }
+            }
+            if (recovered) {
+                recoveredTrades++;
+            }
+        }
+        if (recoveredTrades > 0) {
+            logger.log(Level.WARNING, "Recovered the items of " + recoveredTrades + " interrupted trade(s) or "
+                    + "delivery(s). They are given to their owners when they are online.");
+        }
+    }
+
+    /**
+     * Replaces the log with a log which only contains the unclaimed offers.
+     *
+     * @throws IOException If the log cannot be written.
+     */
+    private void compact() throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        for (Map.Entry<UUID, Map<Long, List<ItemStack>>> owner : unclaimedItems.entrySet()) {
+            for (Map.Entry<Long, List<ItemStack>> offer : owner.getValue().entrySet()) {
+                records.add(encode(TYPE_OFFER, offer.getKey(), owner.getKey(), offer.getValue()));
+                records.add(encode(TYPE_SAVED, offer.getKey(), owner.getKey(), null));
+            }
+        }
+        AppendLog.replace(file, records);
+    }
+
+    /**
+     * Encodes a record.
+     *
+     * @param type    The type of the record.
+     * @param tradeId The id of the trade.
+     * @param owner   The owner of the offer or the receiver of the delivery. May be <code>null</code>.
+     * @param items   The offered or delivered items. May be <code>null</code>.
+     * @return The encoded record.
+     */
+    private byte[] encode(byte type, long tradeId, UUID owner, List<ItemStack> items) {
+        return codec.encode((out, itemCodec) -> {
+            out.put(type);
+            ByteBufferUtils.writeVarLong(out, tradeId);
+            if (owner != null) {
+                ByteBufferUtils.writeUUID(out, owner);
+            }
+            if (items != null) {
+                itemCodec.writeItems(out, items);
+            }
+        });
+    }
+
+    /**
+     * Items which leave the escrow and their receiver.
+     */
+    private static final class Delivery {
+
+        private final long id;
+        private final UUID receiver;
+        private final List<ItemStack> items;
+
+        private Delivery(long id, UUID receiver, List<ItemStack> items) {
+            this.id = id;
+            this.receiver = receiver;
+            this.items = items;
+        }
+
+    }
+
+}
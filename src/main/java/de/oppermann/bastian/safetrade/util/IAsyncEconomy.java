@@ -0,0 +1,50 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.bukkit.entity.Player;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The asynchronous variant of {@link IEconomy}.
+ * <p>
+ * The returned futures are completed on an economy thread. If a call takes too long, its future is completed
+ * exceptionally with a {@link java.util.concurrent.TimeoutException}.
+ */
+public interface IAsyncEconomy {
+
+    /**
+     * Gets the amount of money the player owns.
+     *
+     * @param player The player.
+     * @return The money the player owns.
+     */
+    CompletableFuture<Double> getMoney(Player player);
+
+    /**
+     * Withdraws the given amount from the player.
+     *
+     * @param player The player.
+     * @param amount The amount of money to withdraw.
+     * @return A future which is completed when the money was withdrawn.
+     */
+    CompletableFuture<Void> withdrawMoney(Player player, double amount);
+
+    /**
+     * Deposits the given amount to the player.
+     *
+     * @param player The player.
+     * @param amount The amount of money to deposit.
+     * @return A future which is completed when the money was deposited.
+     */
+    CompletableFuture<Void> depositMoney(Player player, double amount);
+
+    /**
+     * Executes many transfers at once. Either all transfers are executed or none is.
+     *
+     * @param transfers The transfers.
+     * @return A future which is completed when the transfers were executed.
+     */
+    CompletableFuture<Void> transferAll(List<Transfer> transfers);
+
+}
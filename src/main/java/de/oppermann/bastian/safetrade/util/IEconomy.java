@@ -1,7 +1,11 @@
 package de.oppermann.bastian.safetrade.util;
 
+import de.oppermann.bastian.safetrade.Main;
 import org.bukkit.entity.Player;
 
+import java.util.List;
+import java.util.logging.Level;
+
 /**
  * This interface contains all economy related methods the plugin needs.
  * If you're a developer and Vault doesn't support your economy plugin you can use this interface.
@@ -21,6 +25,7 @@ public interface IEconomy {
      *
      * @param player The player.
      * @param amount The amount of money to withdraw.
+     * @throws RuntimeException If the money could not be withdrawn (e.g. because the player doesn't own it).
      */
     void withdrawMoney(Player player, double amount);
 
@@ -29,9 +34,73 @@ public interface IEconomy {
      *
      * @param player The player.
      * @param amount The amount of money to deposit.
+     * @throws RuntimeException If the money could not be deposited.
      */
     void depositMoney(Player player, double amount);
 
+    /**
+     * Transfers the given amount from one player to another.
+     * <p>
+     * The default implementation withdraws and deposits the money. Override this if your economy can transfer money
+     * atomically.
+     *
+     * @param from   The player who pays.
+     * @param to     The player who receives the money.
+     * @param amount The amount of money to transfer.
+     * @throws RuntimeException If the money could not be transferred. No balance was changed then, unless giving the
+     *                          withdrawn money back failed, too (this is logged and attached as suppressed exception).
+     */
+    default void transfer(Player from, Player to, double amount) {
+        withdrawMoney(from, amount);
+        try {
+            depositMoney(to, amount);
+        } catch (RuntimeException e) {
+            try {
+                depositMoney(from, amount); // give the withdrawn money back
+            } catch (RuntimeException refundException) {
+                Main.getInstance().getLogger().log(Level.SEVERE, "Could not give " + amount + " back to "
+                        + from.getName() + " (" + from.getUniqueId() + ") after a failed transfer", refundException);
+                e.addSuppressed(refundException);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Executes many transfers at once. Either all transfers are executed or none is.
+     * <p>
+     * The default implementation executes the transfers one by one and reverts the executed ones if a transfer fails.
+     * Override this if your economy can execute all transfers in a single transaction.
+     *
+     * @param transfers The transfers.
+     * @throws RuntimeException If a transfer failed. No balance was changed then, unless reverting a transfer failed,
+     *                          too (this is logged and attached as suppressed exception).
+     */
+    default void transferAll(List<Transfer> transfers) {
+        int executed = 0;
+        try {
+            for (Transfer transfer : transfers) {
+                transfer(transfer.getFrom(), transfer.getTo(), transfer.getAmount());
+                executed++;
+            }
+        } catch (RuntimeException e) {
+            for (int i = executed - 1; i >= 0; i--) {
+                Transfer transfer = transfers.get(i);
+                try {
+                    transfer(transfer.getTo(), transfer.getFrom(), transfer.getAmount());
+                } catch (RuntimeException revertException) {
+                    // keep reverting the other transfers, this one has to be fixed by hand
+                    Main.getInstance().getLogger().log(Level.SEVERE, "Could not revert the transfer of "
+                            + transfer.getAmount() + " from " + transfer.getFrom().getName() + " ("
+                            + transfer.getFrom().getUniqueId() + ") to " + transfer.getTo().getName() + " ("
+                            + transfer.getTo().getUniqueId() + ")", revertException);
+                    e.addSuppressed(revertException);
+                }
+            }
+            throw e;
+        }
+    }
+
     /**
      * Formats the money into a nice readable format (e.g. "1 Dollar")
      *
@@ -0,0 +1,31 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Thrown if a player doesn't own the money he has to pay.
+ */
+public class InsufficientFundsException extends IllegalStateException {
+
+    private final transient Player player;
+
+    /**
+     * Class constructor.
+     *
+     * @param player The player who doesn't own the money.
+     */
+    public InsufficientFundsException(Player player) {
+        super(player.getName() + " doesn't own the money he has to pay");
+        this.player = player;
+    }
+
+    /**
+     * Gets the player who doesn't own the money.
+     *
+     * @return The player who doesn't own the money.
+     */
+    public Player getPlayer() {
+        return player;
+    }
+
+}
@@ -0,0 +1,93 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * This class collects players whose inventory view must be resent and calls {@link Player#updateInventory()} at most
+ * once per player and tick.
+ */
+public class InventoryUpdater implements Runnable {
+
+    /**
+     * The players whose inventory was modified since the last flush.
+     */
+    private final Set<UUID> dirtyPlayers = new LinkedHashSet<>();
+
+    /**
+     * The repeating flush task or <code>null</code> if the updater is not running.
+     */
+    private BukkitTask task = null;
+
+    /**
+     * Starts the repeating task which flushes all pending updates once per tick.
+     *
+     * @param plugin The SafeTrade plugin.
+     */
+    public void start(Plugin plugin) {
+        if (task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this, 1, 1);
+        }
+    }
+
+    /**
+     * Flushes all pending updates and stops the repeating task.
+     */
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        run();
+    }
+
+    /**
+     * Marks the inventory of a player as modified. The player will receive an update in the next tick.
+     *
+     * @param player The uuid of the player.
+     */
+    public void markDirty(UUID player) {
+        dirtyPlayers.add(player);
+    }
+
+    /**
+     * Marks the inventories of all viewers of the given inventory as modified.
+     *
+     * @param inventory The modified inventory.
+     */
+    public void markViewersDirty(Inventory inventory) {
+        for (HumanEntity viewer : inventory.getViewers()) {
+            dirtyPlayers.add(viewer.getUniqueId());
+        }
+    }
+
+    /**
+     * Applies the money changes of this tick, writes the changed offers to the escrow log and sends one inventory update to every player which was marked since
+     * the last flush.
+     */
+    @Override
+    public void run() {
+        Trade.applyPendingMoneyChanges();
+        Trade.writeChangedOffers();
+        if (dirtyPlayers.isEmpty()) {
+            return;
+        }
+        UUID[] players = dirtyPlayers.toArray(new UUID[0]);
+        dirtyPlayers.clear();
+        for (UUID uuid : players) {
+            Player player = Bukkit.getPlayer(uuid);
+            if (player != null) {
+                player.updateInventory();
+            }
+        }
+    }
+
+}
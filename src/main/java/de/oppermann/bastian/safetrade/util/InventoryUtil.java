@@ -12,7 +12,9 @@ import org.bukkit.inventory.meta.ItemMeta;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class includes some useful function related to trade inventories.
@@ -22,6 +24,23 @@ public class InventoryUtil {
 
     private final Design design;
 
+    /**
+     * The precomputed items of the own control-field, indexed by <code>type * 2 + (tradeWithMoney ? 1 : 0)</code>.
+     * An entry is <code>null</code> until it is used for the first time.
+     */
+    private ItemStack[][] controlFields = new ItemStack[4 * 2][];
+
+    /**
+     * The cache of formatted amounts of money.
+     */
+    private MoneyFormatter moneyFormatter = new MoneyFormatter(null);
+
+    /**
+     * The labels of the "small", "medium" and "large" money buttons, indexed by their increase type.
+     * They are computed once by {@link #invalidate()}.
+     */
+    private String[] addMoneyLabels = null;
+
     public InventoryUtil(Design design) {
         this.design = design;
     }
@@ -49,6 +68,21 @@ public class InventoryUtil {
             Arrays.asList(9 * 4 + 5, 9 * 4 + 6, 9 * 4 + 7, 9 * 4 + 8,
                           9 * 5 + 5, 9 * 5 + 6, 9 * 5 + 7, 9 * 5 + 8));
 
+    /**
+     * The own control-field (left side).
+     */
+    private final static int[] CONTROL_FIELD_SLOTS_LEFT = {
+            9 * 4 + 0, 9 * 4 + 1, 9 * 4 + 2, 9 * 4 + 3,
+            9 * 5 + 0, 9 * 5 + 1, 9 * 5 + 2, 9 * 5 + 3
+    };
+
+    /**
+     * The role of every slot of a trading inventory, indexed by <code>type * 2 + (tradeWithMoney ? 1 : 0)</code>
+     * (see {@link #setOwnControlField(Inventory, byte, boolean)} for the types) and the raw slot.
+     * This table is used for both, rendering the control-field and handling clicks.
+     */
+    private final static SlotRole[][] SLOT_ROLES = compileSlotRoles();
+
     /**
      * Creates a new trading inventory.
      *
@@ -69,9 +103,7 @@ public class InventoryUtil {
      * @return A new trading inventory.
      */
     public Inventory createInventory(boolean tradeWithMoney, Player player, Player partner) {
-        String title = Main.getInstance().getMessages().getString("tradinginventory_title");
-        title = title.replace("{player}", player.getName());
-        title = title.replace("{partner}", partner.getName());
+        String title = Main.getInstance().getMessages().get(Message.TRADINGINVENTORY_TITLE, player.getName(), partner.getName());
         title = title.length() > 32 ? title.substring(0, 32) : title;
         Inventory defaultTradeInventory = Bukkit.createInventory(null, 9 * 6, title);
 
@@ -85,7 +117,7 @@ public class InventoryUtil {
         }
 
         setPartnerStatus(defaultTradeInventory, false, false, ChatColor.RED +
-                Main.getInstance().getMessages().getString("partner_not_ready"));
+                Main.getInstance().getMessages().get(Message.PARTNER_NOT_READY));
 
 
         if (tradeWithMoney) {
@@ -149,28 +181,25 @@ public class InventoryUtil {
     public void setMoney(Inventory inventory, int money, boolean leftSide) {
         int slot = leftSide ? 9 * 2 + 3 : 9 * 2 + 8;
 
+        Settings settings = Main.getInstance().getSettings();
         String type = "veryVeryLargeMoneyOffered";
-        if (money < Main.getInstance().getConfig().getInt("largeMoneyValue") * 100) {
+        if (money < settings.getLargeMoneyValue() * 100) {
             type = "veryLargeMoneyOffered";
         }
-        if (money < Main.getInstance().getConfig().getInt("largeMoneyValue") * 10) {
+        if (money < settings.getLargeMoneyValue() * 10) {
             type = "largeMoneyOffered";
         }
-        if (money < Main.getInstance().getConfig().getInt("largeMoneyValue")) {
+        if (money < settings.getLargeMoneyValue()) {
             type = "mediumMoneyOffered";
         }
-        if (money < Main.getInstance().getConfig().getInt("mediumMoneyValue")) {
+        if (money < settings.getMediumMoneyValue()) {
             type = "smallMoneyOffered";
         }
         if (money <= 0) {
             type = "noMoneyOffered";
         }
-        String strMoney = String.valueOf(money);
-        if (Main.getInstance().getEconomy() != null) {
-            strMoney = Main.getInstance().getEconomy().format(money);
-        }
         ItemStack itemStack = design.getItem(type,
-                Main.getInstance().getMessages().getString("offered_money").replace("{money}", strMoney));
+                Main.getInstance().getMessages().get(Message.OFFERED_MONEY, moneyFormatter.format(money)));
         if (!type.equals("noMoneyOffered")) {
             ItemMeta itemMeta = itemStack.getItemMeta();
             itemMeta.addItemFlags(ItemFlag.HIDE_ENCHANTS);
@@ -192,104 +221,187 @@ public class InventoryUtil {
      * @param tradeWithMoney Should it be allowed to trade with money?
      */
     public void setOwnControlField(Inventory inventory, byte type, boolean tradeWithMoney) {
-        if (type == 0) {
-            String[] readyLore = Main.getInstance().getMessages().getString("button_ready_description").split("\n");
-            for (int i = 0; i < readyLore.length; i++) {
-                readyLore[i] = ChatColor.GRAY + readyLore[i];
-            }
-            ItemStack readyButton = design.getItem("markAsReady",
-                    ChatColor.DARK_GREEN + Main.getInstance().getMessages().getString("button_ready"), readyLore);
-
-            String[] abortLore = Main.getInstance().getMessages().getString("button_abort_description").split("\n");
-            for (int i = 0; i < abortLore.length; i++) {
-                abortLore[i] = ChatColor.GRAY + abortLore[i];
-            }
-            ItemStack abortButton = design.getItem("abortTrade",
-                    ChatColor.RED + Main.getInstance().getMessages().getString("button_abort"), abortLore);
-
-            String[] addMoneyLore = Main.getInstance().getMessages().getString("button_add_money_description").split("\n");
-            for (int i = 0; i < addMoneyLore.length; i++) {
-                addMoneyLore[i] = ChatColor.GRAY + addMoneyLore[i];
-            }
-
-            String strMoney = String.valueOf(Main.getInstance().getConfig().getInt("smallMoneyValue"));
-            if (Main.getInstance().getEconomy() != null) {
-                strMoney = Main.getInstance().getEconomy().format(Main.getInstance().getConfig().getInt("smallMoneyValue"));
-            }
+        int index = type * 2 + (tradeWithMoney ? 1 : 0);
+        ItemStack[] controlField = controlFields[index];
+        if (controlField == null) {
+            controlField = createControlField(type, tradeWithMoney);
+            controlFields[index] = controlField;
+        }
+        for (int i = 0; i < CONTROL_FIELD_SLOTS_LEFT.length; i++) {
+            inventory.setItem(CONTROL_FIELD_SLOTS_LEFT[i], controlField[i]);
+        }
+    }
 
-            ItemStack addOneMoney = design.getItem("smallMoney", ChatColor.GOLD +
-                    Main.getInstance().getMessages().getString("button_add_money").replace("{money}", strMoney), addMoneyLore);
+    /**
+     * Discards all precomputed control fields.
+     * This must be called whenever the messages, the design or the economy change.
+     */
+    public void invalidate() {
+        controlFields = new ItemStack[4 * 2][];
+        moneyFormatter = new MoneyFormatter(Main.getInstance().getEconomy());
+
+        Settings settings = Main.getInstance().getSettings();
+        int[] values = {settings.getSmallMoneyValue(), settings.getMediumMoneyValue(), settings.getLargeMoneyValue()};
+        String[] labels = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            labels[i] = ChatColor.GOLD + Main.getInstance().getMessages().get(Message.BUTTON_ADD_MONEY,
+                    moneyFormatter.format(values[i]));
+        }
+        addMoneyLabels = labels;
+    }
 
-            strMoney = String.valueOf(Main.getInstance().getConfig().getInt("mediumMoneyValue"));
-            if (Main.getInstance().getEconomy() != null) {
-                strMoney = Main.getInstance().getEconomy().format(Main.getInstance().getConfig().getInt("mediumMoneyValue"));
-            }
-            ItemStack addTenMoney = design.getItem("mediumMoney", ChatColor.GOLD +
-                    Main.getInstance().getMessages().getString("button_add_money").replace("{money}", strMoney), addMoneyLore);
+    /**
+     * Formats the money into a nice readable format (e.g. "1 Dollar"). The formatted amounts are cached.
+     *
+     * @param money The money to format.
+     * @return The formatted money.
+     */
+    public String formatMoney(int money) {
+        return moneyFormatter.format(money);
+    }
 
-            strMoney = String.valueOf(Main.getInstance().getConfig().getInt("largeMoneyValue"));
-            if (Main.getInstance().getEconomy() != null) {
-                strMoney = Main.getInstance().getEconomy().format(Main.getInstance().getConfig().getInt("largeMoneyValue"));
-            }
-            ItemStack addHundredMoney = design.getItem("largeMoney", ChatColor.GOLD +
-                            Main.getInstance().getMessages().getString("button_add_money").replace("{money}", strMoney), addMoneyLore);
+    /**
+     * Gets the role of a slot in a trading inventory.
+     *
+     * @param type           The type of the own control field. See {@link #setOwnControlField(Inventory, byte, boolean)}.
+     * @param tradeWithMoney Should it be allowed to trade with money?
+     * @param rawSlot        The raw slot.
+     * @return The role of the slot. {@link SlotRole#NONE} for slots outside of the trading inventory.
+     */
+    public static SlotRole getSlotRole(byte type, boolean tradeWithMoney, int rawSlot) {
+        SlotRole[] roles = SLOT_ROLES[type * 2 + (tradeWithMoney ? 1 : 0)];
+        if (rawSlot < 0 || rawSlot >= roles.length) {
+            return SlotRole.NONE;
+        }
+        return roles[rawSlot];
+    }
 
-            String[] clearMoneyLore = Main.getInstance().getMessages().getString("button_clear_money_description").split("\n");
-            for (int i = 0; i < clearMoneyLore.length; i++) {
-                clearMoneyLore[i] = ChatColor.GRAY + clearMoneyLore[i];
+    /**
+     * Compiles the layout of the trading inventory into a lookup table.
+     *
+     * @return The slot roles for every type of control field, with and without money.
+     */
+    private static SlotRole[][] compileSlotRoles() {
+        SlotRole[][] slotRoles = new SlotRole[4 * 2][];
+        for (int type = 0; type < 4; type++) {
+            for (int money = 0; money < 2; money++) {
+                SlotRole[] roles = new SlotRole[9 * 6];
+                Arrays.fill(roles, SlotRole.NONE);
+                if (type == 0) {
+                    for (int slot : money == 1 ? TRADING_SLOTS_LEFT_WITH_MONEY : TRADING_SLOTS_LEFT_WITHOUT_MONEY) {
+                        roles[slot] = SlotRole.TRADE;
+                    }
+                    if (money == 1) {
+                        roles[9 * 4 + 0] = SlotRole.SMALL_MONEY;
+                        roles[9 * 4 + 1] = SlotRole.MEDIUM_MONEY;
+                        roles[9 * 4 + 2] = SlotRole.LARGE_MONEY;
+                        roles[9 * 4 + 3] = SlotRole.CLEAR_MONEY;
+                        roles[9 * 2 + 3] = SlotRole.ENTER_MONEY; // the offered money
+                    } else {
+                        roles[9 * 4 + 0] = roles[9 * 4 + 1] = SlotRole.ACCEPT;
+                        roles[9 * 4 + 2] = roles[9 * 4 + 3] = SlotRole.ABORT;
+                    }
+                    roles[9 * 5 + 0] = roles[9 * 5 + 1] = SlotRole.ACCEPT;
+                    roles[9 * 5 + 2] = roles[9 * 5 + 3] = SlotRole.ABORT;
+                }
+                if (type == 2) {
+                    roles[9 * 4 + 0] = roles[9 * 4 + 1] = roles[9 * 5 + 0] = roles[9 * 5 + 1] = SlotRole.ACCEPT;
+                    roles[9 * 4 + 2] = roles[9 * 4 + 3] = roles[9 * 5 + 2] = roles[9 * 5 + 3] = SlotRole.ABORT;
+                }
+                slotRoles[type * 2 + money] = roles;
             }
-            ItemStack clearMoney = design.getItem("clearMoney",
-                    ChatColor.RED + Main.getInstance().getMessages().getString("button_clear_money"), clearMoneyLore);
-
-            inventory.setItem(9 * 4 + 0, tradeWithMoney ? addOneMoney : readyButton);
-            inventory.setItem(9 * 4 + 1, tradeWithMoney ? addTenMoney : readyButton);
-            inventory.setItem(9 * 4 + 2, tradeWithMoney ? addHundredMoney : abortButton);
-            inventory.setItem(9 * 4 + 3, tradeWithMoney ? clearMoney : abortButton);
-            inventory.setItem(9 * 5 + 0, readyButton);
-            inventory.setItem(9 * 5 + 1, readyButton);
-            inventory.setItem(9 * 5 + 2, abortButton);
-            inventory.setItem(9 * 5 + 3, abortButton);
         }
-        if (type == 1) {
-            ItemStack waitingForPartner = design.getItem("readyAndWaitForPartner",
-                    ChatColor.GREEN + Main.getInstance().getMessages().getString("ready_and_wait_for_partner"));
-            for (int i = 0; i < 4; i++) {
-                inventory.setItem(9 * 4 + i, waitingForPartner);
-                inventory.setItem(9 * 5 + i, waitingForPartner);
+        return slotRoles;
+    }
+
+    /**
+     * Creates the items of a control field based on the roles of its slots.
+     *
+     * @param type           Which type of control field should be created? See
+     *                       {@link #setOwnControlField(Inventory, byte, boolean)}.
+     * @param tradeWithMoney Should it be allowed to trade with money?
+     * @return The items for the {@link #CONTROL_FIELD_SLOTS_LEFT}.
+     */
+    private ItemStack[] createControlField(byte type, boolean tradeWithMoney) {
+        Map<SlotRole, ItemStack> items = new EnumMap<>(SlotRole.class);
+        ItemStack[] controlField = new ItemStack[CONTROL_FIELD_SLOTS_LEFT.length];
+        for (int i = 0; i < controlField.length; i++) {
+            SlotRole role = getSlotRole(type, tradeWithMoney, CONTROL_FIELD_SLOTS_LEFT[i]);
+            ItemStack item = items.get(role);
+            if (item == null) {
+                item = createControlItem(type, role);
+                items.put(role, item);
             }
+            controlField[i] = item;
         }
-        if (type == 2) {
-            String[] acceptLore = Main.getInstance().getMessages().getString("button_accept_description").split("\n");
-            for (int i = 0; i < acceptLore.length; i++) {
-                acceptLore[i] = ChatColor.GRAY + acceptLore[i];
-            }
-            ItemStack acceptButton = design.getItem("acceptTrade",
-                    ChatColor.DARK_GREEN + Main.getInstance().getMessages().getString("button_accept"), acceptLore);
+        return controlField;
+    }
 
-            String[] abortLore = Main.getInstance().getMessages().getString("button_abort_description").split("\n");
-            for (int i = 0; i < abortLore.length; i++) {
-                abortLore[i] = ChatColor.GRAY + abortLore[i];
-            }
-            ItemStack abortButton = design.getItem("abortTrade",
-                    ChatColor.RED + Main.getInstance().getMessages().getString("button_abort"), abortLore);
-
-            inventory.setItem(9 * 4 + 0, acceptButton);
-            inventory.setItem(9 * 4 + 1, acceptButton);
-            inventory.setItem(9 * 4 + 2, abortButton);
-            inventory.setItem(9 * 4 + 3, abortButton);
-            inventory.setItem(9 * 5 + 0, acceptButton);
-            inventory.setItem(9 * 5 + 1, acceptButton);
-            inventory.setItem(9 * 5 + 2, abortButton);
-            inventory.setItem(9 * 5 + 3, abortButton);
+    /**
+     * Creates the item for a slot of the control field.
+     *
+     * @param type The type of the control field. See {@link #setOwnControlField(Inventory, byte, boolean)}.
+     * @param role The role of the slot.
+     * @return The item for the slot.
+     */
+    private ItemStack createControlItem(byte type, SlotRole role) {
+        switch (role) {
+            case ACCEPT:
+                if (type == 0) {
+                    return design.getItem("markAsReady",
+                            Main.getInstance().getMessages().get(ChatColor.DARK_GREEN, Message.BUTTON_READY),
+                            getLore(Message.BUTTON_READY_DESCRIPTION));
+                }
+                return design.getItem("acceptTrade",
+                        Main.getInstance().getMessages().get(ChatColor.DARK_GREEN, Message.BUTTON_ACCEPT),
+                        getLore(Message.BUTTON_ACCEPT_DESCRIPTION));
+            case ABORT:
+                return design.getItem("abortTrade",
+                        Main.getInstance().getMessages().get(ChatColor.RED, Message.BUTTON_ABORT),
+                        getLore(Message.BUTTON_ABORT_DESCRIPTION));
+            case SMALL_MONEY:
+                return createAddMoneyButton("smallMoney", role);
+            case MEDIUM_MONEY:
+                return createAddMoneyButton("mediumMoney", role);
+            case LARGE_MONEY:
+                return createAddMoneyButton("largeMoney", role);
+            case CLEAR_MONEY:
+                return design.getItem("clearMoney",
+                        Main.getInstance().getMessages().get(ChatColor.RED, Message.BUTTON_CLEAR_MONEY),
+                        getLore(Message.BUTTON_CLEAR_MONEY_DESCRIPTION));
+            default:
+                if (type == 1) {
+                    return design.getItem("readyAndWaitForPartner",
+                            Main.getInstance().getMessages().get(ChatColor.GREEN, Message.READY_AND_WAIT_FOR_PARTNER));
+                }
+                return design.getItem("acceptedAndWaitForPartner",
+                        Main.getInstance().getMessages().get(ChatColor.GREEN, Message.ACCEPTED_AND_WAIT_FOR_PARTNER));
         }
-        if (type == 3) {
-            ItemStack waitingForPartner = design.getItem("acceptedAndWaitForPartner",
-                    ChatColor.GREEN + Main.getInstance().getMessages().getString("accepted_and_wait_for_partner"));
-            for (int i = 0; i < 4; i++) {
-                inventory.setItem(9 * 4 + i, waitingForPartner);
-                inventory.setItem(9 * 5 + i, waitingForPartner);
-            }
+    }
+
+    /**
+     * Creates a button which adds/removes money.
+     *
+     * @param id   The design id of the button.
+     * @param role The role of the button.
+     * @return The button.
+     */
+    private ItemStack createAddMoneyButton(String id, SlotRole role) {
+        return design.getItem(id, addMoneyLabels[role.getIncreaseType()], getLore(Message.BUTTON_ADD_MONEY_DESCRIPTION));
+    }
+
+    /**
+     * Gets a multi-line message as gray lore.
+     *
+     * @param message The message.
+     * @return The lines of the lore.
+     */
+    private String[] getLore(Message message) {
+        String[] lore = Main.getInstance().getMessages().get(message).split("\n");
+        for (int i = 0; i < lore.length; i++) {
+            lore[i] = ChatColor.GRAY + lore[i];
         }
+        return lore;
     }
 
 }
@@ -0,0 +1,365 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.Damageable;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary codec for {@link ItemStack}s.
+ * <p>
+ * Materials and enchantments are stored as ids of dictionaries which belong to the file the items are written to. The
+ * first time a name is written to the file, it's written inline and gets the next free id, so all following items of
+ * the file only need the id. Amounts, damage and enchantment levels are stored as varints. Only items with meta which
+ * cannot be described by damage and enchantments alone (e.g. names, lore or books) carry an opaque blob with the
+ * serialized meta.
+ * <p>
+ * A codec must be used for exactly one file: The writer must use the same codec for all records of a file and a
+ * reader must read the file from the beginning (or use a codec which already knows the whole dictionary). A codec is
+ * not thread-safe.
+ */
+public class ItemCodec {
+
+    /*
+     * The flags of an item. Package-private for the tests.
+     */
+    static final int FLAG_DAMAGE = 1;
+    static final int FLAG_ENCHANTMENTS = 2;
+    static final int FLAG_META = 4;
+
+    /**
+     * The initial size of the reusable encoding buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final Dictionary materials = new Dictionary();
+    private final Dictionary enchantments = new Dictionary();
+
+    /**
+     * The reusable buffer used by {@link #encode(RecordWriter)}.
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /**
+     * Creates a copy of the codec which knows the same dictionary. The copy can be used to read records of the file
+     * on another thread.
+     *
+     * @return The copy.
+     */
+    public ItemCodec copy() {
+        ItemCodec copy = new ItemCodec();
+        for (int i = 0; i < materials.size(); i++) {
+            copy.materials.add(materials.getName(i));
+        }
+        for (int i = 0; i < enchantments.size(); i++) {
+            copy.enchantments.add(enchantments.getName(i));
+        }
+        return copy;
+    }
+
+    /**
+     * Encodes a record into the reusable buffer of the codec.
+     * <p>
+     * If the buffer is too small, it's enlarged and the record is encoded again. Dictionary entries which were
+     * defined by a failed attempt are removed, so they are defined again by the next record which uses them.
+     *
+     * @param writer Writes the record.
+     * @return A copy of the encoded record.
+     */
+    public byte[] encode(RecordWriter writer) {
+        while (true) {
+            buffer.clear();
+            int materialCount = materials.size();
+            int enchantmentCount = enchantments.size();
+            try {
+                writer.write(buffer, this);
+                return Arrays.copyOf(buffer.array(), buffer.position());
+            } catch (BufferOverflowException e) {
+                materials.truncate(materialCount);
+                enchantments.truncate(enchantmentCount);
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            } catch (RuntimeException e) {
+                // the record is not written, so its dictionary entries must not exist either
+                materials.truncate(materialCount);
+                enchantments.truncate(enchantmentCount);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes a list of items. <code>null</code> elements are skipped.
+     *
+     * @param out   The buffer.
+     * @param items The items.
+     */
+    public void writeItems(ByteBuffer out, List<ItemStack> items) {
+        int count = 0;
+        for (ItemStack item : items) {
+            if (item != null) {
+                count++;
+            }
+        }
+        ByteBufferUtils.writeVarInt(out, count);
+        for (ItemStack item : items) {
+            if (item != null) {
+                writeItem(out, item);
+            }
+        }
+    }
+
+    /**
+     * Reads a list of items written by {@link #writeItems(ByteBuffer, List)}.
+     * Items with a material which does not exist (anymore) are skipped.
+     *
+     * @param in The buffer.
+     * @return The items.
+     * @throws IOException If the items are invalid.
+     */
+    public List<ItemStack> readItems(ByteBuffer in) throws IOException {
+        int count = ByteBufferUtils.readVarInt(in);
+        List<ItemStack> items = new ArrayList<>(Math.min(count, 64));
+        for (int i = 0; i < count; i++) {
+            ItemStack item = readItem(in);
+            if (item != null) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Writes an item.
+     *
+     * @param out  The buffer.
+     * @param item The item.
+     */
+    public void writeItem(ByteBuffer out, ItemStack item) {
+        writeName(out, materials, item.getType().name());
+        ByteBufferUtils.writeVarInt(out, item.getAmount());
+        if (!item.hasItemMeta()) {
+            out.put((byte) 0);
+            return;
+        }
+
+        ItemMeta meta = item.getItemMeta();
+        int damage = meta instanceof Damageable ? ((Damageable) meta).getDamage() : 0;
+        Map<Enchantment, Integer> enchants = meta.getEnchants();
+        if (!isSimple(item.getType(), meta, damage, enchants)) {
+            out.put((byte) FLAG_META);
+            YamlConfiguration config = new YamlConfiguration();
+            config.set("meta", meta);
+            ByteBufferUtils.writeBytes(out, config.saveToString().getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        int flags = (damage > 0 ? FLAG_DAMAGE : 0) | (!enchants.isEmpty() ? FLAG_ENCHANTMENTS : 0);
+        out.put((byte) flags);
+        if (damage > 0) {
+            ByteBufferUtils.writeVarInt(out, damage);
+        }
+        if (!enchants.isEmpty()) {
+            ByteBufferUtils.writeVarInt(out, enchants.size());
+            for (Map.Entry<Enchantment, Integer> enchant : enchants.entrySet()) {
+                writeName(out, enchantments, enchant.getKey().getKey().toString());
+                ByteBufferUtils.writeVarInt(out, enchant.getValue());
+            }
+        }
+    }
+
+    /**
+     * Reads an item written by {@link #writeItem(ByteBuffer, ItemStack)}.
+     *
+     * @param in The buffer.
+     * @return The item or <code>null</code> if its material does not exist (anymore).
+     * @throws IOException If the item is invalid.
+     */
+    public ItemStack readItem(ByteBuffer in) throws IOException {
+        Material material = Material.getMaterial(readName(in, materials));
+        int amount = ByteBufferUtils.readVarInt(in);
+        int flags = ByteBufferUtils.get(in);
+        ItemStack item = material == null ? null : new ItemStack(material, amount);
+
+        if ((flags & FLAG_META) != 0) {
+            String serializedMeta = new String(ByteBufferUtils.readBytes(in), StandardCharsets.UTF_8);
+            if (item != null) {
+                YamlConfiguration config = new YamlConfiguration();
+                try {
+                    config.loadFromString(serializedMeta);
+                } catch (InvalidConfigurationException e) {
+                    throw new IOException("Invalid item meta", e);
+                }
+                item.setItemMeta(config.getSerializable("meta", ItemMeta.class));
+            }
+            return item;
+        }
+
+        ItemMeta meta = item != null && flags != 0 ? item.getItemMeta() : null;
+        if ((flags & FLAG_DAMAGE) != 0) {
+            int damage = ByteBufferUtils.readVarInt(in);
+            if (meta instanceof Damageable) {
+                ((Damageable) meta).setDamage(damage);
+            }
+        }
+        if ((flags & FLAG_ENCHANTMENTS) != 0) {
+            int count = ByteBufferUtils.readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                Enchantment enchantment = Enchantment.getByKey(toKey(readName(in, enchantments)));
+                int level = ByteBufferUtils.readVarInt(in);
+                if (meta != null && enchantment != null) {
+                    meta.addEnchant(enchantment, level, true);
+                }
+            }
+        }
+        if (meta != null) {
+            item.setItemMeta(meta);
+        }
+        return item;
+    }
+
+    /**
+     * Checks if the meta of an item only consists of damage and enchantments.
+     *
+     * @param material The material of the item.
+     * @param meta     The meta of the item.
+     * @param damage   The damage of the item.
+     * @param enchants The enchantments of the item.
+     * @return Whether the meta can be restored from the damage and the enchantments.
+     */
+    private static boolean isSimple(Material material, ItemMeta meta, int damage, Map<Enchantment, Integer> enchants) {
+        ItemMeta simpleMeta = Bukkit.getItemFactory().getItemMeta(material);
+        if (simpleMeta == null) {
+            return false;
+        }
+        if (damage > 0) {
+            if (!(simpleMeta instanceof Damageable)) {
+                return false;
+            }
+            ((Damageable) simpleMeta).setDamage(damage);
+        }
+        for (Map.Entry<Enchantment, Integer> enchant : enchants.entrySet()) {
+            simpleMeta.addEnchant(enchant.getKey(), enchant.getValue(), true);
+        }
+        return Bukkit.getItemFactory().equals(meta, simpleMeta);
+    }
+
+    /**
+     * Writes a name as its dictionary id. Unknown names are written inline and added to the dictionary.
+     *
+     * @param out        The buffer.
+     * @param dictionary The dictionary.
+     * @param name       The name.
+     */
+    private static void writeName(ByteBuffer out, Dictionary dictionary, String name) {
+        Integer id = dictionary.getId(name);
+        if (id != null) {
+            ByteBufferUtils.writeVarInt(out, id + 1);
+        } else {
+            ByteBufferUtils.writeVarInt(out, 0);
+            ByteBufferUtils.writeString(out, name);
+            dictionary.add(name);
+        }
+    }
+
+    /**
+     * Reads a name written by {@link #writeName(ByteBuffer, Dictionary, String)}.
+     *
+     * @param in         The buffer.
+     * @param dictionary The dictionary.
+     * @return The name.
+     * @throws IOException If the id is not defined.
+     */
+    private static String readName(ByteBuffer in, Dictionary dictionary) throws IOException {
+        int id = ByteBufferUtils.readVarInt(in);
+        if (id == 0) {
+            String name = ByteBufferUtils.readString(in);
+            if (dictionary.getId(name) == null) {
+                dictionary.add(name);
+            }
+            return name;
+        }
+        if (id > dictionary.size()) {
+            throw new IOException("Undefined dictionary id " + id);
+        }
+        return dictionary.getName(id - 1);
+    }
+
+    /**
+     * Converts a string (e.g. <code>minecraft:sharpness</code>) into a key.
+     *
+     * @param name The string.
+     * @return The key.
+     */
+    @SuppressWarnings("deprecation")
+    static NamespacedKey toKey(String name) {
+        int colon = name.indexOf(':');
+        if (colon < 0) {
+            return NamespacedKey.minecraft(name);
+        }
+        return new NamespacedKey(name.substring(0, colon), name.substring(colon + 1));
+    }
+
+    /**
+     * Writes a record with the help of a codec.
+     */
+    public interface RecordWriter {
+
+        /**
+         * Writes the record.
+         *
+         * @param out   The buffer.
+         * @param codec The codec used to write items.
+         */
+        void write(ByteBuffer out, ItemCodec codec);
+
+    }
+
+    /**
+     * Assigns consecutive ids to names.
+     */
+    private static final class Dictionary {
+
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        private Integer getId(String name) {
+            return ids.get(name);
+        }
+
+        private String getName(int id) {
+            return names.get(id);
+        }
+
+        private void add(String name) {
+            ids.put(name, names.size());
+            names.add(name);
+        }
+
+        private int size() {
+            return names.size();
+        }
+
+        private void truncate(int size) {
+            while (names.size() > size) {
+                ids.remove(names.remove(names.size() - 1));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,190 @@
+package de.oppermann.bastian.safetrade.util;
+
+import de.oppermann.bastian.safetrade.Main;
+import org.bukkit.Material;
+import org.bukkit.entity.Item;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class collects the items a player receives and gives them to him at once.
+ * <p>
+ * Similar stacks are merged first. The items are then placed into a snapshot of the player's storage contents, which
+ * is written back with a single call. Only the items which don't fit are dropped, using as few full stacks as possible.
+ */
+public class ItemDelivery {
+
+    /**
+     * The player who receives the items.
+     */
+    private final Player player;
+
+    /**
+     * The items which were added so far. Similar items share one entry.
+     */
+    private final List<PendingItem> items = new ArrayList<>();
+
+    /**
+     * Creates a new delivery.
+     *
+     * @param player The player who receives the items.
+     */
+    public ItemDelivery(Player player) {
+        this.player = player;
+    }
+
+    /**
+     * Adds an item to the delivery.
+     *
+     * @param stack The stack. May be <code>null</code>.
+     */
+    public void add(ItemStack stack) {
+        if (stack == null || stack.getType() == Material.AIR || stack.getAmount() <= 0) {
+            return;
+        }
+        for (PendingItem item : items) {
+            if (item.template.isSimilar(stack)) {
+                item.amount += stack.getAmount();
+                return;
+            }
+        }
+        items.add(new PendingItem(stack.clone(), stack.getAmount()));
+    }
+
+    /**
+     * Checks if all added items fit into the player's inventory without dropping anything.
+     * This only simulates the delivery and does not modify the inventory.
+     *
+     * @return Whether all added items fit into the player's inventory.
+     */
+    public boolean fits() {
+        if (items.isEmpty()) {
+            return true;
+        }
+        PlayerInventory inventory = player.getInventory();
+        ItemStack[] contents = inventory.getStorageContents();
+        int emptySlots = 0;
+        for (ItemStack content : contents) {
+            if (content == null || content.getType() == Material.AIR) {
+                emptySlots++;
+            }
+        }
+
+        for (PendingItem item : items) {
+            int maxStackSize = getMaxStackSize(item, inventory);
+            int remaining = item.amount;
+            for (int i = 0; i < contents.length && remaining > 0; i++) {
+                ItemStack content = contents[i];
+                if (content != null && content.getAmount() < maxStackSize && content.isSimilar(item.template)) {
+                    remaining -= maxStackSize - content.getAmount();
+                }
+            }
+            if (remaining > 0) {
+                // similar items never share a slot with other items, so they only compete for empty slots
+                emptySlots -= (remaining + maxStackSize - 1) / maxStackSize;
+                if (emptySlots < 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gives the player all added items. If the player has not enough space the remaining items are dropped on the
+     * ground.
+     */
+    public void deliver() {
+        if (items.isEmpty()) {
+            return;
+        }
+        PlayerInventory inventory = player.getInventory();
+        ItemStack[] contents = inventory.getStorageContents();
+        boolean modified = false;
+
+        for (PendingItem item : items) {
+            int maxStackSize = getMaxStackSize(item, inventory);
+
+            // fill up similar stacks first, just like Inventory#addItem(...)
+            for (int i = 0; i < contents.length && item.amount > 0; i++) {
+                ItemStack content = contents[i];
+                if (content == null || content.getAmount() >= maxStackSize || !content.isSimilar(item.template)) {
+                    continue;
+                }
+                int added = Math.min(maxStackSize - content.getAmount(), item.amount);
+                content = content.clone(); // don't modify the live inventory before the bulk write
+                content.setAmount(content.getAmount() + added);
+                contents[i] = content;
+                item.amount -= added;
+                modified = true;
+            }
+
+            // then use empty slots
+            for (int i = 0; i < contents.length && item.amount > 0; i++) {
+                if (contents[i] != null && contents[i].getType() != Material.AIR) {
+                    continue;
+                }
+                ItemStack content = item.template.clone();
+                content.setAmount(Math.min(maxStackSize, item.amount));
+                contents[i] = content;
+                item.amount -= content.getAmount();
+                modified = true;
+            }
+        }
+
+        if (modified) {
+            inventory.setStorageContents(contents);
+        }
+
+        for (PendingItem item : items) {
+            while (item.amount > 0) {
+                ItemStack stack = item.template.clone();
+                stack.setAmount(Math.min(Math.max(1, item.template.getMaxStackSize()), item.amount));
+                item.amount -= stack.getAmount();
+                drop(stack);
+            }
+        }
+        items.clear();
+    }
+
+    /**
+     * Gets the maximum amount of the item per slot of the inventory.
+     *
+     * @param item      The item.
+     * @param inventory The inventory.
+     * @return The maximum amount of the item per slot.
+     */
+    private static int getMaxStackSize(PendingItem item, PlayerInventory inventory) {
+        return Math.max(1, Math.min(item.template.getMaxStackSize(), inventory.getMaxStackSize()));
+    }
+
+    /**
+     * Drops a stack which does not fit into the player's inventory.
+     *
+     * @param stack The stack.
+     */
+    private void drop(ItemStack stack) {
+        Item item = player.getWorld().dropItem(player.getLocation(), stack);
+        Main.getInstance().getDroppedItemProtection().protect(item, player.getUniqueId());
+    }
+
+    /**
+     * Similar items and their total amount.
+     */
+    private static final class PendingItem {
+
+        private final ItemStack template;
+        private int amount;
+
+        private PendingItem(ItemStack template, int amount) {
+            this.template = template;
+            this.amount = amount;
+        }
+
+    }
+
+}
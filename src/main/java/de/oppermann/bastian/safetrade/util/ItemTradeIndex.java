@@ -0,0 +1,594 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.EnchantmentStorageMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.LongPredicate;
+import java.util.zip.CRC32;
+
+/**
+ * An inverted index from the materials, enchantments and custom name tokens of traded items to the positions of the
+ * successful trades in the {@link TradeJournal}.
+ * <p>
+ * The index is split into one segment per day (by the time of the trade). The segment of the current day is written
+ * incrementally as a list of entries (the position of a trade and its keys) to <code>&lt;day&gt;.seg</code>. Once a
+ * day is over, its segment is compacted into <code>&lt;day&gt;.inv</code>, which stores the sorted positions of every
+ * key, and segments which are older than the retention period are deleted. If a compaction is interrupted, both files
+ * exist and are merged when the segment is read.
+ * <p>
+ * Like the {@link PlayerTradeIndex}, only records which were already forced to the disk are added and a watermark
+ * stores the position up to which the journal is indexed.
+ * <p>
+ * {@link #add(List, long[], long)} is called by the writer thread of the journal. {@link #search(Set, LocalDate, int, LongPredicate)}
+ * and {@link #compact(LocalDate)} must only be called by a single other thread.
+ */
+public class ItemTradeIndex {
+
+    private static final String LIVE_SUFFIX = ".seg";
+    private static final String COMPACTED_SUFFIX = ".inv";
+
+    /**
+     * The maximum amount of compacted segments which are cached.
+     */
+    private static final int MAX_CACHED_SEGMENTS = 32;
+
+    private final File folder;
+    private final File watermarkFile;
+    private final int retentionDays;
+
+    /**
+     * Guards the segment files against concurrent writes of the writer thread and the compaction.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * The cached compacted segments in access order. Only used by the thread which searches and compacts.
+     */
+    private final Map<LocalDate, Map<String, long[]>> cache = new LinkedHashMap<LocalDate, Map<String, long[]>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LocalDate, Map<String, long[]>> eldest) {
+            return size() > MAX_CACHED_SEGMENTS;
+        }
+    };
+
+    /**
+     * Creates a new index.
+     *
+     * @param folder        The folder of the segment files.
+     * @param retentionDays The amount of days after which segments are deleted. <code>0</code> keeps them forever.
+     */
+    public ItemTradeIndex(File folder, int retentionDays) {
+        this.folder = folder;
+        this.watermarkFile = new File(folder, "watermark");
+        this.retentionDays = retentionDays;
+    }
+
+    /**
+     * Gets the keys under which a trade is indexed. Only successful trades have keys.
+     * <p>
+     * The keys of all items are combined, so a trade with all keys of a query may still have them on different
+     * items. The search checks the trades it finds with {@link #matches(TradeRecord, Set)}.
+     *
+     * @param record The record of the trade.
+     * @return The keys of all items of the trade.
+     */
+    public static Set<String> getKeys(TradeRecord record) {
+        if (record.getType() != TradeRecord.Type.SUCCESS) {
+            return Collections.emptySet();
+        }
+        Set<String> keys = new LinkedHashSet<>();
+        for (ItemStack item : record.getItems1To2()) {
+            addKeys(item, keys);
+        }
+        for (ItemStack item : record.getItems2To1()) {
+            addKeys(item, keys);
+        }
+        return keys;
+    }
+
+    /**
+     * Checks if a single item of a successful trade has all keys of a query.
+     *
+     * @param record The record of the trade.
+     * @param keys   The keys of the query.
+     * @return Whether an item of the trade has all keys.
+     */
+    public static boolean matches(TradeRecord record, Set<String> keys) {
+        if (record.getType() != TradeRecord.Type.SUCCESS) {
+            return false;
+        }
+        Set<String> itemKeys = new HashSet<>();
+        for (List<ItemStack> items : Arrays.asList(record.getItems1To2(), record.getItems2To1())) {
+            for (ItemStack item : items) {
+                itemKeys.clear();
+                addKeys(item, itemKeys);
+                if (itemKeys.containsAll(keys)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the keys of an item: its material, its (stored) enchantments with and without level and the tokens of
+     * its custom name.
+     *
+     * @param item The item.
+     * @param keys The keys.
+     */
+    private static void addKeys(ItemStack item, Set<String> keys) {
+        keys.add(materialKey(item.getType()));
+        if (!item.hasItemMeta()) {
+            return;
+        }
+        ItemMeta meta = item.getItemMeta();
+        addEnchantmentKeys(meta.getEnchants(), keys);
+        if (meta instanceof EnchantmentStorageMeta) {
+            addEnchantmentKeys(((EnchantmentStorageMeta) meta).getStoredEnchants(), keys);
+        }
+        if (meta.hasDisplayName()) {
+            for (String token : tokenize(meta.getDisplayName())) {
+                keys.add(nameKey(token));
+            }
+        }
+    }
+
+    /**
+     * Adds the keys of enchantments.
+     *
+     * @param enchants The enchantments and their levels.
+     * @param keys     The keys.
+     */
+    private static void addEnchantmentKeys(Map<Enchantment, Integer> enchants, Set<String> keys) {
+        for (Map.Entry<Enchantment, Integer> enchant : enchants.entrySet()) {
+            String name = enchant.getKey().getKey().toString();
+            keys.add(enchantmentKey(name));
+            keys.add(enchantmentKey(name, enchant.getValue()));
+        }
+    }
+
+    /**
+     * Parses the terms of a search query into keys.
+     * <p>
+     * A term is either a material (e.g. <code>netherite_sword</code>), an enchantment with an optional level (e.g.
+     * <code>sharpness</code> or <code>sharpness:5</code>) or a word of a custom name (e.g. <code>name:excalibur</code>).
+     *
+     * @param terms The terms.
+     * @return The keys. A single item of a trade must match all of them.
+     * @throws IllegalArgumentException If a term is neither a material nor an enchantment. The message is the term.
+     */
+    public static Set<String> parseQuery(String[] terms) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (String term : terms) {
+            String lowerTerm = term.toLowerCase(Locale.ROOT);
+            if (lowerTerm.startsWith("name:")) {
+                List<String> tokens = tokenize(term.substring("name:".length()));
+                if (tokens.isEmpty()) {
+                    throw new IllegalArgumentException(term);
+                }
+                for (String token : tokens) {
+                    keys.add(nameKey(token));
+                }
+                continue;
+            }
+
+            String name = lowerTerm;
+            int level = 0;
+            int colon = lowerTerm.lastIndexOf(':');
+            if (colon > 0 && colon < lowerTerm.length() - 1) {
+                try {
+                    level = Integer.parseInt(lowerTerm.substring(colon + 1));
+                    name = lowerTerm.substring(0, colon);
+                } catch (NumberFormatException e) {
+                    // no level, e.g. minecraft:sharpness
+                }
+            }
+            Material material = level == 0 ? Material.matchMaterial(name) : null;
+            if (material != null) {
+                keys.add(materialKey(material));
+                continue;
+            }
+            Enchantment enchantment = Enchantment.getByKey(ItemCodec.toKey(name));
+            if (enchantment == null) {
+                throw new IllegalArgumentException(term);
+            }
+            String enchantmentName = enchantment.getKey().toString();
+            keys.add(level > 0 ? enchantmentKey(enchantmentName, level) : enchantmentKey(enchantmentName));
+        }
+        return keys;
+    }
+
+    /*
+     * The keys of the index. The prefix separates e.g. the material "diamond" from the name token "diamond".
+     */
+
+    private static String materialKey(Material material) {
+        return "material:" + material.name();
+    }
+
+    private static String enchantmentKey(String enchantment) {
+        return "enchantment:" + enchantment;
+    }
+
+    private static String enchantmentKey(String enchantment, int level) {
+        return "enchantment:" + enchantment + ":" + level;
+    }
+
+    private static String nameKey(String token) {
+        return "name:" + token;
+    }
+
+    /**
+     * Splits a (custom) name into lower case words without colors.
+     *
+     * @param name The name.
+     * @return The words.
+     */
+    private static List<String> tokenize(String name) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : ChatColor.stripColor(name).toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Gets the position in the journal up to which all records are indexed.
+     *
+     * @return The position up to which all records are indexed.
+     */
+    public long getWatermark() {
+        if (!watermarkFile.exists()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(watermarkFile))) {
+            return in.readLong();
+        } catch (IOException e) {
+            return 0; // index everything again, the duplicates are ignored
+        }
+    }
+
+    /**
+     * Removes incomplete entries at the end of the segments (e.g. after a crash), so new entries can be appended.
+     *
+     * @throws IOException If a segment cannot be repaired.
+     */
+    public void repair() throws IOException {
+        synchronized (writeLock) {
+            for (LocalDate day : getDays()) {
+                File file = getFile(day, LIVE_SUFFIX);
+                if (!file.exists()) {
+                    continue;
+                }
+                long validLength = AppendLog.read(file, (record, position) -> { });
+                if (validLength < file.length()) {
+                    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                        randomAccessFile.setLength(validLength);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds records to the index and moves the watermark behind them.
+     *
+     * @param records   The records.
+     * @param positions The positions of the records in the journal.
+     * @param end       The position in the journal up to which all records are indexed afterwards.
+     * @throws IOException If the index cannot be written.
+     */
+    public void add(List<TradeRecord> records, long[] positions, long end) throws IOException {
+        Map<LocalDate, List<byte[]>> entriesByDay = new TreeMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            Set<String> keys = getKeys(records.get(i));
+            if (!keys.isEmpty()) {
+                entriesByDay.computeIfAbsent(getDay(records.get(i).getTimestamp()), day -> new ArrayList<>())
+                        .add(encodeEntry(positions[i], keys));
+            }
+        }
+
+        synchronized (writeLock) {
+            folder.mkdirs();
+            CRC32 crc = new CRC32();
+            for (Map.Entry<LocalDate, List<byte[]>> entries : entriesByDay.entrySet()) {
+                try (FileOutputStream fileOut = new FileOutputStream(getFile(entries.getKey(), LIVE_SUFFIX), true)) {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                    for (byte[] entry : entries.getValue()) {
+                        AppendLog.writeRecord(out, entry, crc);
+                    }
+                    out.flush();
+                    fileOut.getChannel().force(false);
+                }
+            }
+            // the watermark is moved after the segments were forced to the disk
+            try (RandomAccessFile out = new RandomAccessFile(watermarkFile, "rwd")) {
+                out.writeLong(end);
+            }
+        }
+    }
+
+    /**
+     * Searches the positions of the trades which match all keys.
+     *
+     * @param keys   The keys.
+     * @param since  The oldest day which is searched.
+     * @param limit  The maximum amount of positions.
+     * @param filter Checks the position of every trade with all keys, e.g. with {@link #matches(TradeRecord, Set)},
+     *               as the keys of its items are combined. Rejected positions don't count against the limit.
+     * @return The positions of the matching trades, the newest first.
+     * @throws IOException If a segment cannot be read.
+     */
+    public long[] search(Set<String> keys, LocalDate since, int limit, LongPredicate filter) throws IOException {
+        if (keys.isEmpty()) {
+            return new long[0];
+        }
+        long[] result = new long[limit];
+        int count = 0;
+        List<LocalDate> days = new ArrayList<>(getDays().tailSet(since));
+        Collections.reverse(days);
+        for (LocalDate day : days) {
+            Map<String, long[]> segment = getSegment(day);
+            long[][] postings = new long[keys.size()][];
+            int i = 0;
+            for (String key : keys) {
+                postings[i] = segment.get(key);
+                if (postings[i] == null) {
+                    break;
+                }
+                i++;
+            }
+            if (i < postings.length) {
+                continue; // a key does not occur on this day
+            }
+            // walk the shortest list and look the positions up in the others
+            Arrays.sort(postings, (a, b) -> Integer.compare(a.length, b.length));
+            for (int j = postings[0].length - 1; j >= 0 && count < limit; j--) {
+                long position = postings[0][j];
+                boolean matches = true;
+                for (int k = 1; k < postings.length && matches; k++) {
+                    matches = Arrays.binarySearch(postings[k], position) >= 0;
+                }
+                if (matches && filter.test(position)) {
+                    result[count++] = position;
+                }
+            }
+            if (count == limit) {
+                break;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Compacts the segments of all days before the given day and deletes the segments older than the retention
+     * period. The compacted segment replaces the old one atomically.
+     *
+     * @param today The current day.
+     * @throws IOException If a segment cannot be compacted.
+     */
+    public void compact(LocalDate today) throws IOException {
+        for (LocalDate day : getDays()) {
+            if (retentionDays > 0 && day.isBefore(today.minusDays(retentionDays))) {
+                synchronized (writeLock) {
+                    getFile(day, LIVE_SUFFIX).delete();
+                    getFile(day, COMPACTED_SUFFIX).delete();
+                }
+                cache.remove(day);
+                continue;
+            }
+            if (!day.isBefore(today) || !getFile(day, LIVE_SUFFIX).exists()) {
+                continue;
+            }
+            synchronized (writeLock) { // late entries of the day must not be appended during the compaction
+                Map<String, long[]> segment = readSegment(day);
+                List<byte[]> records = new ArrayList<>(segment.size());
+                for (Map.Entry<String, long[]> postings : new TreeMap<>(segment).entrySet()) {
+                    records.add(encodePostings(postings.getKey(), postings.getValue()));
+                }
+                AppendLog.replace(getFile(day, COMPACTED_SUFFIX), records);
+                getFile(day, LIVE_SUFFIX).delete();
+                cache.put(day, segment);
+            }
+        }
+    }
+
+    /**
+     * Deletes all segments.
+     */
+    public void clear() {
+        synchronized (writeLock) {
+            cache.clear();
+            File[] files = folder.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets a (cached) segment. Only compacted segments without late entries are cached.
+     *
+     * @param day The day of the segment.
+     * @return The positions of every key of the segment.
+     * @throws IOException If the segment cannot be read.
+     */
+    private Map<String, long[]> getSegment(LocalDate day) throws IOException {
+        boolean live = getFile(day, LIVE_SUFFIX).exists();
+        Map<String, long[]> segment = live ? null : cache.get(day);
+        if (segment == null) {
+            segment = readSegment(day);
+            if (!live) {
+                cache.put(day, segment);
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Reads the compacted and the live part of a segment.
+     *
+     * @param day The day of the segment.
+     * @return The sorted positions of every key of the segment.
+     * @throws IOException If the segment cannot be read.
+     */
+    private Map<String, long[]> readSegment(LocalDate day) throws IOException {
+        Map<String, Set<Long>> postings = new HashMap<>();
+        File compacted = getFile(day, COMPACTED_SUFFIX);
+        if (compacted.exists()) {
+            AppendLog.read(compacted, (record, position) -> {
+                ByteBuffer in = ByteBuffer.wrap(record);
+                Set<Long> positions = postings.computeIfAbsent(ByteBufferUtils.readString(in), key -> new TreeSet<>());
+                int count = ByteBufferUtils.readVarInt(in);
+                long tradePosition = 0;
+                for (int i = 0; i < count; i++) {
+                    tradePosition += ByteBufferUtils.readVarLong(in);
+                    positions.add(tradePosition);
+                }
+            });
+        }
+        File live = getFile(day, LIVE_SUFFIX);
+        if (live.exists()) {
+            AppendLog.read(live, (record, position) -> {
+                ByteBuffer in = ByteBuffer.wrap(record);
+                long tradePosition = ByteBufferUtils.readVarLong(in);
+                int count = ByteBufferUtils.readVarInt(in);
+                for (int i = 0; i < count; i++) {
+                    postings.computeIfAbsent(ByteBufferUtils.readString(in), key -> new TreeSet<>()).add(tradePosition);
+                }
+            });
+        }
+
+        Map<String, long[]> segment = new HashMap<>(postings.size() * 2);
+        for (Map.Entry<String, Set<Long>> entry : postings.entrySet()) {
+            long[] positions = new long[entry.getValue().size()];
+            int i = 0;
+            for (long position : entry.getValue()) {
+                positions[i++] = position;
+            }
+            segment.put(entry.getKey(), positions);
+        }
+        return segment;
+    }
+
+    /**
+     * Encodes an entry of a live segment.
+     *
+     * @param position The position of the trade.
+     * @param keys     The keys of the trade.
+     * @return The entry.
+     */
+    private static byte[] encodeEntry(long position, Set<String> keys) {
+        int size = 10 + 5;
+        for (String key : keys) {
+            size += 5 + key.getBytes(StandardCharsets.UTF_8).length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        ByteBufferUtils.writeVarLong(out, position);
+        ByteBufferUtils.writeVarInt(out, keys.size());
+        for (String key : keys) {
+            ByteBufferUtils.writeString(out, key);
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * Encodes the positions of a key of a compacted segment. The positions are stored as deltas.
+     *
+     * @param key       The key.
+     * @param positions The sorted positions.
+     * @return The record.
+     */
+    private static byte[] encodePostings(String key, long[] positions) {
+        ByteBuffer out = ByteBuffer.allocate(5 + key.getBytes(StandardCharsets.UTF_8).length + 5 + positions.length * 10);
+        ByteBufferUtils.writeString(out, key);
+        ByteBufferUtils.writeVarInt(out, positions.length);
+        long previous = 0;
+        for (long position : positions) {
+            ByteBufferUtils.writeVarLong(out, position - previous);
+            previous = position;
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * Gets the days of all segments.
+     *
+     * @return The days, sorted.
+     */
+    private TreeSet<LocalDate> getDays() {
+        TreeSet<LocalDate> days = new TreeSet<>();
+        String[] names = folder.list();
+        if (names == null) {
+            return days;
+        }
+        for (String name : names) {
+            if (name.endsWith(LIVE_SUFFIX) || name.endsWith(COMPACTED_SUFFIX)) {
+                try {
+                    days.add(LocalDate.parse(name.substring(0, name.lastIndexOf('.'))));
+                } catch (DateTimeParseException e) {
+                    // not a segment
+                }
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Gets the day of a timestamp in the time zone of the server.
+     *
+     * @param timestamp The timestamp.
+     * @return The day.
+     */
+    public static LocalDate getDay(long timestamp) {
+        return Instant.ofEpochMilli(timestamp).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    /**
+     * Gets the file of a segment.
+     *
+     * @param day    The day of the segment.
+     * @param suffix The suffix of the live or the compacted part.
+     * @return The file.
+     */
+    private File getFile(LocalDate day, String suffix) {
+        return new File(folder, day.toString() + suffix);
+    }
+
+}
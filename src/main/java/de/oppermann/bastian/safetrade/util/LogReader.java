@@ -0,0 +1,110 @@
+package de.oppermann.bastian.safetrade.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads the records of a segmented {@link AppendLog}, no matter if their segments are compressed or not.
+ * <p>
+ * The reader works on the segments which existed when it was created. It may be used while the log is written, but
+ * not by multiple threads at once.
+ */
+public class LogReader implements Closeable {
+
+    private final TreeMap<Long, LogSegment> segments = new TreeMap<>();
+
+    /**
+     * Creates a new reader.
+     *
+     * @param folder The folder of the segments.
+     */
+    public LogReader(File folder) {
+        for (LogSegment segment : LogSegment.list(folder)) {
+            segments.put(segment.getBase(), segment);
+        }
+    }
+
+    /**
+     * Reads a single record.
+     *
+     * @param position The position of the record in the whole log.
+     * @return The record.
+     * @throws IOException If the record cannot be read, is incomplete, corrupt or its segment was deleted.
+     */
+    public byte[] readRecord(long position) throws IOException {
+        Map.Entry<Long, LogSegment> segment = segments.floorEntry(position);
+        if (segment == null) {
+            throw new IOException("There is no segment with the record at position " + position);
+        }
+        return segment.getValue().readRecord(position);
+    }
+
+    /**
+     * Gets the base of the segment of a record.
+     *
+     * @param position The position of the record in the whole log.
+     * @return The base of the segment or <code>-1</code> if there is no such segment.
+     */
+    public long getSegmentBase(long position) {
+        Long base = segments.floorKey(position);
+        return base == null ? -1 : base;
+    }
+
+    /**
+     * Gets the position of the oldest record which still exists.
+     *
+     * @return The base of the oldest segment or <code>-1</code> if there are no segments.
+     */
+    public long getFirstPosition() {
+        return segments.isEmpty() ? -1 : segments.firstKey();
+    }
+
+    /**
+     * Reads all records of all segments, the oldest first. Reading a segment stops at its first incomplete or
+     * corrupt record.
+     *
+     * @param handler The handler which is called for every record with its position in the whole log.
+     * @return The position behind the last valid record.
+     * @throws IOException If a segment cannot be read or the handler fails.
+     */
+    public long read(AppendLog.RecordHandler handler) throws IOException {
+        long position = 0;
+        for (LogSegment segment : segments.values()) {
+            handler.segmentStarted(segment.getBase());
+            position = segment.read(handler);
+        }
+        return position;
+    }
+
+    /**
+     * Reads all records of a single segment. Reading stops at its first incomplete or corrupt record.
+     *
+     * @param base    The base of the segment.
+     * @param handler The handler which is called for every record with its position in the whole log.
+     * @return Whether the segment exists.
+     * @throws IOException If the segment cannot be read or the handler fails.
+     */
+    public boolean readSegment(long base, AppendLog.RecordHandler handler) throws IOException {
+        LogSegment segment = segments.get(base);
+        if (segment == null) {
+            return false;
+        }
+        handler.segmentStarted(base);
+        segment.read(handler);
+        return true;
+    }
+
+    /**
+     * Closes all files opened by this reader.
+     */
+    @Override
+    public void close() {
+        for (LogSegment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+}
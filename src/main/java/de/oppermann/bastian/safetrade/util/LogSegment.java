@@ -0,0 +1,430 @@
+package de.oppermann.bastian.safetrade.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A segment of a segmented {@link AppendLog}.
+ * <p>
+ * A segment is named after its base, the position of its first record in the whole log (e.g.
+ * <code>00000000000001048576.log</code>), so the positions of the records stay the same when older segments are
+ * compressed or deleted. A sealed segment can be compressed into <code>&lt;base&gt;.log.z</code>: Its content is split
+ * into blocks which are compressed separately by a {@link Deflater}, so a single record can be read without inflating
+ * the whole segment. Every block is stored as its uncompressed length (int), its compressed length (int) and the
+ * compressed data.
+ * <p>
+ * The compressed file is written to a temporary file first which replaces the old segment atomically, so a segment is
+ * never lost if the server crashes while it's compressed.
+ */
+public final class LogSegment implements Closeable {
+
+    private static final String SUFFIX = ".log";
+    private static final String COMPRESSED_SUFFIX = ".log.z";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The uncompressed size of a block of a compressed segment.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final long base;
+    private final File file;
+    private final boolean compressed;
+
+    /**
+     * The file used to read single records of an uncompressed segment. Opened when it's needed.
+     */
+    private RandomAccessFile randomAccessFile = null;
+
+    /**
+     * The uncompressed start and the position in the file of every block of a compressed segment.
+     * Read when they are needed.
+     */
+    private long[] blockStarts = null;
+    private long[] blockPositions = null;
+    private long length = -1;
+
+    private LogSegment(long base, File file, boolean compressed) {
+        this.base = base;
+        this.file = file;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Gets all segments in a folder. If a segment exists both uncompressed and compressed (because the server crashed
+     * after it was compressed), only the compressed one is returned.
+     *
+     * @param folder The folder of the segments.
+     * @return The segments, sorted by their base.
+     */
+    public static List<LogSegment> list(File folder) {
+        TreeMap<Long, LogSegment> segments = new TreeMap<>();
+        String[] names = folder.list();
+        if (names == null) {
+            return new ArrayList<>();
+        }
+        for (String name : names) {
+            boolean compressed = name.endsWith(COMPRESSED_SUFFIX);
+            if (!compressed && !name.endsWith(SUFFIX)) {
+                continue;
+            }
+            long base;
+            try {
+                base = Long.parseLong(name.substring(0, name.indexOf('.')));
+            } catch (NumberFormatException e) {
+                continue; // not a segment
+            }
+            if (compressed || !segments.containsKey(base)) {
+                segments.put(base, new LogSegment(base, new File(folder, name), compressed));
+            }
+        }
+        return new ArrayList<>(segments.values());
+    }
+
+    /**
+     * Removes the leftovers of interrupted compressions: Temporary files and uncompressed segments which were already
+     * compressed completely.
+     *
+     * @param folder The folder of the segments.
+     */
+    public static void cleanUp(File folder) {
+        String[] names = folder.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.endsWith(TEMP_SUFFIX)) {
+                new File(folder, name).delete();
+            } else if (name.endsWith(SUFFIX) && new File(folder, name.replace(SUFFIX, COMPRESSED_SUFFIX)).exists()) {
+                new File(folder, name).delete();
+            }
+        }
+    }
+
+    /**
+     * Gets the file of a new (uncompressed) segment.
+     *
+     * @param folder The folder of the segments.
+     * @param base   The base of the segment.
+     * @return The file of the segment.
+     */
+    public static File getFile(File folder, long base) {
+        return new File(folder, String.format("%020d", base) + SUFFIX);
+    }
+
+    /**
+     * Gets the position of the first record of the segment in the whole log.
+     *
+     * @return The base of the segment.
+     */
+    public long getBase() {
+        return base;
+    }
+
+    /**
+     * Gets the file of the segment.
+     *
+     * @return The file of the segment.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Checks if the segment is compressed.
+     *
+     * @return Whether the segment is compressed.
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Gets the uncompressed length of the segment.
+     *
+     * @return The uncompressed length of the segment.
+     * @throws IOException If the blocks of a compressed segment cannot be read.
+     */
+    public long getLength() throws IOException {
+        if (!compressed) {
+            return file.length();
+        }
+        readBlocks();
+        return length;
+    }
+
+    /**
+     * Reads all records of the segment. Reading stops at the first incomplete or corrupt record.
+     *
+     * @param handler The handler which is called for every record with its position in the whole log.
+     * @return The position in the whole log behind the last valid record.
+     * @throws IOException If the segment cannot be read or the handler fails.
+     */
+    public long read(AppendLog.RecordHandler handler) throws IOException {
+        try (InputStream in = compressed ? new BlockInputStream(new FileInputStream(file)) : new FileInputStream(file)) {
+            return AppendLog.read(in, base, handler);
+        }
+    }
+
+    /**
+     * Reads a single record.
+     *
+     * @param position The position of the record in the whole log.
+     * @return The record.
+     * @throws IOException If the record cannot be read, is incomplete or corrupt.
+     */
+    public byte[] readRecord(long position) throws IOException {
+        long offset = position - base;
+        if (!compressed) {
+            if (randomAccessFile == null) {
+                randomAccessFile = new RandomAccessFile(file, "r");
+            }
+            return AppendLog.readRecord(randomAccessFile, offset);
+        }
+
+        readBlocks();
+        int block = Arrays.binarySearch(blockStarts, offset);
+        if (block < 0) {
+            block = -block - 2; // the block which starts before the offset
+        }
+        if (block < 0) {
+            throw new IOException("Invalid record at position " + position);
+        }
+        FileInputStream fileIn = new FileInputStream(file);
+        fileIn.getChannel().position(blockPositions[block]);
+        try (DataInputStream in = new DataInputStream(new BlockInputStream(fileIn))) {
+            long skip = offset - blockStarts[block];
+            while (skip > 0) {
+                int skipped = in.skipBytes((int) Math.min(skip, Integer.MAX_VALUE));
+                if (skipped <= 0) {
+                    throw new EOFException("Invalid record at position " + position);
+                }
+                skip -= skipped;
+            }
+            return AppendLog.readRecord(in, position);
+        }
+    }
+
+    /**
+     * Compresses the segment. The segment must be sealed.
+     *
+     * @return The compressed segment.
+     * @throws IOException If the segment cannot be compressed.
+     */
+    public LogSegment compress() throws IOException {
+        if (compressed) {
+            return this;
+        }
+        close();
+        File target = new File(file.getParentFile(), file.getName().replace(SUFFIX, COMPRESSED_SUFFIX));
+        File tempFile = new File(target.getPath() + TEMP_SUFFIX);
+        Deflater deflater = new Deflater();
+        try (InputStream in = new FileInputStream(file); FileOutputStream tempOut = new FileOutputStream(tempFile)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(tempOut, 64 * 1024));
+            byte[] block = new byte[BLOCK_SIZE];
+            byte[] buffer = new byte[8192];
+            ByteArrayOutputStream compressedBlock = new ByteArrayOutputStream(BLOCK_SIZE);
+            int length;
+            while ((length = readBlock(in, block)) > 0) {
+                deflater.reset();
+                deflater.setInput(block, 0, length);
+                deflater.finish();
+                compressedBlock.reset();
+                while (!deflater.finished()) {
+                    compressedBlock.write(buffer, 0, deflater.deflate(buffer));
+                }
+                out.writeInt(length);
+                out.writeInt(compressedBlock.size());
+                compressedBlock.writeTo(out);
+            }
+            out.flush();
+            tempOut.getChannel().force(true);
+        } finally {
+            deflater.end();
+        }
+        tempFile.setLastModified(file.lastModified()); // the retention uses the time of the last record
+        Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        file.delete();
+        return new LogSegment(base, target, true);
+    }
+
+    /**
+     * Deletes the segment.
+     */
+    public void delete() {
+        close();
+        file.delete();
+    }
+
+    /**
+     * Closes the file which was opened to read single records.
+     */
+    @Override
+    public void close() {
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                // only read
+            }
+            randomAccessFile = null;
+        }
+    }
+
+    /**
+     * Reads the start and the position of every block of a compressed segment.
+     *
+     * @throws IOException If the segment cannot be read.
+     */
+    private void readBlocks() throws IOException {
+        if (blockStarts != null) {
+            return;
+        }
+        List<long[]> blocks = new ArrayList<>();
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long start = 0;
+            long filePosition = 0;
+            while (filePosition + 8 <= in.length()) {
+                in.seek(filePosition);
+                int length = in.readInt();
+                int compressedLength = in.readInt();
+                blocks.add(new long[]{start, filePosition});
+                start += length;
+                filePosition += 8 + compressedLength;
+            }
+            length = start;
+        }
+        blockStarts = new long[blocks.size()];
+        blockPositions = new long[blocks.size()];
+        for (int i = 0; i < blocks.size(); i++) {
+            blockStarts[i] = blocks.get(i)[0];
+            blockPositions[i] = blocks.get(i)[1];
+        }
+    }
+
+    /**
+     * Reads a block from a stream.
+     *
+     * @param in    The stream.
+     * @param block The block.
+     * @return The amount of bytes read. Less than the size of the block only at the end of the stream.
+     * @throws IOException If the stream cannot be read.
+     */
+    private static int readBlock(InputStream in, byte[] block) throws IOException {
+        int length = 0;
+        int read;
+        while (length < block.length && (read = in.read(block, length, block.length - length)) > 0) {
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * Inflates the blocks of a compressed segment.
+     */
+    private static final class BlockInputStream extends InputStream {
+
+        private final DataInputStream in;
+        private final Inflater inflater = new Inflater();
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private int blockLength = 0;
+        private int blockPosition = 0;
+
+        /**
+         * Creates a new stream.
+         *
+         * @param in The compressed segment, positioned at the start of a block.
+         */
+        private BlockInputStream(InputStream in) {
+            this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (blockPosition == blockLength && !nextBlock()) {
+                return -1;
+            }
+            return block[blockPosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (blockPosition == blockLength && !nextBlock()) {
+                return -1;
+            }
+            int read = Math.min(length, blockLength - blockPosition);
+            System.arraycopy(block, blockPosition, bytes, offset, read);
+            blockPosition += read;
+            return read;
+        }
+
+        /**
+         * Inflates the next block.
+         *
+         * @return Whether there was another block.
+         * @throws IOException If the block is incomplete or corrupt.
+         */
+        private boolean nextBlock() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            int compressedLength = in.readInt();
+            if (length <= 0 || length > BLOCK_SIZE || compressedLength < 0 || compressedLength > 2 * BLOCK_SIZE) {
+                throw new IOException("Corrupt block");
+            }
+            byte[] compressedBlock = new byte[compressedLength];
+            in.readFully(compressedBlock);
+            inflater.reset();
+            inflater.setInput(compressedBlock);
+            try {
+                int inflated = 0;
+                while (inflated < length) {
+                    int count = inflater.inflate(block, inflated, length - inflated);
+                    if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IOException("Corrupt block");
+                    }
+                    inflated += count;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt block", e);
+            }
+            blockLength = length;
+            blockPosition = 0;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            in.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.IllegalPluginAccessException;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * An executor which runs tasks on the main thread of the server.
+ * <p>
+ * Tasks submitted on the main thread are executed immediately. All other tasks are queued and executed by a
+ * scheduler task. Once the plugin is disabled the scheduler doesn't accept new tasks anymore, so the queue must be
+ * drained by {@link #runPendingTasks()} in {@link Plugin#onDisable()}.
+ */
+public class MainThreadExecutor implements Executor {
+
+    private final Plugin plugin;
+
+    /**
+     * The tasks which were submitted by other threads and are waiting for the main thread.
+     */
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a new executor.
+     *
+     * @param plugin The SafeTrade plugin.
+     */
+    public MainThreadExecutor(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (Bukkit.isPrimaryThread()) {
+            command.run();
+            return;
+        }
+        pendingTasks.add(command);
+        if (plugin.isEnabled()) {
+            try {
+                Bukkit.getScheduler().runTask(plugin, this::runPendingTasks);
+            } catch (IllegalPluginAccessException e) {
+                // the plugin was disabled meanwhile, so onDisable() runs the task
+            }
+        }
+    }
+
+    /**
+     * Runs all queued tasks. Must be called on the main thread.
+     */
+    public void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+}
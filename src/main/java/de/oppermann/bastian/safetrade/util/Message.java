@@ -0,0 +1,128 @@
+package de.oppermann.bastian.safetrade.util;
+
+/**
+ * All messages of the Messages.properties files and the placeholders they may use.
+ */
+public enum Message {
+
+    PLAYERS_ONLY("players_only"),
+    NO_PERMISSION("no_permission"),
+    WRONG_USAGE("wrong_usage", "command"),
+    NO_TRADE_TO_ACCEPT("no_trade_to_accept"),
+    NO_TRADE_TO_DENY("no_trade_to_deny"),
+    TRADE_DENIED("trade_denied"),
+    PLAYER_NOT_ONLINE("player_not_online", "player"),
+    CANNOT_TRADE_WITH_YOURSELF("cannot_trade_with_yourself"),
+    SUCCESSFULLY_REQUESTED_PLAYER("successfully_requested_player", "player"),
+    PLAYER_WANTS_TO_TRADE("player_wants_to_trade", "player"),
+    HOW_TO_ACCEPT_TRADE("how_to_accept_trade", "command"),
+    HOW_TO_ACCEPT_TRADE_COMMAND_HOVER("how_to_accept_trade_command_hover"),
+    TRADE_NOT_POSSIBLE("trade_not_possible"),
+    TRADE_REQUEST_NOT_ACCEPTED("trade_request_not_accepted"),
+    TRADE_SUCCEEDED("trade_succeeded"),
+    TRADINGINVENTORY_TITLE("tradinginventory_title", "player", "partner"),
+    PARTNER_NOT_READY("partner_not_ready"),
+    PARTNER_READY("partner_ready"),
+    PARTNER_NOT_ACCEPTED_YET("partner_not_accepted_yet"),
+    PARTNER_ACCEPTED_TRADE("partner_accepted_trade"),
+    OFFERED_MONEY("offered_money", "money"),
+    BUTTON_READY("button_ready"),
+    BUTTON_READY_DESCRIPTION("button_ready_description"),
+    BUTTON_ABORT("button_abort"),
+    BUTTON_ABORT_DESCRIPTION("button_abort_description"),
+    BUTTON_ADD_MONEY("button_add_money", "money"),
+    BUTTON_ADD_MONEY_DESCRIPTION("button_add_money_description"),
+    BUTTON_CLEAR_MONEY("button_clear_money"),
+    BUTTON_CLEAR_MONEY_DESCRIPTION("button_clear_money_description"),
+    READY_AND_WAIT_FOR_PARTNER("ready_and_wait_for_partner"),
+    ACCEPTED_AND_WAIT_FOR_PARTNER("accepted_and_wait_for_partner"),
+    BUTTON_ACCEPT("button_accept"),
+    BUTTON_ACCEPT_DESCRIPTION("button_accept_description"),
+    NOT_ENOUGH_MONEY_YOU("not_enough_money_you"),
+    NOT_ENOUGH_MONEY_PARTNER("not_enough_money_partner", "player"),
+    NOT_ENOUGH_SPACE_YOU("not_enough_space_you"),
+    NOT_ENOUGH_SPACE_PARTNER("not_enough_space_partner", "player"),
+    ECONOMY_NOT_RESPONDING("economy_not_responding"),
+    ENTER_MONEY("enter_money"),
+    INVALID_MONEY_AMOUNT("invalid_money_amount", "input"),
+    ITEMS_RECOVERED("items_recovered"),
+    PLAYER_IN_OTHER_WORLD("player_in_other_world", "player"),
+    PLAYER_TO_FAR_AWAY("player_to_far_away", "player", "max_distance"),
+    HELP_COMMAND_TRADE_PLAYER("help_command_trade_player"),
+    HELP_COMMAND_TRADE_PLAYER_DESCRIPTION("help_command_trade_player_description"),
+    HELP_COMMAND_TRADE_ACCEPT("help_command_trade_accept"),
+    HELP_COMMAND_TRADE_ACCEPT_DESCRIPTION("help_command_trade_accept_description", "seconds"),
+    HELP_COMMAND_TRADE_DENY("help_command_trade_deny"),
+    HELP_COMMAND_TRADE_DENY_DESCRIPTION("help_command_trade_deny_description"),
+    HELP_COMMAND_TRADE_HISTORY("help_command_trade_history"),
+    HELP_COMMAND_TRADE_HISTORY_DESCRIPTION("help_command_trade_history_description"),
+    HELP_COMMAND_TRADE_SEARCH("help_command_trade_search"),
+    HELP_COMMAND_TRADE_SEARCH_DESCRIPTION("help_command_trade_search_description"),
+    HELP_COMMAND_TRADE_RELOAD("help_command_trade_reload"),
+    HELP_COMMAND_TRADE_RELOAD_DESCRIPTION("help_command_trade_reload_description"),
+    PLAYER_ABORTED_TRADE("player_aborted_trade", "player"),
+    HISTORY_HEADER("history_header", "player", "page", "pages"),
+    HISTORY_NO_TRADES("history_no_trades", "player"),
+    HISTORY_TRADE("history_trade", "date", "partner", "result"),
+    HISTORY_GAVE("history_gave", "items"),
+    HISTORY_RECEIVED("history_received", "items"),
+    HISTORY_NOTHING("history_nothing"),
+    HISTORY_RESULT_SUCCESS("history_result_success"),
+    HISTORY_RESULT_ABORTED("history_result_aborted"),
+    HISTORY_RESULT_NOT_ENOUGH_MONEY("history_result_not_enough_money"),
+    HISTORY_RESULT_ECONOMY_FAILED("history_result_economy_failed"),
+    HISTORY_RESULT_CANCELLED("history_result_cancelled"),
+    SEARCH_HEADER("search_header", "query", "days"),
+    SEARCH_NO_RESULTS("search_no_results", "query", "days"),
+    SEARCH_TRADE("search_trade", "date", "player", "partner"),
+    SEARCH_GAVE("search_gave", "player", "items"),
+    SEARCH_UNKNOWN_TERM("search_unknown_term", "term"),
+    JOURNAL_DISABLED("journal_disabled"),
+    JOURNAL_READ_FAILED("journal_read_failed"),
+    YOU_ABORTED_TRADE("you_aborted_trade"),
+    NO_REQUEST_SPAM("no_request_spam"),
+    RELOAD_SUCCESSFUL("reload_successful"),
+    TRADING_NOT_POSSIBLE_IN_BED("trading_not_possible_in_bed");
+
+    private final String key;
+    private final String[] placeholders;
+
+    Message(String key, String... placeholders) {
+        this.key = key;
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * Gets the key of the message in the Messages.properties files.
+     *
+     * @return The key of the message.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the index of a placeholder.
+     *
+     * @param placeholder The name of the placeholder (without braces).
+     * @return The index of the placeholder or <code>-1</code> if the message does not support the placeholder.
+     */
+    public int getPlaceholderIndex(String placeholder) {
+        for (int i = 0; i < placeholders.length; i++) {
+            if (placeholders[i].equals(placeholder)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the amount of placeholders of the message.
+     *
+     * @return The amount of placeholders.
+     */
+    public int getPlaceholderCount() {
+        return placeholders.length;
+    }
+
+}
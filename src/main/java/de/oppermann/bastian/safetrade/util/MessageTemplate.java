@@ -0,0 +1,117 @@
+package de.oppermann.bastian.safetrade.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A message which is split into literal segments and placeholder slots once, so rendering it is a single pass.
+ */
+public final class MessageTemplate {
+
+    /**
+     * Matches placeholders like <code>{player}</code>.
+     */
+    private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("\\{([a-z_]+)}");
+
+    /**
+     * The literal segments. There is always one segment more than there are placeholder slots.
+     */
+    private final String[] literals;
+
+    /**
+     * The placeholder index (see {@link Message#getPlaceholderIndex(String)}) of every slot between two literals.
+     */
+    private final int[] slots;
+
+    /**
+     * The combined length of all literals.
+     */
+    private final int literalLength;
+
+    private MessageTemplate(String[] literals, int[] slots) {
+        this.literals = literals;
+        this.slots = slots;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Compiles a message.
+     *
+     * @param message The message.
+     * @param text    The (translated) text of the message.
+     * @return The compiled message.
+     * @throws IllegalArgumentException If the text contains a placeholder the message does not support.
+     */
+    public static MessageTemplate compile(Message message, String text) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER_PATTERN.matcher(text);
+        int start = 0;
+        while (matcher.find()) {
+            int index = message.getPlaceholderIndex(matcher.group(1));
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown placeholder '" + matcher.group()
+                        + "' in message '" + message.getKey() + "'");
+            }
+            literals.add(text.substring(start, matcher.start()));
+            slots.add(index);
+            start = matcher.end();
+        }
+        literals.add(text.substring(start));
+
+        int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+        }
+        return new MessageTemplate(literals.toArray(new String[0]), slotArray);
+    }
+
+    /**
+     * Renders the message.
+     *
+     * @param prefix The prefix of the message (e.g. a color). Can be empty.
+     * @param args   The values of the placeholders in the order of the {@link Message}.
+     * @return The rendered message.
+     */
+    public String render(String prefix, String... args) {
+        if (slots.length == 0) {
+            return prefix.isEmpty() ? literals[0] : prefix.concat(literals[0]);
+        }
+        int length = prefix.length() + literalLength;
+        for (int slot : slots) {
+            length += args[slot].length();
+        }
+        StringBuilder builder = new StringBuilder(length);
+        builder.append(prefix).append(literals[0]);
+        for (int i = 0; i < slots.length; i++) {
+            builder.append(args[slots[i]]).append(literals[i + 1]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Gets the amount of placeholder slots in the message.
+     *
+     * @return The amount of placeholder slots.
+     */
+    public int getSlotCount() {
+        return slots.length;
+    }
+
+    /**
+     * Gets the literal segment in front of the given slot.
+     *
+     * @param index The index of the segment. The segment behind the last slot has the index {@link #getSlotCount()}.
+     * @return The literal segment.
+     */
+    public String getLiteral(int index) {
+        return literals[index];
+    }
+
+}
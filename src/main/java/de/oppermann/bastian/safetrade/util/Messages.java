@@ -0,0 +1,87 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.bukkit.ChatColor;
+
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+
+/**
+ * All messages of one language, compiled into {@link MessageTemplate}s.
+ */
+public final class Messages {
+
+    /**
+     * The compiled messages indexed by the ordinal of their {@link Message}.
+     */
+    private final MessageTemplate[] templates;
+
+    /**
+     * Compiles all messages of the given bundle.
+     *
+     * @param bundle The bundle which contains the messages.
+     * @throws IllegalArgumentException If a message is missing or contains an unknown placeholder.
+     */
+    public Messages(ResourceBundle bundle) {
+        Message[] messages = Message.values();
+        templates = new MessageTemplate[messages.length];
+        for (Message message : messages) {
+            String text;
+            try {
+                text = bundle.getString(message.getKey());
+            } catch (MissingResourceException e) {
+                throw new IllegalArgumentException("Missing message '" + message.getKey() + "'", e);
+            }
+            templates[message.ordinal()] = MessageTemplate.compile(message, text);
+        }
+    }
+
+    /**
+     * Gets a message.
+     *
+     * @param message The message.
+     * @param args    The values of the placeholders in the order of the {@link Message}.
+     * @return The rendered message.
+     */
+    public String get(Message message, String... args) {
+        return render("", message, args);
+    }
+
+    /**
+     * Gets a message with a color prefix.
+     *
+     * @param color   The color of the message.
+     * @param message The message.
+     * @param args    The values of the placeholders in the order of the {@link Message}.
+     * @return The rendered message.
+     */
+    public String get(ChatColor color, Message message, String... args) {
+        return render(color.toString(), message, args);
+    }
+
+    /**
+     * Gets the compiled template of a message.
+     *
+     * @param message The message.
+     * @return The compiled template.
+     */
+    public MessageTemplate getTemplate(Message message) {
+        return templates[message.ordinal()];
+    }
+
+    /**
+     * Renders a message.
+     *
+     * @param prefix  The prefix of the message.
+     * @param message The message.
+     * @param args    The values of the placeholders in the order of the {@link Message}.
+     * @return The rendered message.
+     */
+    private String render(String prefix, Message message, String[] args) {
+        if (args.length != message.getPlaceholderCount()) {
+            throw new IllegalArgumentException("Message '" + message.getKey() + "' requires "
+                    + message.getPlaceholderCount() + " arguments but got " + args.length);
+        }
+        return templates[message.ordinal()].render(prefix, args);
+    }
+
+}
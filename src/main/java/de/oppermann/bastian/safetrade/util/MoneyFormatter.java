@@ -0,0 +1,59 @@
+package de.oppermann.bastian.safetrade.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class caches the amounts formatted by {@link IEconomy#format(double)}.
+ * <p>
+ * Formatting may be expensive for some economy plugins, but the same few amounts are formatted over and over again
+ * while players click the money buttons. The least recently used amounts are evicted once the cache is full.
+ */
+public class MoneyFormatter {
+
+    /**
+     * The maximum amount of cached amounts.
+     */
+    private static final int MAX_CACHED_AMOUNTS = 512;
+
+    private final IEconomy economy;
+
+    /**
+     * The formatted amounts in access order.
+     */
+    private final Map<Integer, String> cache = new LinkedHashMap<Integer, String>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+            return size() > MAX_CACHED_AMOUNTS;
+        }
+    };
+
+    /**
+     * Creates a new formatter.
+     *
+     * @param economy The economy which formats the amounts. May be <code>null</code>.
+     */
+    public MoneyFormatter(IEconomy economy) {
+        this.economy = economy;
+    }
+
+    /**
+     * Formats the money into a nice readable format (e.g. "1 Dollar").
+     * If there is no economy, the plain number is returned.
+     *
+     * @param amount The money to format.
+     * @return The formatted money.
+     */
+    public String format(int amount) {
+        if (economy == null) {
+            return String.valueOf(amount);
+        }
+        String formatted = cache.get(amount);
+        if (formatted == null) {
+            formatted = economy.format(amount);
+            cache.put(amount, formatted);
+        }
+        return formatted;
+    }
+
+}
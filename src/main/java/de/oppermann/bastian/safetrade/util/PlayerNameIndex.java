@@ -0,0 +1,86 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class stores the names of all online players sorted and in lower case, so the players whose name starts with
+ * a given prefix can be found with a range scan instead of iterating all online players.
+ */
+public class PlayerNameIndex {
+
+    /**
+     * The online players by their lower case name.
+     */
+    private final TreeMap<String, Player> players = new TreeMap<>();
+
+    /**
+     * Adds all players who are currently online (e.g. after a reload).
+     */
+    public void addOnlinePlayers() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            add(player);
+        }
+    }
+
+    /**
+     * Adds a player who joined the server.
+     *
+     * @param player The player.
+     */
+    public void add(Player player) {
+        players.put(player.getName().toLowerCase(Locale.ROOT), player);
+    }
+
+    /**
+     * Removes a player who left the server.
+     *
+     * @param player The player.
+     */
+    public void remove(Player player) {
+        players.remove(player.getName().toLowerCase(Locale.ROOT), player);
+    }
+
+    /**
+     * Removes all players.
+     */
+    public void clear() {
+        players.clear();
+    }
+
+    /**
+     * Adds the names of the players which start with the given prefix (ignoring case) and are visible for the sender.
+     * The sender itself is never added.
+     *
+     * @param sender   The sender who wants to see the names.
+     * @param prefix   The prefix.
+     * @param result   The list to which the names are added.
+     * @param maxNames The maximum amount of names which should be added.
+     */
+    public void collectNames(CommandSender sender, String prefix, List<String> result, int maxNames) {
+        String lowerPrefix = prefix.toLowerCase(Locale.ROOT);
+        Map<String, Player> candidates = lowerPrefix.isEmpty() ? players
+                : players.subMap(lowerPrefix, true, lowerPrefix + Character.MAX_VALUE, false);
+        int added = 0;
+        for (Player player : candidates.values()) {
+            if (added >= maxNames) {
+                return;
+            }
+            if (sender.equals(player)) {
+                continue; // except the player itself
+            }
+            if (sender instanceof Player && !((Player) sender).canSee(player)) {
+                continue;
+            }
+            result.add(player.getName());
+            added++;
+        }
+    }
+
+}
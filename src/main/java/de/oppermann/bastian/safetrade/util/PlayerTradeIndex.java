@@ -0,0 +1,239 @@
+package de.oppermann.bastian.safetrade.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The index of the positions of the trades of every player in the {@link TradeJournal}.
+ * <p>
+ * Every player has an index file which contains the positions (longs) of his trades in the order they were written.
+ * Only records which were already forced to the disk are added, so the index never points to a record which may be
+ * lost in a crash. The watermark file stores the position up to which the journal is indexed. Records after the
+ * watermark are indexed again when the journal is opened, so positions may be stored twice. These duplicates are
+ * ignored when an index file is loaded, as the positions of a player must strictly increase.
+ * <p>
+ * The indexes of the recently queried players are cached. This class is thread-safe.
+ */
+public class PlayerTradeIndex {
+
+    /**
+     * The maximum amount of players whose index is cached.
+     */
+    private static final int MAX_CACHED_PLAYERS = 256;
+
+    private final File folder;
+    private final File watermarkFile;
+
+    /**
+     * The cached indexes in access order.
+     */
+    private final Map<UUID, Positions> cache = new LinkedHashMap<UUID, Positions>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Positions> eldest) {
+            return size() > MAX_CACHED_PLAYERS;
+        }
+    };
+
+    /**
+     * Creates a new index.
+     *
+     * @param folder The folder of the index files.
+     */
+    public PlayerTradeIndex(File folder) {
+        this.folder = folder;
+        this.watermarkFile = new File(folder, "watermark");
+    }
+
+    /**
+     * Gets the position in the journal up to which all records are indexed.
+     *
+     * @return The position up to which all records are indexed.
+     */
+    public synchronized long getWatermark() {
+        if (!watermarkFile.exists()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(watermarkFile))) {
+            return in.readLong();
+        } catch (IOException e) {
+            return 0; // index everything again, the duplicates are ignored
+        }
+    }
+
+    /**
+     * Adds records to the index and moves the watermark behind them.
+     *
+     * @param records  The records in the order they are stored in the journal.
+     * @param position The position of the first record.
+     * @throws IOException If the index cannot be written.
+     */
+    public synchronized void add(List<byte[]> records, long position) throws IOException {
+        Map<UUID, Positions> positionsByPlayer = new LinkedHashMap<>();
+        for (byte[] record : records) {
+            for (UUID player : TradeRecord.readPlayers(ByteBuffer.wrap(record))) {
+                positionsByPlayer.computeIfAbsent(player, uuid -> new Positions()).add(position);
+            }
+            position += record.length + 8;
+        }
+
+        folder.mkdirs();
+        for (Map.Entry<UUID, Positions> entry : positionsByPlayer.entrySet()) {
+            Positions positions = entry.getValue();
+            try (FileOutputStream fileOut = new FileOutputStream(getFile(entry.getKey()), true)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                for (int i = 0; i < positions.size; i++) {
+                    out.writeLong(positions.values[i]);
+                }
+                out.flush();
+                fileOut.getChannel().force(false);
+            }
+            Positions cached = cache.get(entry.getKey());
+            if (cached != null) {
+                for (int i = 0; i < positions.size; i++) {
+                    cached.add(positions.values[i]);
+                }
+            }
+        }
+
+        // the watermark is moved after the index files were forced to the disk
+        try (RandomAccessFile out = new RandomAccessFile(watermarkFile, "rwd")) {
+            out.writeLong(position);
+        }
+    }
+
+    /**
+     * Gets the amount of trades of a player.
+     *
+     * @param player      The uuid of the player.
+     * @param minPosition The position of the oldest trade which is counted. Older trades were deleted from the journal.
+     * @return The amount of trades of the player.
+     * @throws IOException If the index file cannot be read.
+     */
+    public synchronized int getCount(UUID player, long minPosition) throws IOException {
+        Positions positions = getPositions(player);
+        return positions.size - positions.indexOf(minPosition);
+    }
+
+    /**
+     * Gets the positions of the newest trades of a player.
+     *
+     * @param player      The uuid of the player.
+     * @param skip        The amount of newer trades which are skipped. Must not be negative.
+     * @param limit       The maximum amount of positions.
+     * @param minPosition The position of the oldest trade which is returned. Older trades were deleted from the
+     *                    journal.
+     * @return The positions, the newest first.
+     * @throws IOException If the index file cannot be read.
+     */
+    public synchronized long[] getNewest(UUID player, int skip, int limit, long minPosition) throws IOException {
+        if (skip < 0) {
+            throw new IllegalArgumentException("Negative skip " + skip);
+        }
+        Positions positions = getPositions(player);
+        int first = positions.indexOf(minPosition);
+        int end = positions.size - skip; // exclusive
+        if (end <= first) {
+            return new long[0];
+        }
+        int start = Math.max(first, end - limit);
+        long[] newest = new long[end - start];
+        for (int i = 0; i < newest.length; i++) {
+            newest[i] = positions.values[end - 1 - i];
+        }
+        return newest;
+    }
+
+    /**
+     * Deletes all index files.
+     */
+    public synchronized void clear() {
+        cache.clear();
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Gets the (cached) positions of a player. The index file is loaded if the player is not cached.
+     *
+     * @param player The uuid of the player.
+     * @return The positions.
+     * @throws IOException If the index file cannot be read.
+     */
+    private Positions getPositions(UUID player) throws IOException {
+        Positions positions = cache.get(player);
+        if (positions != null) {
+            return positions;
+        }
+        positions = new Positions();
+        File file = getFile(player);
+        if (file.exists()) {
+            long count = file.length() / 8; // an incomplete position at the end is ignored
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                for (long i = 0; i < count; i++) {
+                    positions.add(in.readLong());
+                }
+            }
+        }
+        cache.put(player, positions);
+        return positions;
+    }
+
+    /**
+     * Gets the index file of a player.
+     *
+     * @param player The uuid of the player.
+     * @return The index file.
+     */
+    private File getFile(UUID player) {
+        return new File(folder, player.toString() + ".idx");
+    }
+
+    /**
+     * A growing list of strictly increasing positions.
+     */
+    private static final class Positions {
+
+        private long[] values = new long[8];
+        private int size = 0;
+
+        private void add(long position) {
+            if (size > 0 && position <= values[size - 1]) {
+                return; // already indexed
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = position;
+        }
+
+        /**
+         * Gets the index of the first position which is not smaller than the given one.
+         *
+         * @param position The position.
+         * @return The index or the size if all positions are smaller.
+         */
+        private int indexOf(long position) {
+            int index = Arrays.binarySearch(values, 0, size, position);
+            return index >= 0 ? index : -index - 1;
+        }
+
+    }
+
+}
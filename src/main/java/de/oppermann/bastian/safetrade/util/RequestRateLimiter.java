@@ -0,0 +1,156 @@
+package de.oppermann.bastian.safetrade.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+/**
+ * This class limits how often trade requests can be sent.
+ * <p>
+ * Every player has a token bucket which holds up to <code>requestBurst</code> requests and gets one new request every
+ * <code>requestCooldown</code> seconds. Additionally, a global bucket limits the requests of all players to
+ * <code>maxRequestsPerSecond</code>. Buckets which are full again are equal to no bucket at all, so they are removed
+ * lazily and the amount of tracked players is capped.
+ */
+public class RequestRateLimiter {
+
+    /**
+     * The maximum amount of players with a non-full bucket.
+     */
+    private static final int MAX_TRACKED_PLAYERS = 4096;
+
+    /**
+     * The buckets of the players, ordered by their last request (oldest first). The map is insertion-ordered, so
+     * looking up a bucket does not change the order: A bucket is moved to the end by re-inserting it on a request.
+     */
+    private final LinkedHashMap<UUID, Bucket> buckets = new LinkedHashMap<>();
+
+    /**
+     * The available requests of the global bucket.
+     */
+    private double globalTokens = -1;
+
+    /**
+     * The last time the global bucket was refilled.
+     */
+    private long globalRefillTime = 0;
+
+    /**
+     * Checks if the player is currently not allowed to send a request.
+     * This does not consume a request.
+     *
+     * @param player   The uuid of the player.
+     * @param settings The settings which contain the limits.
+     * @param now      The current time in milliseconds.
+     * @return Whether the player is not allowed to send a request.
+     */
+    public boolean isLimited(UUID player, Settings settings, long now) {
+        expireIdleBuckets(settings, now);
+        if (settings.getMaxRequestsPerSecond() > 0 && refillGlobal(settings, now) < 1) {
+            return true;
+        }
+        Bucket bucket = buckets.get(player);
+        return bucket != null && bucket.available(settings, now) < 1;
+    }
+
+    /**
+     * Consumes a request of the player (and of the global bucket).
+     *
+     * @param player   The uuid of the player.
+     * @param settings The settings which contain the limits.
+     * @param now      The current time in milliseconds.
+     */
+    public void acquire(UUID player, Settings settings, long now) {
+        if (settings.getMaxRequestsPerSecond() > 0) {
+            globalTokens = Math.max(0, refillGlobal(settings, now) - 1);
+        }
+        if (settings.getRequestCooldown() <= 0) {
+            return; // no per player limit
+        }
+        Bucket bucket = buckets.remove(player);
+        double available = bucket == null ? settings.getRequestBurst() : bucket.available(settings, now);
+        if (bucket == null) {
+            bucket = new Bucket();
+        }
+        buckets.put(player, bucket); // the bucket with the newest request is the last one
+        bucket.tokens = Math.max(0, available - 1);
+        bucket.lastRequest = now;
+
+        if (buckets.size() > MAX_TRACKED_PLAYERS) {
+            // the eldest bucket belongs to the player whose last request is the oldest one
+            Iterator<UUID> iterator = buckets.keySet().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all buckets which are full again. As the buckets are ordered by their last request, this stops at the
+     * first bucket which is still in use.
+     *
+     * @param settings The settings which contain the limits.
+     * @param now      The current time in milliseconds.
+     */
+    private void expireIdleBuckets(Settings settings, long now) {
+        long refillTime = settings.getRequestBurst() * settings.getRequestCooldown() * 1000L;
+        Iterator<Bucket> iterator = buckets.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().lastRequest < refillTime) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Refills the global bucket.
+     *
+     * @param settings The settings which contain the limits.
+     * @param now      The current time in milliseconds.
+     * @return The available requests of the global bucket.
+     */
+    private double refillGlobal(Settings settings, long now) {
+        int maxRequestsPerSecond = settings.getMaxRequestsPerSecond();
+        if (globalTokens < 0) {
+            globalTokens = maxRequestsPerSecond;
+        } else {
+            globalTokens = Math.min(maxRequestsPerSecond,
+                    globalTokens + (now - globalRefillTime) * maxRequestsPerSecond / 1000D);
+        }
+        globalRefillTime = now;
+        return globalTokens;
+    }
+
+    /**
+     * The token bucket of a player.
+     */
+    private static final class Bucket {
+
+        /**
+         * The available requests right after the last request.
+         */
+        private double tokens;
+
+        /**
+         * The time of the last request in milliseconds.
+         */
+        private long lastRequest;
+
+        /**
+         * Gets the available requests.
+         *
+         * @param settings The settings which contain the limits.
+         * @param now      The current time in milliseconds.
+         * @return The available requests.
+         */
+        private double available(Settings settings, long now) {
+            if (settings.getRequestCooldown() <= 0) {
+                return settings.getRequestBurst();
+            }
+            return Math.min(settings.getRequestBurst(),
+                    tokens + (now - lastRequest) / (settings.getRequestCooldown() * 1000D));
+        }
+
+    }
+
+}
@@ -0,0 +1,87 @@
+package de.oppermann.bastian.safetrade.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free queue for many producers and a single consumer.
+ * <p>
+ * Producers claim a slot by incrementing the tail and publish their element by writing it into the slot afterwards.
+ * The consumer treats a claimed but not yet published slot as the end of the queue.
+ *
+ * @param <E> The type of the elements.
+ */
+public class RingBuffer<E> {
+
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+
+    /**
+     * The index of the next element to poll. Only modified by the consumer.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The index of the next free slot.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Creates a new ring buffer.
+     *
+     * @param capacity The capacity. Must be a power of two.
+     */
+    public RingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity must be a power of two");
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Adds an element to the buffer.
+     *
+     * @param element The element. Must not be <code>null</code>.
+     * @return <code>false</code> if the buffer is full.
+     */
+    public boolean offer(E element) {
+        while (true) {
+            long currentTail = tail.get();
+            if (currentTail - head.get() > mask) {
+                return false;
+            }
+            if (tail.compareAndSet(currentTail, currentTail + 1)) {
+                slots.lazySet((int) (currentTail & mask), element);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest element from the buffer. Must only be called by the consumer thread.
+     *
+     * @return The oldest element or <code>null</code> if the buffer is empty.
+     */
+    public E poll() {
+        long currentHead = head.get();
+        int index = (int) (currentHead & mask);
+        E element = slots.get(index);
+        if (element == null) {
+            return null;
+        }
+        slots.lazySet(index, null);
+        head.lazySet(currentHead + 1);
+        return element;
+    }
+
+    /**
+     * Checks if the buffer is empty.
+     *
+     * @return Whether the buffer is empty.
+     */
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+}
@@ -0,0 +1,367 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.logging.Logger;
+
+/**
+ * An immutable snapshot of the config.yml file.
+ * <p>
+ * All values are parsed and validated once when the configuration is loaded, so the event handlers don't have to
+ * look them up on every call. Invalid values are reported once and replaced by their default.
+ */
+public final class Settings {
+
+    private final String language;
+    private final String encoding;
+    private final boolean tradeWithMoney;
+    private final boolean noDebts;
+    private final int maxTradingDistance;
+    private final boolean tradeThroughWorlds;
+    private final boolean fastTrade;
+    private final int smallMoneyValue;
+    private final int mediumMoneyValue;
+    private final int largeMoneyValue;
+    private final boolean tradeWithHiddenPlayers;
+    private final int requestTimeout;
+    private final int requestCooldown;
+    private final int requestBurst;
+    private final int maxRequestsPerSecond;
+    private final int economyTimeout;
+    private final int economyThreads;
+    private final boolean tradeJournal;
+    private final int journalFsyncInterval;
+    private final int journalSegmentSize;
+    private final int journalSegmentDuration;
+    private final int journalRetentionDays;
+    private final int itemIndexRetentionDays;
+    private final int searchResultLimit;
+
+    /**
+     * Parses the settings.
+     *
+     * @param config The configuration to parse.
+     * @param logger The logger used to report invalid values.
+     */
+    public Settings(ConfigurationSection config, Logger logger) {
+        this.language = readString(config, logger, "language", "auto");
+        this.encoding = readString(config, logger, "encoding", "UTF-8");
+        this.tradeWithMoney = readBoolean(config, logger, "tradeWithMoney", true);
+        this.noDebts = readBoolean(config, logger, "noDebts", true);
+        this.maxTradingDistance = readInt(config, logger, "maxTradingDistance", 15, -1);
+        this.tradeThroughWorlds = readBoolean(config, logger, "tradeThroughWorlds", false);
+        this.fastTrade = readBoolean(config, logger, "fastTrade", false);
+        this.smallMoneyValue = readInt(config, logger, "smallMoneyValue", 1, 1);
+        this.mediumMoneyValue = readInt(config, logger, "mediumMoneyValue", 10, 1);
+        this.largeMoneyValue = readInt(config, logger, "largeMoneyValue", 100, 1);
+        this.tradeWithHiddenPlayers = readBoolean(config, logger, "tradeWithHiddenPlayers", true);
+        this.requestTimeout = readInt(config, logger, "requestTimeout", 30, 1);
+        this.requestCooldown = readInt(config, logger, "requestCooldown", 10, 0);
+        this.requestBurst = readInt(config, logger, "requestBurst", 1, 1);
+        this.maxRequestsPerSecond = readInt(config, logger, "maxRequestsPerSecond", 20, 0);
+        this.economyTimeout = readInt(config, logger, "economyTimeout", 5000, 1);
+        this.economyThreads = readInt(config, logger, "economyThreads", 2, 1);
+        this.tradeJournal = readBoolean(config, logger, "tradeJournal", true);
+        this.journalFsyncInterval = readInt(config, logger, "journalFsyncInterval", 1000, 0);
+        this.journalSegmentSize = readInt(config, logger, "journalSegmentSize", 16, 1);
+        this.journalSegmentDuration = readInt(config, logger, "journalSegmentDuration", 24, 1);
+        this.journalRetentionDays = readInt(config, logger, "journalRetentionDays", 0, 0);
+        this.itemIndexRetentionDays = readInt(config, logger, "itemIndexRetentionDays", 90, 0);
+        this.searchResultLimit = readInt(config, logger, "searchResultLimit", 20, 1);
+    }
+
+    /**
+     * Gets the configured language (<code>auto</code> or a IETF BCP 47 language tag).
+     *
+     * @return The configured language.
+     */
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * Gets the encoding of the language files.
+     *
+     * @return The encoding of the language files.
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Checks if it is allowed to trade with money.
+     *
+     * @return Whether it is allowed to trade with money.
+     */
+    public boolean isTradeWithMoney() {
+        return tradeWithMoney;
+    }
+
+    /**
+     * Checks if it is forbidden to get run into debt.
+     *
+     * @return Whether it is forbidden to get run into debt.
+     */
+    public boolean isNoDebts() {
+        return noDebts;
+    }
+
+    /**
+     * Gets the maximum trading distance in blocks.
+     *
+     * @return The maximum trading distance. A value &lt;= 0 means there is no maximum distance.
+     */
+    public int getMaxTradingDistance() {
+        return maxTradingDistance;
+    }
+
+    /**
+     * Checks if it is allowed to trade with players in other worlds.
+     *
+     * @return Whether it is allowed to trade with players in other worlds.
+     */
+    public boolean isTradeThroughWorlds() {
+        return tradeThroughWorlds;
+    }
+
+    /**
+     * Checks if players can start a trade by right clicking another player while sneaking.
+     *
+     * @return Whether fast trade is enabled.
+     */
+    public boolean isFastTrade() {
+        return fastTrade;
+    }
+
+    /**
+     * Gets the value of the "small money" button.
+     *
+     * @return The value of the "small money" button.
+     */
+    public int getSmallMoneyValue() {
+        return smallMoneyValue;
+    }
+
+    /**
+     * Gets the value of the "medium money" button.
+     *
+     * @return The value of the "medium money" button.
+     */
+    public int getMediumMoneyValue() {
+        return mediumMoneyValue;
+    }
+
+    /**
+     * Gets the value of the "large money" button.
+     *
+     * @return The value of the "large money" button.
+     */
+    public int getLargeMoneyValue() {
+        return largeMoneyValue;
+    }
+
+    /**
+     * Checks if it is allowed to request trades with hidden players.
+     *
+     * @return Whether it is allowed to request trades with hidden players.
+     */
+    public boolean isTradeWithHiddenPlayers() {
+        return tradeWithHiddenPlayers;
+    }
+
+    /**
+     * Gets the time in seconds after which a trade request expires.
+     *
+     * @return The time in seconds after which a trade request expires.
+     */
+    public int getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * Gets the time in seconds after which a player can send another trade request.
+     *
+     * @return The time in seconds after which a player can send another trade request. A value of 0 means there is no
+     * cooldown.
+     */
+    public int getRequestCooldown() {
+        return requestCooldown;
+    }
+
+    /**
+     * Gets the amount of trade requests a player can send in a row before the cooldown applies.
+     *
+     * @return The amount of trade requests a player can send in a row.
+     */
+    public int getRequestBurst() {
+        return requestBurst;
+    }
+
+    /**
+     * Gets the maximum amount of trade requests all players together can send per second.
+     *
+     * @return The maximum amount of trade requests per second. A value of 0 means there is no limit.
+     */
+    public int getMaxRequestsPerSecond() {
+        return maxRequestsPerSecond;
+    }
+
+    /**
+     * Gets the time in milliseconds after which a call to the economy plugin is considered as failed.
+     *
+     * @return The timeout of economy calls in milliseconds.
+     */
+    public int getEconomyTimeout() {
+        return economyTimeout;
+    }
+
+    /**
+     * Gets the amount of threads which call the economy plugin.
+     *
+     * @return The amount of threads which call the economy plugin.
+     */
+    public int getEconomyThreads() {
+        return economyThreads;
+    }
+
+    /**
+     * Checks if finished trades should be written to the trade journal.
+     *
+     * @return Whether finished trades should be written to the trade journal.
+     */
+    public boolean isTradeJournal() {
+        return tradeJournal;
+    }
+
+    /**
+     * Gets the time in milliseconds after which written journal records are forced to the disk.
+     * <code>0</code> means that they are forced to the disk after every batch.
+     *
+     * @return The fsync interval of the journal in milliseconds.
+     */
+    public int getJournalFsyncInterval() {
+        return journalFsyncInterval;
+    }
+
+    /**
+     * Gets the size in megabytes after which a new segment of the trade journal is started.
+     *
+     * @return The maximum size of a journal segment in megabytes.
+     */
+    public int getJournalSegmentSize() {
+        return journalSegmentSize;
+    }
+
+    /**
+     * Gets the age in hours after which a new segment of the trade journal is started.
+     *
+     * @return The maximum age of a journal segment in hours.
+     */
+    public int getJournalSegmentDuration() {
+        return journalSegmentDuration;
+    }
+
+    /**
+     * Gets the amount of days after which a segment of the trade journal is deleted.
+     * <code>0</code> means that it's kept forever.
+     *
+     * @return The retention period of the trade journal in days.
+     */
+    public int getJournalRetentionDays() {
+        return journalRetentionDays;
+    }
+
+    /**
+     * Gets the amount of days after which the item index of a day is deleted.
+     * <code>0</code> means that it's kept forever.
+     *
+     * @return The retention period of the item index in days.
+     */
+    public int getItemIndexRetentionDays() {
+        return itemIndexRetentionDays;
+    }
+
+    /**
+     * Gets the maximum amount of trades which are shown by /trade search.
+     *
+     * @return The maximum amount of search results.
+     */
+    public int getSearchResultLimit() {
+        return searchResultLimit;
+    }
+
+    /**
+     * Reads a string value.
+     *
+     * @param config       The configuration.
+     * @param logger       The logger used to report invalid values.
+     * @param path         The path of the value.
+     * @param defaultValue The value which is used if the configured value is missing or invalid.
+     * @return The configured value.
+     */
+    private static String readString(ConfigurationSection config, Logger logger, String path, String defaultValue) {
+        if (!config.isSet(path)) {
+            return defaultValue;
+        }
+        if (!config.isString(path)) {
+            reportInvalid(logger, config, path, defaultValue);
+            return defaultValue;
+        }
+        return config.getString(path);
+    }
+
+    /**
+     * Reads a boolean value.
+     *
+     * @param config       The configuration.
+     * @param logger       The logger used to report invalid values.
+     * @param path         The path of the value.
+     * @param defaultValue The value which is used if the configured value is missing or invalid.
+     * @return The configured value.
+     */
+    private static boolean readBoolean(ConfigurationSection config, Logger logger, String path, boolean defaultValue) {
+        if (!config.isSet(path)) {
+            return defaultValue;
+        }
+        if (!config.isBoolean(path)) {
+            reportInvalid(logger, config, path, defaultValue);
+            return defaultValue;
+        }
+        return config.getBoolean(path);
+    }
+
+    /**
+     * Reads an integer value.
+     *
+     * @param config       The configuration.
+     * @param logger       The logger used to report invalid values.
+     * @param path         The path of the value.
+     * @param defaultValue The value which is used if the configured value is missing or invalid.
+     * @param minValue     The smallest allowed value.
+     * @return The configured value.
+     */
+    private static int readInt(ConfigurationSection config, Logger logger, String path, int defaultValue, int minValue) {
+        if (!config.isSet(path)) {
+            return defaultValue;
+        }
+        if (!config.isInt(path) || config.getInt(path) < minValue) {
+            reportInvalid(logger, config, path, defaultValue);
+            return defaultValue;
+        }
+        return config.getInt(path);
+    }
+
+    /**
+     * Reports an invalid value.
+     *
+     * @param logger       The logger.
+     * @param config       The configuration.
+     * @param path         The path of the invalid value.
+     * @param defaultValue The value which is used instead.
+     */
+    private static void reportInvalid(Logger logger, ConfigurationSection config, String path, Object defaultValue) {
+        logger.warning("Your config.yml file contains an invalid value for '" + path + "': '" + config.get(path)
+                + "'. Using the default value '" + defaultValue + "' instead.");
+    }
+
+}
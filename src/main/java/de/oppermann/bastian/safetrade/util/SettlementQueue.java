@@ -0,0 +1,139 @@
+package de.oppermann.bastian.safetrade.util;
+
+import de.oppermann.bastian.safetrade.Main;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class collects the money transfers of all trades which are finished in the same tick and passes them to the
+ * economy as one batch.
+ * <p>
+ * If a batch fails, its transfers are retried one by one, so a single failing transfer doesn't abort the other trades
+ * of the batch. The timeout of a batch grows with its size (see {@link AsyncEconomyAdapter}). Batches which timed out
+ * anyway are not retried, as the economy is obviously overloaded.
+ */
+public class SettlementQueue implements Runnable {
+
+    /**
+     * The transfers which were submitted since the last flush.
+     */
+    private List<PendingTransfer> pendingTransfers = new ArrayList<>();
+
+    /**
+     * The repeating flush task or <code>null</code> if the queue is not running.
+     */
+    private BukkitTask task = null;
+
+    /**
+     * Starts the repeating task which flushes the queue once per tick.
+     *
+     * @param plugin The SafeTrade plugin.
+     */
+    public void start(Plugin plugin) {
+        if (task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this, 1, 1);
+        }
+    }
+
+    /**
+     * Flushes the queue and stops the repeating task.
+     */
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        run();
+    }
+
+    /**
+     * Submits a transfer. It's passed to the economy with the next batch.
+     *
+     * @param from    The player who pays.
+     * @param to      The player who receives the money.
+     * @param amount  The amount of money.
+     * @param covered Whether the player who pays must own the money. If he doesn't, the future is completed
+     *                exceptionally with an {@link InsufficientFundsException}.
+     * @return A future which is completed when the money was transferred.
+     */
+    public CompletableFuture<Void> submit(Player from, Player to, double amount, boolean covered) {
+        PendingTransfer pendingTransfer = new PendingTransfer(new Transfer(from, to, amount, covered));
+        pendingTransfers.add(pendingTransfer);
+        if (task == null) {
+            run(); // not running (e.g. while the plugin is disabled), so there is no batch to wait for
+        }
+        return pendingTransfer.future;
+    }
+
+    /**
+     * Passes all transfers which were submitted since the last flush to the economy.
+     */
+    @Override
+    public void run() {
+        if (pendingTransfers.isEmpty()) {
+            return;
+        }
+        List<PendingTransfer> batch = pendingTransfers;
+        pendingTransfers = new ArrayList<>();
+
+        IAsyncEconomy asyncEconomy = Main.getInstance().getAsyncEconomy();
+        if (asyncEconomy == null) {
+            IllegalStateException exception = new IllegalStateException("There is no economy");
+            for (PendingTransfer pendingTransfer : batch) {
+                pendingTransfer.future.completeExceptionally(exception);
+            }
+            return;
+        }
+
+        List<Transfer> transfers = new ArrayList<>(batch.size());
+        for (PendingTransfer pendingTransfer : batch) {
+            transfers.add(pendingTransfer.transfer);
+        }
+        asyncEconomy.transferAll(transfers).whenComplete((ignored, throwable) -> {
+            if (throwable == null) {
+                for (PendingTransfer pendingTransfer : batch) {
+                    pendingTransfer.future.complete(null);
+                }
+            } else if (batch.size() == 1 || throwable instanceof TimeoutException) {
+                for (PendingTransfer pendingTransfer : batch) {
+                    pendingTransfer.future.completeExceptionally(throwable);
+                }
+            } else {
+                // none of the transfers was executed, find out which ones are possible
+                for (PendingTransfer pendingTransfer : batch) {
+                    asyncEconomy.transferAll(Collections.singletonList(pendingTransfer.transfer))
+                            .whenComplete((ignored2, throwable2) -> {
+                                if (throwable2 == null) {
+                                    pendingTransfer.future.complete(null);
+                                } else {
+                                    pendingTransfer.future.completeExceptionally(throwable2);
+                                }
+                            });
+                }
+            }
+        });
+    }
+
+    /**
+     * A transfer and the future which is completed when it was executed.
+     */
+    private static final class PendingTransfer {
+
+        private final Transfer transfer;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingTransfer(Transfer transfer) {
+            this.transfer = transfer;
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+package de.oppermann.bastian.safetrade.util;
+
+/**
+ * The meaning of a slot in a trading inventory.
+ */
+public enum SlotRole {
+
+    /**
+     * The slot can't be used.
+     */
+    NONE((byte) -1),
+
+    /**
+     * The player is allowed to place/move/remove items in this slot.
+     */
+    TRADE((byte) -1),
+
+    /**
+     * The player marks himself as ready or accepts the trade by clicking this slot.
+     */
+    ACCEPT((byte) -1),
+
+    /**
+     * The player aborts the trade by clicking this slot.
+     */
+    ABORT((byte) -1),
+
+    /**
+     * The player enters the exact amount of money he wants to offer in the chat by clicking this slot.
+     */
+    ENTER_MONEY((byte) -1),
+
+    /**
+     * Increases or decreases the money by 'smallMoneyValue'.
+     */
+    SMALL_MONEY((byte) 0),
+
+    /**
+     * Increases or decreases the money by 'mediumMoneyValue'.
+     */
+    MEDIUM_MONEY((byte) 1),
+
+    /**
+     * Increases or decreases the money by 'largeMoneyValue'.
+     */
+    LARGE_MONEY((byte) 2),
+
+    /**
+     * Sets the money to 0.
+     */
+    CLEAR_MONEY((byte) 3);
+
+    private final byte increaseType;
+
+    SlotRole(byte increaseType) {
+        this.increaseType = increaseType;
+    }
+
+    /**
+     * Checks if this slot changes the offered money.
+     *
+     * @return Whether this slot changes the offered money.
+     */
+    public boolean isMoneyButton() {
+        return increaseType >= 0;
+    }
+
+    /**
+     * Gets the increase type used by {@link Trade#changeMoney(java.util.UUID, byte, boolean)}.
+     *
+     * @return The increase type or <code>-1</code> if this slot does not change the offered money.
+     */
+    public byte getIncreaseType() {
+        return increaseType;
+    }
+
+}
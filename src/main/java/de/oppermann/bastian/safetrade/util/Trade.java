@@ -5,13 +5,17 @@ import de.oppermann.bastian.safetrade.events.TradeAbortEvent;
 import de.oppermann.bastian.safetrade.events.TradeSuccessEvent;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
-import org.bukkit.entity.Item;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.metadata.FixedMetadataValue;
+import org.bukkit.scheduler.BukkitTask;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
 
 /**
  * This class manages the trades.
@@ -20,9 +24,40 @@ import java.util.*;
 public class Trade {
 
     /**
-     * A list which includes all active trades.
+     * A set which includes all active trades (in the order they were started).
      */
-    private static final List<Trade> activeTrades = new ArrayList<>();
+    private static final Set<Trade> activeTrades = new LinkedHashSet<>();
+
+    /**
+     * Maps the uuid of every trading player to his active trade.
+     */
+    private static final Map<UUID, Trade> tradesByTrader = new HashMap<>();
+
+    /**
+     * The trades with money changes which are applied with the next tick.
+     */
+    private static final Set<Trade> tradesWithPendingMoney = new LinkedHashSet<>();
+
+    /**
+     * The trades with offers which are written to the escrow log with the next tick.
+     */
+    private static final Set<Trade> tradesWithChangedOffers = new LinkedHashSet<>();
+
+    /**
+     * The players who are entering an amount of money in the chat.
+     * This is read by the (asynchronous) chat listener, so it must be thread-safe.
+     */
+    private static final Set<UUID> playersEnteringMoney = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The time in ticks a player has to enter an amount of money.
+     */
+    private static final long MONEY_INPUT_TIMEOUT = 20 * 30;
+
+    /**
+     * The id of the trade in the escrow log.
+     */
+    private final long id = Main.getInstance().getEscrowLog().nextTradeId();
 
     /**
      * The two traders.
@@ -44,6 +79,22 @@ public class Trade {
      */
     private final int[] offeredMoney = {0, 0};
 
+    /**
+     * The money which the players will offer after the next tick or <code>-1</code> if the offer is unchanged.
+     * All clicks on money buttons within a tick are accumulated here, so the money slots are rendered only once.
+     */
+    private final int[] pendingMoney = {-1, -1};
+
+    /**
+     * The array shows which player changed his offer since it was written to the escrow log.
+     */
+    private final boolean[] offerChanged = {false, false};
+
+    /**
+     * The tasks which reopen the trading inventory if a player doesn't enter an amount of money in time.
+     */
+    private final BukkitTask[] moneyInputTimeouts = new BukkitTask[2];
+
     /**
      * The status of the trade.
      * <p><code>false</code> = waiting for 'ready'
@@ -51,6 +102,12 @@ public class Trade {
      */
     private boolean status;
 
+    /**
+     * Whether the trade was accepted or aborted and it's being finished. The trade stays registered until the items
+     * were delivered, so the traders cannot start another trade meanwhile, and it cannot be aborted anymore.
+     */
+    private boolean settling = false;
+
     /**
      * A copy of the IEconomy inctance in the main class.<p>
      * We don't want that some strange things happen if the field changed while trading (worst case: null).
@@ -70,14 +127,14 @@ public class Trade {
         tradingInventories[0] = Main.getInstance().getInventoryUtil().createInventory(economy != null, player1, player2);
         tradingInventories[1] = Main.getInstance().getInventoryUtil().createInventory(economy != null, player2, player1);
 
-        if (getTradeOf(player1) != null || getTradeOf(player2) != null) {
+        if (isTrading(player1) || isTrading(player2)) {
             throw new IllegalStateException("One player (or both) is already trading with someone!");
         }
 
         player1.closeInventory();
         player2.closeInventory();
 
-        activeTrades.add(this);
+        register(this);
 
         player1.openInventory(tradingInventories[0]);
         player2.openInventory(tradingInventories[1]);
@@ -89,42 +146,60 @@ public class Trade {
      * @param player The player.
      */
     public void approve(Player player) {
+        applyPendingMoney();
+
         // some kind of fail-safe if there was an error
         Main.getInstance().getInventoryUtil().synchronize(tradingInventories[0], tradingInventories[1], economy != null);
         // with the events/listener
         Main.getInstance().getInventoryUtil().synchronize(tradingInventories[1], tradingInventories[0], economy != null);
 
+        if (status) {
+            // refuse to accept the trade if one of the players could not take all items
+            int traderId = traders[0].equals(player.getUniqueId()) ? 0 : 1;
+            int partnerId = traderId == 0 ? 1 : 0;
+            Player partner = Bukkit.getPlayer(traders[partnerId]);
+            String refusal = null;
+            if (!canReceiveItems(player, tradingInventories[partnerId])) {
+                refusal = Main.getInstance().getMessages().get(ChatColor.RED, Message.NOT_ENOUGH_SPACE_YOU);
+            } else if (partner != null && !canReceiveItems(partner, tradingInventories[traderId])) {
+                refusal = Main.getInstance().getMessages().get(ChatColor.RED, Message.NOT_ENOUGH_SPACE_PARTNER, partner.getName());
+            }
+            if (refusal != null) {
+                Main.getInstance().getInventoryUtil().setPartnerStatus(tradingInventories[traderId], status, acceptedOrReady[partnerId], refusal);
+                Main.getInstance().getInventoryUpdater().markDirty(traders[traderId]);
+                return;
+            }
+        }
+
         if (traders[0].equals(player.getUniqueId())) {
             acceptedOrReady[0] = true;
             Main.getInstance().getInventoryUtil().setPartnerStatus(tradingInventories[1], status, true,
-                    ChatColor.GREEN + (!status ? Main.getInstance().getMessages().getString("partner_ready") :
-                            Main.getInstance().getMessages().getString("partner_accepted_trade")));
+                    Main.getInstance().getMessages().get(ChatColor.GREEN,
+                            !status ? Message.PARTNER_READY : Message.PARTNER_ACCEPTED_TRADE));
             Main.getInstance().getInventoryUtil().setOwnControlField(tradingInventories[0], status ? (byte) 3 : (byte) 1, economy != null);
         } else {
             acceptedOrReady[1] = true;
             Main.getInstance().getInventoryUtil().setPartnerStatus(tradingInventories[0], status, true,
-                    ChatColor.GREEN + (!status ? Main.getInstance().getMessages().getString("partner_ready") :
-                            Main.getInstance().getMessages().getString("partner_accepted_trade")));
+                    Main.getInstance().getMessages().get(ChatColor.GREEN,
+                            !status ? Message.PARTNER_READY : Message.PARTNER_ACCEPTED_TRADE));
             Main.getInstance().getInventoryUtil().setOwnControlField(tradingInventories[1], status ? (byte) 3 : (byte) 1, economy != null);
         }
-        Bukkit.getPlayer(traders[0]).updateInventory();
-        Bukkit.getPlayer(traders[1]).updateInventory();
+        Main.getInstance().getInventoryUpdater().markDirty(traders[0]);
+        Main.getInstance().getInventoryUpdater().markDirty(traders[1]);
         if (!status && acceptedOrReady[0] && acceptedOrReady[1]) {
             status = true; // next step! Now they are both ready and must accept the trade :)
             acceptedOrReady[0] = false;
             acceptedOrReady[1] = false;
             Main.getInstance().getInventoryUtil().setPartnerStatus(tradingInventories[0], status, false,
-                    ChatColor.RED + Main.getInstance().getMessages().getString("partner_not_accepted_yet"));
+                    Main.getInstance().getMessages().get(ChatColor.RED, Message.PARTNER_NOT_ACCEPTED_YET));
             Main.getInstance().getInventoryUtil().setPartnerStatus(tradingInventories[1], status, false,
-                    ChatColor.RED + Main.getInstance().getMessages().getString("partner_not_accepted_yet"));
+                    Main.getInstance().getMessages().get(ChatColor.RED, Message.PARTNER_NOT_ACCEPTED_YET));
             Main.getInstance().getInventoryUtil().setOwnControlField(tradingInventories[0], (byte) 2, economy != null);
             Main.getInstance().getInventoryUtil().setOwnControlField(tradingInventories[1], (byte) 2, economy != null);
-            Bukkit.getPlayer(traders[0]).updateInventory();
-            Bukkit.getPlayer(traders[1]).updateInventory();
         }
         if (status && acceptedOrReady[0] && acceptedOrReady[1]) {
-            // remove this first or trade will be aborted because of closing inventory
-            activeTrades.remove(this);
+            // set this first or trade will be aborted because of closing inventory
+            settle();
 
             Player player1 = Bukkit.getPlayer(traders[0]);
             Player player2 = Bukkit.getPlayer(traders[1]);
@@ -132,134 +207,245 @@ public class Trade {
             player1.closeInventory();
             player2.closeInventory(); // I think it's safer to close the inventories BEFORE giving them their items
 
-            if (economy != null && (
-               (economy.getMoney(player1) < offeredMoney[0] && offeredMoney[0] != 0) ||
-               (economy.getMoney(player2) < offeredMoney[1] && offeredMoney[1] != 0))
-            ) { // If a player hasn't enough money.
-                if (Main.getInstance().getConfig().getBoolean("noDebts", true)) {
-                    for (int slot : InventoryUtil.TRADING_SLOTS_LEFT_WITH_MONEY) {
-                        ItemStack stack = tradingInventories[0].getItem(slot);
-                        if (stack != null) {
-                            giveItem(player1, stack);
-                        }
-                        stack = tradingInventories[1].getItem(slot);
-                        if (stack != null) {
-                            giveItem(player2, stack);
-                        }
-                    }
-                    if (economy.getMoney(player1) < offeredMoney[0] && offeredMoney[0] != 0) {
-                        player1.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("not_enough_money_you"));
-                        player2.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("not_enough_money_partner")
-                                .replace("{player}", player1.getName()));
-                    } else {
-                        player2.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("not_enough_money_you"));
-                        player1.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("not_enough_money_partner")
-                                .replace("{player}", player2.getName()));
-                    }
-                    return;
-                }
+            if (economy != null && (offeredMoney[0] != 0 || offeredMoney[1] != 0)) {
+                // the economy may be slow, so the money is checked and transferred asynchronously
+                finishWithMoney(player1, player2);
+                return;
             }
 
-            List<ItemStack> itemsPlayer1To2 = new ArrayList<>();
-            List<ItemStack> itemsPlayer2To1 = new ArrayList<>();
-            for (int slot : economy != null ?
-                    InventoryUtil.TRADING_SLOTS_LEFT_WITH_MONEY : InventoryUtil.TRADING_SLOTS_LEFT_WITHOUT_MONEY) {
-                ItemStack stack = tradingInventories[0].getItem(slot);
-                if (stack != null) {
-                    itemsPlayer1To2.add(new ItemStack(stack));
-                }
-                stack = tradingInventories[1].getItem(slot);
-                if (stack != null) {
-                    itemsPlayer2To1.add(new ItemStack(stack));
-                }
+            TradeSuccessEvent event = callSuccessEvent(player1, player2);
+            if (event != null) {
+                succeed(player1, player2, event);
             }
+        }
+    }
 
-            TradeSuccessEvent event = new TradeSuccessEvent(player1, player2, itemsPlayer1To2, itemsPlayer2To1, offeredMoney[0], offeredMoney[1]);
-            Bukkit.getPluginManager().callEvent(event);
-            if (event.isCancelled()) {
-                // Give the items back. We don't use the list from the event.
-                for (int slot : economy != null ?
-                        InventoryUtil.TRADING_SLOTS_LEFT_WITH_MONEY : InventoryUtil.TRADING_SLOTS_LEFT_WITHOUT_MONEY) {
-                    ItemStack stack = tradingInventories[0].getItem(slot);
-                    if (stack != null) {
-                        giveItem(player1, stack);
-                    }
-                    stack = tradingInventories[1].getItem(slot);
-                    if (stack != null) {
-                        giveItem(player2, stack);
-                    }
-                }
-                // The event was cancelled
+    /**
+     * Transfers the offered money of both players as one transfer. The held offers are checked against the cached
+     * balances, which are usually known already, and the settlement checks the balance of the payer again, as the
+     * cached one may be outdated. The trade is finished on the main thread.
+     *
+     * @param player1 The first trader.
+     * @param player2 The second trader.
+     */
+    private void finishWithMoney(Player player1, Player player2) {
+        Executor mainThread = Main.getInstance().getMainThreadExecutor();
+        EscrowLedger escrowLedger = Main.getInstance().getEscrowLedger();
+        boolean noDebts = Main.getInstance().getSettings().isNoDebts();
+        // only waits if a balance is still being fetched (or fetching it failed)
+        CompletableFuture<Double> money1 = noDebts && offeredMoney[0] != 0 ?
+                escrowLedger.getBalance(player1) : CompletableFuture.completedFuture(0D);
+        CompletableFuture<Double> money2 = noDebts && offeredMoney[1] != 0 ?
+                escrowLedger.getBalance(player2) : CompletableFuture.completedFuture(0D);
+        CompletableFuture.allOf(money1, money2).whenCompleteAsync((ignored, throwable) -> {
+            if (throwable != null) {
+                failWithEconomy(player1, player2, throwable);
                 return;
             }
 
-            // We use the list from the event to allow the event listener to modify it.
-            // E.g. you can use this to implement something like taxes etc.
-            for (ItemStack stack : itemsPlayer1To2) {
-                giveItem(player2, stack);
+            if (noDebts) {
+                // If a player hasn't enough money.
+                if (!escrowLedger.isCovered(traders[0], id)) {
+                    failWithoutMoney(player1, player2, player1);
+                    return;
+                }
+                if (!escrowLedger.isCovered(traders[1], id)) {
+                    failWithoutMoney(player1, player2, player2);
+                    return;
+                }
             }
-            for (ItemStack stack : itemsPlayer2To1) {
-                giveItem(player1, stack);
+
+            TradeSuccessEvent event = callSuccessEvent(player1, player2);
+            if (event == null) {
+                return;
             }
 
-            if (economy != null) {
-                if (offeredMoney[0] != 0) {
-                    economy.withdrawMoney(player1, offeredMoney[0]);
-                    economy.depositMoney(player2, offeredMoney[0]);
+            // both offers are netted, so only the difference has to be transferred
+            int netMoney = offeredMoney[0] - offeredMoney[1];
+            Player payer = netMoney >= 0 ? player1 : player2;
+            Player payee = netMoney >= 0 ? player2 : player1;
+            transferMoney(payer, payee, Math.abs(netMoney), noDebts).whenCompleteAsync((ignored2, throwable2) -> {
+                Throwable cause = throwable2 instanceof CompletionException ? throwable2.getCause() : throwable2;
+                if (cause instanceof InsufficientFundsException) {
+                    failWithoutMoney(player1, player2, payer);
+                    return;
                 }
-                if (offeredMoney[1] != 0) {
-                    economy.withdrawMoney(player2, offeredMoney[1]);
-                    economy.depositMoney(player1, offeredMoney[1]);
+                if (cause != null) {
+                    failWithEconomy(player1, player2, cause);
+                    return;
                 }
-            }
+                escrowLedger.commit(traders[0], id, -netMoney);
+                escrowLedger.commit(traders[1], id, netMoney);
+                succeed(player1, player2, event);
+            }, mainThread);
+        }, mainThread);
+    }
+
+    /**
+     * Transfers money from one player to another asynchronously.
+     * The transfer is executed together with the transfers of all other trades finished in the same tick.
+     *
+     * @param from    The player who pays.
+     * @param to      The player who receives the money.
+     * @param amount  The amount of money.
+     * @param covered Whether the player who pays must own the money.
+     * @return A future which is completed when the money was transferred.
+     */
+    private static CompletableFuture<Void> transferMoney(Player from, Player to, int amount, boolean covered) {
+        if (amount == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return Main.getInstance().getSettlementQueue().submit(from, to, amount, covered);
+    }
 
-            player1.sendMessage(ChatColor.GREEN + Main.getInstance().getMessages().getString("trade_succeeded"));
-            player2.sendMessage(ChatColor.GREEN + Main.getInstance().getMessages().getString("trade_succeeded"));
+    /**
+     * Writes a record to the trade journal if the journal is enabled.
+     *
+     * @param record The record of the finished trade.
+     */
+    private static void writeToJournal(TradeRecord record) {
+        TradeJournal journal = Main.getInstance().getTradeJournal();
+        if (journal != null) {
+            journal.record(record);
+        }
+    }
 
-            Main.getInstance().incrementSuccessfulTrades();
+    /**
+     * Releases the money held for this trade. Does nothing if it was committed already.
+     */
+    private void releaseEscrow() {
+        if (economy != null) {
+            Main.getInstance().getEscrowLedger().release(traders[0], id);
+            Main.getInstance().getEscrowLedger().release(traders[1], id);
         }
     }
 
     /**
-     * Aborts a trade (e.g. because of closing inventory or pressing the abort-button).
+     * Aborts the trade because a player doesn't own the money he offered.
      *
-     * @param whoAborted The player who aborted the trade.
+     * @param player1    The first trader.
+     * @param player2    The second trader.
+     * @param poorPlayer The player who doesn't own the money.
      */
-    public void abort(Player whoAborted) {
-        // remove this first or you will be stuck in an endless loop (InventoryCloseListener also executed this method)
-        activeTrades.remove(this);
+    private void failWithoutMoney(Player player1, Player player2, Player poorPlayer) {
+        writeToJournal(TradeRecord.failure(TradeRecord.Type.NOT_ENOUGH_MONEY, player1, player2, null));
+        returnItems(null, null);
+        Player partner = poorPlayer.equals(player1) ? player2 : player1;
+        poorPlayer.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.NOT_ENOUGH_MONEY_YOU));
+        partner.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.NOT_ENOUGH_MONEY_PARTNER, poorPlayer.getName()));
+        Main.getInstance().incrementAbortedTrades();
 
-        Player player1 = Bukkit.getPlayer(traders[0]);
-        Player player2 = Bukkit.getPlayer(traders[1]);
+        // the success event may have been called already, so tell its listeners that the trade didn't happen
+        Bukkit.getPluginManager().callEvent(new TradeAbortEvent(poorPlayer, partner));
+    }
 
-        player1.getInventory().addItem(player1.getItemOnCursor());
-        player1.setItemOnCursor(null);
-        player2.getInventory().addItem(player2.getItemOnCursor());
-        player2.setItemOnCursor(null);
+    /**
+     * Aborts the trade because the economy failed or did not respond in time.
+     *
+     * @param player1   The first trader.
+     * @param player2   The second trader.
+     * @param throwable The reason.
+     */
+    private void failWithEconomy(Player player1, Player player2, Throwable throwable) {
+        Main.getInstance().getLogger().log(Level.WARNING, "Aborted a trade between " + player1.getName() + " and "
+                + player2.getName() + " because of the economy", throwable);
+        writeToJournal(TradeRecord.failure(TradeRecord.Type.ECONOMY_FAILED, player1, player2, null));
+        returnItems(null, null);
+        player1.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.ECONOMY_NOT_RESPONDING));
+        player2.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.ECONOMY_NOT_RESPONDING));
+        Main.getInstance().incrementAbortedTrades();
 
-        player1.closeInventory();
-        player2.closeInventory(); // I think it's safer to close the inventories BEFORE giving them back their items
+        // the success event may have been called already, so tell its listeners that the trade didn't happen
+        Bukkit.getPluginManager().callEvent(new TradeAbortEvent(null, player1));
+    }
 
+    /**
+     * Calls the {@link TradeSuccessEvent}. If the event is cancelled the players get their items back.
+     *
+     * @param player1 The first trader.
+     * @param player2 The second trader.
+     * @return The event or <code>null</code> if it was cancelled.
+     */
+    private TradeSuccessEvent callSuccessEvent(Player player1, Player player2) {
+        List<ItemStack> itemsPlayer1To2 = new ArrayList<>();
+        List<ItemStack> itemsPlayer2To1 = new ArrayList<>();
         for (int slot : economy != null ?
                 InventoryUtil.TRADING_SLOTS_LEFT_WITH_MONEY : InventoryUtil.TRADING_SLOTS_LEFT_WITHOUT_MONEY) {
             ItemStack stack = tradingInventories[0].getItem(slot);
             if (stack != null) {
-                giveItem(player1, stack);
+                itemsPlayer1To2.add(new ItemStack(stack));
             }
             stack = tradingInventories[1].getItem(slot);
             if (stack != null) {
-                giveItem(player2, stack);
+                itemsPlayer2To1.add(new ItemStack(stack));
             }
         }
 
+        TradeSuccessEvent event = new TradeSuccessEvent(player1, player2, itemsPlayer1To2, itemsPlayer2To1, offeredMoney[0], offeredMoney[1]);
+        Bukkit.getPluginManager().callEvent(event);
+        if (event.isCancelled()) {
+            writeToJournal(TradeRecord.failure(TradeRecord.Type.CANCELLED, player1, player2, null));
+            // Give the items back. We don't use the list from the event.
+            returnItems(null, null);
+            // The event was cancelled
+            return null;
+        }
+        return event;
+    }
+
+    /**
+     * Gives the players the traded items.
+     *
+     * @param player1 The first trader.
+     * @param player2 The second trader.
+     * @param event   The success event.
+     */
+    private void succeed(Player player1, Player player2, TradeSuccessEvent event) {
+        writeToJournal(TradeRecord.success(player1, player2, event.getItemsPlayer1To2(), event.getItemsPlayer2To1(),
+                event.getMoney1To2(), event.getMoney2To1()));
+
+        // We use the list from the event to allow the event listener to modify it.
+        // E.g. you can use this to implement something like taxes etc.
+        releaseItems(event.getItemsPlayer2To1(), event.getItemsPlayer1To2());
+
+        player1.sendMessage(Main.getInstance().getMessages().get(ChatColor.GREEN, Message.TRADE_SUCCEEDED));
+        player2.sendMessage(Main.getInstance().getMessages().get(ChatColor.GREEN, Message.TRADE_SUCCEEDED));
+
+        Main.getInstance().incrementSuccessfulTrades();
+    }
+
+    /**
+     * Aborts a trade (e.g. because of closing inventory or pressing the abort-button).
+     *
+     * @param whoAborted The player who aborted the trade.
+     */
+    public void abort(Player whoAborted) {
+        if (settling) {
+            return; // the trade is being finished already
+        }
+        // set this first or you will be stuck in an endless loop (InventoryCloseListener also executed this method)
+        settle();
+
+        Player player1 = Bukkit.getPlayer(traders[0]);
+        Player player2 = Bukkit.getPlayer(traders[1]);
+
+        ItemStack cursor1 = player1.getItemOnCursor();
+        player1.setItemOnCursor(null);
+        ItemStack cursor2 = player2.getItemOnCursor();
+        player2.setItemOnCursor(null);
+
+        player1.closeInventory();
+        player2.closeInventory(); // I think it's safer to close the inventories BEFORE giving them back their items
+
+        returnItems(cursor1, cursor2);
+        writeToJournal(TradeRecord.failure(TradeRecord.Type.ABORTED, player1, player2, whoAborted));
+
         if (player1.equals(whoAborted)) {
-            player2.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("player_aborted_trade")
-                    .replace("{player}", whoAborted.getName()));
-            player1.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("you_aborted_trade"));
+            player2.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.PLAYER_ABORTED_TRADE, whoAborted.getName()));
+            player1.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.YOU_ABORTED_TRADE));
         } else if (whoAborted != null) {
-            player1.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("player_aborted_trade")
-                    .replace("{player}", whoAborted.getName()));
-            player2.sendMessage(ChatColor.RED + Main.getInstance().getMessages().getString("you_aborted_trade"));
+            player1.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.PLAYER_ABORTED_TRADE, whoAborted.getName()));
+            player2.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.YOU_ABORTED_TRADE));
         }
         Main.getInstance().incrementAbortedTrades();
 
@@ -278,6 +464,30 @@ public class Trade {
         return status;
     }
 
+    /**
+     * Checks if the trade was accepted or aborted and it's being finished.
+     * A trade which is being finished cannot be changed or aborted anymore.
+     *
+     * @return Whether the trade is being finished.
+     */
+    public boolean isSettling() {
+        return settling;
+    }
+
+    /**
+     * Checks if any trade is being finished.
+     *
+     * @return Whether there is a trade which is being finished.
+     */
+    public static boolean hasSettlingTrades() {
+        for (Trade trade : activeTrades) {
+            if (trade.settling) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Checks if the player is ready or has accepted the trade.
      *
@@ -307,83 +517,37 @@ public class Trade {
     }
 
     /**
-     * Gets the current slots the player has to click to accept a trade or mark his self as ready.
-     *
-     * @param player The player.
-     * @return The current slots the player has to click to accept a trade or mark his self as ready.
-     */
-    public List<Integer> getCurrentAcceptSlots(UUID player) {
-        byte invType = (byte) 0;
-        if (traders[0].equals(player)) {
-            invType += status ? (byte) 2 : (byte) 0;
-            invType += acceptedOrReady[0] ? (byte) 1 : (byte) 0;
-        } else {
-            invType += status ? (byte) 2 : (byte) 0;
-            invType += acceptedOrReady[1] ? (byte) 1 : (byte) 0;
-        }
-
-        switch (invType) {
-            case 0:
-                return economy == null ?
-                        Arrays.asList(9 * 4 + 0, 9 * 4 + 1, 9 * 5 + 0, 9 * 5 + 1) : Arrays.asList(9 * 5 + 0, 9 * 5 + 1);
-            case 2:
-                return Arrays.asList(9 * 4 + 0, 9 * 4 + 1, 9 * 5 + 0, 9 * 5 + 1);
-            default:
-                return Collections.emptyList();
-        }
-    }
-
-    /**
-     * Gets the current slots the player has to click to abort the trade.
+     * Gets the role of a slot in the trading inventory of the player.
      *
-     * @param player The player.
-     * @return The current slots the player has to click to abort the trade.
+     * @param player  The player.
+     * @param rawSlot The raw slot.
+     * @return The role of the slot for the current state of the trade.
      */
-    public List<Integer> getCurrentAbortSlots(UUID player) {
+    public SlotRole getSlotRole(UUID player, int rawSlot) {
         byte invType = (byte) 0;
-        if (traders[0].equals(player)) {
-            invType += status ? (byte) 2 : (byte) 0;
-            invType += acceptedOrReady[0] ? (byte) 1 : (byte) 0;
-        } else {
-            invType += status ? (byte) 2 : (byte) 0;
-            invType += acceptedOrReady[1] ? (byte) 1 : (byte) 0;
-        }
-
-        switch (invType) {
-            case 0:
-                return economy == null ?
-                        Arrays.asList(9 * 4 + 2, 9 * 4 + 3, 9 * 5 + 2, 9 * 5 + 3) : Arrays.asList(9 * 5 + 2, 9 * 5 + 3);
-            case 2:
-                return Arrays.asList(9 * 4 + 2, 9 * 4 + 3, 9 * 5 + 2, 9 * 5 + 3);
-            default:
-                return Collections.emptyList();
-        }
+        invType += status ? (byte) 2 : (byte) 0;
+        invType += isReadyOrHasAccepted(player) ? (byte) 1 : (byte) 0;
+        return InventoryUtil.getSlotRole(invType, economy != null, rawSlot);
     }
 
     /**
-     * Gets the current slots the player is allowed to modify (place/move/remove items).
+     * Changes the amount of offered money.
      *
-     * @param player The player.
-     * @return The current slots the player is allowed to modify (place/move/remove items).
+     * @param player       The player
+     * @param increaseType The increase type.
+     *                     <p><code>0</code> = Increase or decrease by 'smallMoneyValue'.
+     *                     <p><code>1</code> = Increase or decrease by 'mediumMoneyValue'.
+     *                     <p><code>2</code> = Increase or decrease by 'largeMoneyValue'.
+     *                     <p><code>3</code> = Set money to 0.
+     * @param increase     Whether the money should be added or removed.
      */
-    public List<Integer> getCurrentAllowedSlots(UUID player) {
-        if (status || isReadyOrHasAccepted(player)) {
-            return Collections.emptyList();
-        }
-        if (economy == null) {
-            return Arrays.asList(9 * 0 + 0, 9 * 0 + 1, 9 * 0 + 2, 9 * 0 + 3,
-                                 9 * 1 + 0, 9 * 1 + 1, 9 * 1 + 2, 9 * 1 + 3,
-                                 9 * 2 + 0, 9 * 2 + 1, 9 * 2 + 2, 9 * 2 + 3);
-        } else {
-            return Arrays.asList(9 * 0 + 0, 9 * 0 + 1, 9 * 0 + 2, 9 * 0 + 3,
-                                 9 * 1 + 0, 9 * 1 + 1, 9 * 1 + 2, 9 * 1 + 3,
-                                 9 * 2 + 0, 9 * 2 + 1, 9 * 2 + 2);
-        }
-
+    public void changeMoney(UUID player, byte increaseType, boolean increase) {
+        changeMoney(player, increaseType, increase, 1);
     }
 
     /**
-     * Changes the amount of offered money.
+     * Changes the amount of offered money. The change is applied with the next tick, together with all other changes
+     * in the same tick.
      *
      * @param player       The player
      * @param increaseType The increase type.
@@ -392,92 +556,298 @@ public class Trade {
      *                     <p><code>2</code> = Increase or decrease by 'largeMoneyValue'.
      *                     <p><code>3</code> = Set money to 0.
      * @param increase     Whether the money should be added or removed.
+     * @param multiplier   How many times the value of the button is added or removed.
      */
-    public void changeMoney(UUID player, byte increaseType, boolean increase) {
+    public void changeMoney(UUID player, byte increaseType, boolean increase, int multiplier) {
         int traderId = 0;
         if (!traders[0].equals(player)) {
             traderId = 1;
         }
 
+        long money = pendingMoney[traderId] >= 0 ? pendingMoney[traderId] : offeredMoney[traderId];
         switch (increaseType) {
             case 0:
-                offeredMoney[traderId] += Main.getInstance().getConfig().getInt("smallMoneyValue") * (increase ? 1 : -1);
+                money += (long) Main.getInstance().getSettings().getSmallMoneyValue() * multiplier * (increase ? 1 : -1);
                 break;
             case 1:
-                offeredMoney[traderId] += Main.getInstance().getConfig().getInt("mediumMoneyValue") * (increase ? 1 : -1);
+                money += (long) Main.getInstance().getSettings().getMediumMoneyValue() * multiplier * (increase ? 1 : -1);
                 break;
             case 2:
-                offeredMoney[traderId] += Main.getInstance().getConfig().getInt("largeMoneyValue") * (increase ? 1 : -1);
+                money += (long) Main.getInstance().getSettings().getLargeMoneyValue() * multiplier * (increase ? 1 : -1);
                 break;
             default:
-                offeredMoney[traderId] = 0;
+                money = 0;
                 break;
         }
-        if (offeredMoney[traderId] < 0) { // no negative values
-            offeredMoney[traderId] = 0;
+        setPendingMoney(traderId, money);
+    }
+
+    /**
+     * Sets the amount of offered money. The change is applied with the next tick.
+     *
+     * @param player The player
+     * @param money  The new amount of offered money.
+     */
+    public void setMoney(UUID player, int money) {
+        setPendingMoney(traders[0].equals(player) ? 0 : 1, money);
+    }
+
+    /**
+     * Stores the offer of a player until the next tick.
+     *
+     * @param traderId The id of the trader.
+     * @param money    The new offer.
+     */
+    private void setPendingMoney(int traderId, long money) {
+        pendingMoney[traderId] = (int) Math.max(0, Math.min(Integer.MAX_VALUE, money)); // no negative values
+        tradesWithPendingMoney.add(this);
+    }
+
+    /**
+     * Applies the money changes of all trades. This is called once per tick by the {@link InventoryUpdater}.
+     */
+    public static void applyPendingMoneyChanges() {
+        if (tradesWithPendingMoney.isEmpty()) {
+            return;
+        }
+        Trade[] trades = tradesWithPendingMoney.toArray(new Trade[0]);
+        tradesWithPendingMoney.clear();
+        for (Trade trade : trades) {
+            trade.applyPendingMoney();
         }
+    }
+
+    /**
+     * Applies the money changes of this trade.
+     */
+    private void applyPendingMoney() {
+        for (int traderId = 0; traderId < 2; traderId++) {
+            if (pendingMoney[traderId] < 0) {
+                continue;
+            }
+            offeredMoney[traderId] = pendingMoney[traderId];
+            pendingMoney[traderId] = -1;
+
+            Player trader = Bukkit.getPlayer(traders[traderId]);
+            if (trader != null && Main.getInstance().getSettings().isNoDebts()) {
+                // don't offer more than the player owns (if his balance is known already)
+                offeredMoney[traderId] = Main.getInstance().getEscrowLedger().hold(trader, id, offeredMoney[traderId]);
+            }
 
-        Main.getInstance().getInventoryUtil().setMoney(tradingInventories[traderId], offeredMoney[traderId], true);
-        Main.getInstance().getInventoryUtil().setMoney(tradingInventories[traderId == 0 ? 1 : 0], offeredMoney[traderId], false);
-        Bukkit.getPlayer(traders[0]).updateInventory();
-        Bukkit.getPlayer(traders[1]).updateInventory();
+            Main.getInstance().getInventoryUtil().setMoney(tradingInventories[traderId], offeredMoney[traderId], true);
+            Main.getInstance().getInventoryUtil().setMoney(tradingInventories[traderId == 0 ? 1 : 0], offeredMoney[traderId], false);
+            Main.getInstance().getInventoryUpdater().markDirty(traders[0]);
+            Main.getInstance().getInventoryUpdater().markDirty(traders[1]);
+        }
     }
 
     /**
-     * Gets the slots the player has to click to increase or decrease the money.
+     * Marks the offer of a player as changed. The offer is written to the escrow log with the next tick, together with
+     * all other changes in the same tick.
      *
-     * @param player       The player.
-     * @param increaseType The increase type.
-     *                     <p><code>0</code> = Increase or decrease by 'smallMoneyValue'.
-     *                     <p><code>1</code> = Increase or decrease by 'mediumMoneyValue'.
-     *                     <p><code>2</code> = Increase or decrease by 'largeMoneyValue'.
-     *                     <p><code>3</code> = Set money to 0.
-     * @return The slots to click at.
+     * @param player The player.
      */
-    public List<Integer> getCurrentIncreaseMoneySlot(UUID player, byte increaseType) {
-        if (economy == null) { // no economy plugin = no trading
-            return Collections.emptyList();
+    public void markOfferChanged(UUID player) {
+        offerChanged[traders[0].equals(player) ? 0 : 1] = true;
+        tradesWithChangedOffers.add(this);
+    }
+
+    /**
+     * Writes the changed offers of all trades to the escrow log. This is called once per tick by the
+     * {@link InventoryUpdater}.
+     */
+    public static void writeChangedOffers() {
+        if (tradesWithChangedOffers.isEmpty()) {
+            return;
         }
-        byte invType = (byte) 0;
-        if (traders[0].equals(player)) {
-            invType += status ? (byte) 2 : (byte) 0;
-            invType += acceptedOrReady[0] ? (byte) 1 : (byte) 0;
-        } else {
-            invType += status ? (byte) 2 : (byte) 0;
-            invType += acceptedOrReady[1] ? (byte) 1 : (byte) 0;
-        }
-
-        if (invType == 0) {
-            switch (increaseType) {
-                case 0:
-                    return Collections.singletonList(9 * 4 + 0);
-                case 1:
-                    return Collections.singletonList(9 * 4 + 1);
-                case 2:
-                    return Collections.singletonList(9 * 4 + 2);
-                case 3:
-                    return Collections.singletonList(9 * 4 + 3);
+        Trade[] trades = tradesWithChangedOffers.toArray(new Trade[0]);
+        tradesWithChangedOffers.clear();
+        for (Trade trade : trades) {
+            trade.writeChangedOffer();
+        }
+    }
+
+    /**
+     * Writes the changed offers of this trade to the escrow log.
+     */
+    private void writeChangedOffer() {
+        for (int traderId = 0; traderId < 2; traderId++) {
+            if (!offerChanged[traderId]) {
+                continue;
+            }
+            offerChanged[traderId] = false;
+            List<ItemStack> items = new ArrayList<>();
+            for (int slot : economy != null ?
+                    InventoryUtil.TRADING_SLOTS_LEFT_WITH_MONEY : InventoryUtil.TRADING_SLOTS_LEFT_WITHOUT_MONEY) {
+                ItemStack stack = tradingInventories[traderId].getItem(slot);
+                if (stack != null) {
+                    items.add(stack);
+                }
+            }
+            Main.getInstance().getEscrowLog().writeOffer(id, traders[traderId], items);
+        }
+    }
+
+    /**
+     * Closes the trading inventory of the player and asks him to enter the amount of money he wants to offer in the
+     * chat. The trading inventory is opened again when he entered the amount or after 30 seconds.
+     *
+     * @param player The player.
+     */
+    public void promptMoney(Player player) {
+        int traderId = traders[0].equals(player.getUniqueId()) ? 0 : 1;
+        if (!playersEnteringMoney.add(player.getUniqueId())) {
+            return;
+        }
+        player.closeInventory(); // the InventoryCloseListener ignores players who are entering money
+        player.sendMessage(Main.getInstance().getMessages().get(ChatColor.GOLD, Message.ENTER_MONEY));
+        moneyInputTimeouts[traderId] = Bukkit.getScheduler().runTaskLater(Main.getInstance(),
+                () -> finishMoneyInput(player), MONEY_INPUT_TIMEOUT);
+    }
+
+    /**
+     * Handles the amount of money the player entered in the chat and opens the trading inventory again.
+     *
+     * @param player The player.
+     * @param input  The message of the player.
+     */
+    public void enterMoney(Player player, String input) {
+        if (!playersEnteringMoney.contains(player.getUniqueId())) {
+            return;
+        }
+        String trimmedInput = input.trim();
+        if (!trimmedInput.equalsIgnoreCase("cancel")) {
+            try {
+                int money = Integer.parseInt(trimmedInput);
+                if (money < 0) {
+                    throw new NumberFormatException();
+                }
+                setMoney(player.getUniqueId(), money);
+            } catch (NumberFormatException e) {
+                player.sendMessage(Main.getInstance().getMessages().get(ChatColor.RED, Message.INVALID_MONEY_AMOUNT, trimmedInput));
             }
         }
-        return Collections.emptyList();
+        finishMoneyInput(player);
     }
 
     /**
-     * Gives a player his item. If the player has not enough space the item is dropped on the ground.
+     * Opens the trading inventory of a player who was entering an amount of money again.
      *
      * @param player The player.
-     * @param stack The stack.
      */
-    private void giveItem(Player player, ItemStack stack) {
-        HashMap<Integer, ItemStack> notFitting = player.getInventory().addItem(stack);
-        for (ItemStack is : notFitting.values()) {
-            Item item = player.getWorld().dropItem(player.getLocation(), is);
-            // Add a metadata tag for the dropped item (it's used to identify the "owner" of the item)
-            item.setMetadata("drop_timestamp", new FixedMetadataValue(Main.getInstance(), System.currentTimeMillis()));
-            item.setMetadata("item_owner", new FixedMetadataValue(Main.getInstance(), player.getName()));
+    private void finishMoneyInput(Player player) {
+        cancelMoneyInput(player.getUniqueId());
+        if (isTrading(player) && getTradeOf(player) == this) {
+            player.openInventory(tradingInventories[traders[0].equals(player.getUniqueId()) ? 0 : 1]);
+        }
+    }
+
+    /**
+     * Stops waiting for an amount of money from the player.
+     *
+     * @param player The uuid of the player.
+     */
+    private void cancelMoneyInput(UUID player) {
+        playersEnteringMoney.remove(player);
+        int traderId = traders[0].equals(player) ? 0 : 1;
+        if (moneyInputTimeouts[traderId] != null) {
+            moneyInputTimeouts[traderId].cancel();
+            moneyInputTimeouts[traderId] = null;
         }
     }
 
+    /**
+     * Checks if a player is entering an amount of money in the chat. This method is thread-safe.
+     *
+     * @param player The uuid of the player.
+     * @return Whether the player is entering an amount of money.
+     */
+    public static boolean isEnteringMoney(UUID player) {
+        return playersEnteringMoney.contains(player);
+    }
+
+    /**
+     * Checks if a player has enough space for all items offered in the given trading inventory.
+     *
+     * @param receiver  The player who would receive the items.
+     * @param inventory The trading inventory of the player who offers the items.
+     * @return Whether the receiver has enough space for all items.
+     */
+    private boolean canReceiveItems(Player receiver, Inventory inventory) {
+        ItemDelivery delivery = new ItemDelivery(receiver);
+        for (int slot : economy != null ?
+                InventoryUtil.TRADING_SLOTS_LEFT_WITH_MONEY : InventoryUtil.TRADING_SLOTS_LEFT_WITHOUT_MONEY) {
+            delivery.add(inventory.getItem(slot));
+        }
+        return delivery.fits();
+    }
+
+    /**
+     * Gives both players the items they put into their trading inventory back.
+     * If a player has not enough space the items are dropped on the ground.
+     *
+     * @param cursor1 An additional item for the first trader (e.g. the item on his cursor). May be <code>null</code>.
+     * @param cursor2 An additional item for the second trader (e.g. the item on his cursor). May be <code>null</code>.
+     */
+    private void returnItems(ItemStack cursor1, ItemStack cursor2) {
+        // the items on the cursors are not in the saved inventories either, so they are delivered like the offers
+        List<ItemStack> items1 = new ArrayList<>();
+        List<ItemStack> items2 = new ArrayList<>();
+        items1.add(cursor1);
+        items2.add(cursor2);
+        for (int slot : economy != null ?
+                InventoryUtil.TRADING_SLOTS_LEFT_WITH_MONEY : InventoryUtil.TRADING_SLOTS_LEFT_WITHOUT_MONEY) {
+            ItemStack stack = tradingInventories[0].getItem(slot);
+            items1.add(stack == null ? null : stack.clone());
+            stack = tradingInventories[1].getItem(slot);
+            items2.add(stack == null ? null : stack.clone());
+        }
+        releaseItems(items1, items2);
+    }
+
+    /**
+     * Resolves the trade in the escrow log and delivers the items when this is on the disk, so delivered items are
+     * never recovered after a crash. If a trader left the server meanwhile, his items are given to him when he joins
+     * again. Then the trade is finished.
+     *
+     * @param items1 The items for the first trader. The list may contain <code>null</code>s.
+     * @param items2 The items for the second trader. The list may contain <code>null</code>s.
+     */
+    private void releaseItems(List<ItemStack> items1, List<ItemStack> items2) {
+        Map<UUID, List<ItemStack>> items = new LinkedHashMap<>();
+        items.put(traders[0], items1);
+        items.put(traders[1], items2);
+        Main.getInstance().getEscrowLog().release(id, items).whenCompleteAsync((ignored, throwable) -> {
+            if (throwable != null) {
+                Main.getInstance().getLogger().log(Level.SEVERE, "Could not resolve a trade in the escrow log. Its "
+                        + "items are given back to their owners when the plugin is enabled again.", throwable);
+            }
+            finish();
+        }, Main.getInstance().getMainThreadExecutor());
+    }
+
+    /**
+     * Marks the trade as being finished after both players accepted it or it was aborted.
+     */
+    private void settle() {
+        settling = true;
+        tradesWithPendingMoney.remove(this);
+        if (tradesWithChangedOffers.remove(this)) {
+            writeChangedOffer(); // before the trade is resolved, or the offer would be recovered after a crash
+        }
+        cancelMoneyInput(traders[0]);
+        cancelMoneyInput(traders[1]);
+    }
+
+    /**
+     * Removes the trade after it was finished. The held money is released last, so the traders cannot offer it in a
+     * newer trade before.
+     */
+    private void finish() {
+        unregister(this);
+        releaseEscrow();
+    }
+
     /**
      * Gets a copy of the list of active threads.
      *
@@ -494,13 +864,43 @@ public class Trade {
      * @return The active trade of the player. <code>null</code> if no trade was found.
      */
     public static Trade getTradeOf(Player player) {
-        UUID playerUniqueId = player.getUniqueId();
-        for (Trade trade : activeTrades) {
-            if (trade.traders[0].equals(playerUniqueId) || trade.traders[1].equals(playerUniqueId)) {
-                return trade;
-            }
+        return tradesByTrader.get(player.getUniqueId());
+    }
+
+    /**
+     * Checks if a player is currently trading.
+     *
+     * @param player The player to check.
+     * @return Whether the player has an active trade or not.
+     */
+    public static boolean isTrading(Player player) {
+        return tradesByTrader.containsKey(player.getUniqueId());
+    }
+
+    /**
+     * Adds a trade to the active trades and indexes both of its traders.
+     *
+     * @param trade The trade to add.
+     */
+    private static void register(Trade trade) {
+        activeTrades.add(trade);
+        tradesByTrader.put(trade.traders[0], trade);
+        tradesByTrader.put(trade.traders[1], trade);
+    }
+
+    /**
+     * Removes a trade from the active trades and from the index of its traders.
+     *
+     * @param trade The trade to remove.
+     */
+    private static void unregister(Trade trade) {
+        if (!activeTrades.remove(trade)) {
+            return;
         }
-        return null;
+        // only remove the entries if they still point to this trade
+        tradesByTrader.remove(trade.traders[0], trade);
+        tradesByTrader.remove(trade.traders[1], trade);
+        // the changed offers were written and the money input was cancelled when the trade was settled
     }
 
 }
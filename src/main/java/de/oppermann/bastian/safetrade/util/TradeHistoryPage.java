@@ -0,0 +1,55 @@
+package de.oppermann.bastian.safetrade.util;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of the trade history of a player.
+ */
+public final class TradeHistoryPage {
+
+    private final List<TradeRecord> trades;
+    private final int page;
+    private final int pageCount;
+
+    /**
+     * Creates a new page.
+     *
+     * @param trades    The trades on the page, the newest first.
+     * @param page      The number of the page, starting at 1.
+     * @param pageCount The amount of pages.
+     */
+    public TradeHistoryPage(List<TradeRecord> trades, int page, int pageCount) {
+        this.trades = Collections.unmodifiableList(trades);
+        this.page = page;
+        this.pageCount = pageCount;
+    }
+
+    /**
+     * Gets the trades on the page.
+     *
+     * @return The trades on the page, the newest first.
+     */
+    public List<TradeRecord> getTrades() {
+        return trades;
+    }
+
+    /**
+     * Gets the number of the page.
+     *
+     * @return The number of the page, starting at 1.
+     */
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * Gets the amount of pages of the history.
+     *
+     * @return The amount of pages. <code>0</code> if the player has no trades.
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+}
@@ -0,0 +1,575 @@
+package de.oppermann.bastian.safetrade.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The audit trail of all finished trades.
+ * <p>
+ * The records are encoded on the calling thread, but written to the disk by the writer thread of an
+ * {@link AppendLog}, so recording a trade never blocks the main thread on disk I/O. The items are encoded by an
+ * {@link ItemCodec}. When the journal is opened, only the segments with records which are not indexed yet are read;
+ * the dictionaries of the other segments are restored by the query thread before it answers the first query.
+ * <p>
+ * The journal is split into {@link LogSegment}s. A new segment is started when the current one reaches the configured
+ * size or age, and every segment starts a new item dictionary, so it can be read on its own. Sealed segments are
+ * compressed by a separate thread and deleted after the configured retention period.
+ * <p>
+ * Every record which was forced to the disk is added to a {@link PlayerTradeIndex} and an {@link ItemTradeIndex}, so
+ * the history of a player and the trades with certain items can be found without reading the whole journal. Queries
+ * are answered and the segments and the item index are compacted by the same separate thread.
+ */
+public class TradeJournal {
+
+    private final File folder;
+    private final File segmentFolder;
+    private final AppendLog log;
+    private final PlayerTradeIndex playerIndex;
+    private final ItemTradeIndex itemIndex;
+    private final long segmentSize;
+    private final long segmentDurationMillis;
+    private final int retentionDays;
+    private final Logger logger;
+
+    /**
+     * The codec of the current segment. Only used while holding the lock of this journal.
+     */
+    private ItemCodec codec = new ItemCodec();
+
+    /**
+     * The base of the current segment, its creation time and the position of the next record.
+     * Only changed while holding the lock of this journal.
+     */
+    private volatile long liveBase = 0;
+    private long liveStart = 0;
+    private long position = 0;
+
+    /**
+     * The codecs which know the whole dictionary of the sealed segments by their base.
+     */
+    private final ConcurrentSkipListMap<Long, ItemCodec> dictionaries = new ConcurrentSkipListMap<>();
+
+    /**
+     * The codec which reads the records forced to the disk and the base of its segment.
+     * Only used by the writer thread of the log.
+     */
+    private ItemCodec indexCodec = new ItemCodec();
+    private long indexCodecBase = 0;
+
+    /**
+     * The uuids of all players in the journal by their lower case name. The players of the segments which were not
+     * read when the journal was opened are added by the query thread.
+     */
+    private final Map<String, UUID> players = new ConcurrentHashMap<>();
+
+    /**
+     * The thread which answers queries and compacts the segments and the item index or <code>null</code> if the
+     * journal is closed.
+     */
+    private ScheduledExecutorService executor = null;
+
+    /**
+     * Creates a new journal. It must be opened before trades can be recorded.
+     *
+     * @param folder   The folder of the journal segments (<code>trades</code>) and its indexes.
+     * @param settings The settings with the fsync interval, the segment size and age and the retention periods.
+     * @param logger   The logger used to report write errors.
+     */
+    public TradeJournal(File folder, Settings settings, Logger logger) {
+        this.folder = folder;
+        this.segmentFolder = new File(folder, "trades");
+        this.log = AppendLog.segmented(segmentFolder, settings.getJournalFsyncInterval(), logger);
+        this.playerIndex = new PlayerTradeIndex(new File(folder, "index"));
+        this.itemIndex = new ItemTradeIndex(new File(folder, "items"), settings.getItemIndexRetentionDays());
+        this.segmentSize = settings.getJournalSegmentSize() * 1024L * 1024L;
+        this.segmentDurationMillis = TimeUnit.HOURS.toMillis(settings.getJournalSegmentDuration());
+        this.retentionDays = settings.getJournalRetentionDays();
+        this.logger = logger;
+        log.setSyncListener(this::indexSyncedRecords);
+    }
+
+    /**
+     * Opens the journal. Records which are not indexed yet (e.g. after a crash) are added to the index.
+     * <p>
+     * A journal file of an older version (<code>trades.journal</code>) becomes the first segment.
+     *
+     * @throws IOException If the journal cannot be opened.
+     */
+    public synchronized void open() throws IOException {
+        migrate();
+        long journalLength = getLength();
+        // an index beyond the end of the journal belongs to a journal which no longer exists
+        if (playerIndex.getWatermark() > journalLength) {
+            playerIndex.clear();
+        }
+        if (itemIndex.getWatermark() > journalLength) {
+            itemIndex.clear();
+        }
+        itemIndex.repair();
+        long playerWatermark = playerIndex.getWatermark();
+        long itemWatermark = itemIndex.getWatermark();
+        List<byte[]> unindexedRecords = new ArrayList<>();
+        long[] unindexedPosition = {-1};
+        List<TradeRecord> unindexedItemRecords = new ArrayList<>();
+        List<Long> unindexedItemPositions = new ArrayList<>();
+        long[] end = {0};
+        long firstUnindexed = Math.min(playerWatermark, itemWatermark);
+        List<Long> skippedSegments = new ArrayList<>();
+
+        dictionaries.clear();
+        log.open(new AppendLog.RecordHandler() {
+
+            // every segment has its own dictionary
+            private ItemCodec segmentCodec = null;
+            private long segmentBase = 0;
+
+            @Override
+            public boolean handlesSegment(long base, long segmentEnd) {
+                if (segmentEnd > firstUnindexed) {
+                    return true;
+                }
+                skippedSegments.add(base); // it's indexed already, so its dictionary is only needed for queries
+                end[0] = segmentEnd;
+                return false;
+            }
+
+            @Override
+            public void segmentStarted(long base) {
+                if (segmentCodec != null) {
+                    dictionaries.put(segmentBase, segmentCodec);
+                }
+                segmentCodec = new ItemCodec();
+                segmentBase = base;
+            }
+
+            @Override
+            public void handle(byte[] record, long position) throws IOException {
+                TradeRecord tradeRecord = TradeRecord.read(ByteBuffer.wrap(record), segmentCodec);
+                addPlayers(tradeRecord);
+                if (position != end[0] && !unindexedRecords.isEmpty()) {
+                    // the positions of the index must be consecutive, but a segment was deleted or is corrupt
+                    playerIndex.add(unindexedRecords, unindexedPosition[0]);
+                    unindexedRecords.clear();
+                }
+                if (position >= playerWatermark) {
+                    if (unindexedRecords.isEmpty()) {
+                        unindexedPosition[0] = position;
+                    }
+                    unindexedRecords.add(record);
+                }
+                if (position >= itemWatermark) {
+                    unindexedItemRecords.add(tradeRecord);
+                    unindexedItemPositions.add(position);
+                }
+                end[0] = position + record.length + 8;
+            }
+
+        });
+        // the log always continues in an empty segment
+        this.codec = new ItemCodec();
+        this.liveBase = log.getSegmentBase();
+        this.liveStart = System.currentTimeMillis();
+        this.position = liveBase;
+        this.indexCodec = new ItemCodec();
+        this.indexCodecBase = liveBase;
+        if (!unindexedRecords.isEmpty()) {
+            playerIndex.add(unindexedRecords, unindexedPosition[0]);
+        }
+        if (!unindexedItemRecords.isEmpty()) {
+            long[] positions = new long[unindexedItemPositions.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = unindexedItemPositions.get(i);
+            }
+            itemIndex.add(unindexedItemRecords, positions, end[0]);
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SafeTrade Journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(() -> loadSegments(skippedSegments));
+        // rotate, compress and delete the segments and compact the item index once an hour (and once now)
+        executor.scheduleAtFixedRate(this::compact, 0, 1, TimeUnit.HOURS);
+    }
+
+    /**
+     * Writes all recorded trades to the disk and closes the journal.
+     */
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        log.close();
+    }
+
+    /**
+     * Records a finished trade.
+     *
+     * @param record The record of the trade.
+     */
+    public synchronized void record(TradeRecord record) {
+        rotateIfDue();
+        byte[] bytes = codec.encode(record::write);
+        log.append(bytes);
+        position += bytes.length + 8;
+        addPlayers(record);
+    }
+
+    /**
+     * Reads a page of the trade history of a player asynchronously.
+     * <p>
+     * Only the records on the requested page are read: Their positions are taken from the player's index, so the
+     * journal is not read from the beginning. Trades are added to the history once they were forced to the disk.
+     *
+     * @param player   The uuid of the player.
+     * @param page     The number of the page, starting at 1.
+     * @param pageSize The amount of trades per page.
+     * @return The page. It's completed by another thread.
+     */
+    public synchronized CompletableFuture<TradeHistoryPage> getHistory(UUID player, int page, int pageSize) {
+        return query((reader, readCodecs) -> {
+            // the trades in deleted segments are still in the index
+            long firstPosition = Math.max(0, reader.getFirstPosition());
+            int count = playerIndex.getCount(player, firstPosition);
+            int pageCount = (count + pageSize - 1) / pageSize;
+            long skip = (long) (page - 1) * pageSize; // the page is entered by the player, so it may be huge
+            long[] positions = skip >= count ? new long[0]
+                    : playerIndex.getNewest(player, (int) skip, pageSize, firstPosition);
+            List<TradeRecord> trades = readRecords(reader, positions, readCodecs);
+            // the index may be outdated if the journal was replaced
+            trades.removeIf(trade -> !trade.involves(player));
+            return new TradeHistoryPage(trades, page, pageCount);
+        });
+    }
+
+    /**
+     * Searches the successful trades with items which match a query asynchronously.
+     *
+     * @param keys  The keys of the query, see {@link ItemTradeIndex#parseQuery(String[])}.
+     * @param since The timestamp of the oldest trade which is searched.
+     * @param limit The maximum amount of trades.
+     * @return The matching trades, the newest first. It's completed by another thread.
+     */
+    public synchronized CompletableFuture<List<TradeRecord>> search(Set<String> keys, long since, int limit) {
+        return query((reader, readCodecs) -> {
+            List<TradeRecord> trades = new ArrayList<>();
+            // the index only knows the keys of whole trades, so a single item must have all keys
+            itemIndex.search(keys, ItemTradeIndex.getDay(since), limit, position -> {
+                TradeRecord trade = readRecord(reader, position, readCodecs);
+                if (trade == null || trade.getTimestamp() < since || !ItemTradeIndex.matches(trade, keys)) {
+                    return false;
+                }
+                trades.add(trade);
+                return true;
+            });
+            return trades;
+        });
+    }
+
+    /**
+     * Gets the uuid of a player who has traded before.
+     *
+     * @param name The name of the player (case insensitive).
+     * @return The uuid of the player or <code>null</code> if there is no trade of a player with this name.
+     */
+    public UUID findPlayer(String name) {
+        return players.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets the folder of the journal segments.
+     *
+     * @return The folder of the journal segments.
+     */
+    public File getFolder() {
+        return segmentFolder;
+    }
+
+    /**
+     * Moves the journal file of an older version into the segment folder.
+     *
+     * @throws IOException If the journal file cannot be moved.
+     */
+    private void migrate() throws IOException {
+        File oldFile = new File(folder, "trades.journal");
+        if (!oldFile.exists() || !LogSegment.list(segmentFolder).isEmpty()) {
+            return;
+        }
+        segmentFolder.mkdirs();
+        // the positions of the records stay the same, so the indexes remain valid
+        Files.move(oldFile.toPath(), LogSegment.getFile(segmentFolder, 0).toPath());
+    }
+
+    /**
+     * Gets the length of the whole journal, including an incomplete record at its end.
+     *
+     * @return The length of the journal.
+     * @throws IOException If the last segment cannot be read.
+     */
+    private long getLength() throws IOException {
+        List<LogSegment> segments = LogSegment.list(segmentFolder);
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        LogSegment last = segments.get(segments.size() - 1);
+        return last.getBase() + last.getLength();
+    }
+
+    /**
+     * Starts a new segment if the current one is not empty and has reached the maximum size or age.
+     * Must be called while holding the lock of this journal.
+     */
+    private void rotateIfDue() {
+        if (position == liveBase) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (position - liveBase < segmentSize && now - liveStart < segmentDurationMillis) {
+            return;
+        }
+        // the codec knows the whole dictionary of the sealed segment
+        dictionaries.put(liveBase, codec);
+        codec = new ItemCodec();
+        liveBase = position;
+        liveStart = now;
+        log.rotate();
+    }
+
+    /**
+     * Runs a query on the query thread.
+     *
+     * @param query The query.
+     * @param <T>   The type of the result.
+     * @return The result of the query. It's completed by another thread.
+     */
+    private <T> CompletableFuture<T> query(Query<T> query) {
+        if (executor == null) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("The journal is closed"));
+            return future;
+        }
+        // the copy knows the dictionary entries of all records which were encoded before
+        ItemCodec liveCodec = codec.copy();
+        long base = liveBase;
+        long end = position;
+        return CompletableFuture.supplyAsync(() -> {
+            try (LogReader reader = new LogReader(segmentFolder)) {
+                return query.run(reader, recordPosition -> {
+                    long segmentBase = reader.getSegmentBase(recordPosition);
+                    ItemCodec sealedCodec = dictionaries.get(segmentBase);
+                    if (sealedCodec != null) {
+                        return sealedCodec;
+                    }
+                    return segmentBase == base && recordPosition < end ? liveCodec : null;
+                });
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Reads the records at the given positions. Records which cannot be read are skipped.
+     *
+     * @param reader     The reader of the segments.
+     * @param positions  The positions of the records.
+     * @param readCodecs The codecs used to read the records by their position.
+     * @return The records.
+     */
+    private List<TradeRecord> readRecords(LogReader reader, long[] positions, LongFunction<ItemCodec> readCodecs) {
+        List<TradeRecord> records = new ArrayList<>(positions.length);
+        for (long position : positions) {
+            TradeRecord record = readRecord(reader, position, readCodecs);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Reads a single record of a query.
+     *
+     * @param reader     The reader of the query.
+     * @param position   The position of the record.
+     * @param readCodecs The codecs of the segments of the query.
+     * @return The record or <code>null</code> if it cannot be read.
+     */
+    private TradeRecord readRecord(LogReader reader, long position, LongFunction<ItemCodec> readCodecs) {
+        ItemCodec readCodec = readCodecs.apply(position);
+        if (readCodec == null) {
+            return null; // the segment was deleted or the record was written after the query was started
+        }
+        try {
+            return TradeRecord.read(ByteBuffer.wrap(reader.readRecord(position)), readCodec);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not read the trade at position " + position + " of "
+                    + segmentFolder.getPath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds records which were forced to the disk to the indexes. It's called by the writer thread of the log.
+     *
+     * @param records  The records.
+     * @param position The position of the first record.
+     * @throws IOException If an index cannot be written.
+     */
+    private void indexSyncedRecords(List<byte[]> records, long position) throws IOException {
+        // all records belong to the same segment, as the log forces a segment to the disk before it's sealed
+        Long sealedBase = dictionaries.floorKey(position);
+        long base = position >= liveBase || sealedBase == null ? liveBase : sealedBase;
+        if (base != indexCodecBase) {
+            indexCodec = new ItemCodec();
+            indexCodecBase = base;
+        }
+        // the records are decoded first, as the index codec must see every record to follow the dictionary
+        List<TradeRecord> tradeRecords = new ArrayList<>(records.size());
+        long[] positions = new long[records.size()];
+        long end = position;
+        for (int i = 0; i < records.size(); i++) {
+            positions[i] = end;
+            tradeRecords.add(TradeRecord.read(ByteBuffer.wrap(records.get(i)), indexCodec));
+            end += records.get(i).length + 8;
+        }
+        try {
+            playerIndex.add(records, position);
+        } finally {
+            itemIndex.add(tradeRecords, positions, end);
+        }
+    }
+
+    /**
+     * Rotates the current segment if it's due, compresses and deletes the sealed segments and compacts the item index
+     * of the previous days. It's called by the query thread.
+     */
+    private void compact() {
+        synchronized (this) {
+            rotateIfDue(); // segments which are not written any more must be sealed, too
+        }
+        try {
+            compactSegments();
+        } catch (Throwable t) {
+            logger.log(Level.SEVERE, "Could not compact the segments of the trade journal", t);
+        }
+        try {
+            itemIndex.compact(LocalDate.now());
+        } catch (Throwable t) {
+            logger.log(Level.SEVERE, "Could not compact the item index of the trade journal", t);
+        }
+    }
+
+    /**
+     * Deletes the sealed segments whose newest record is older than the retention period and compresses the others.
+     *
+     * @throws IOException If a segment cannot be compressed.
+     */
+    private void compactSegments() throws IOException {
+        long sealedBefore = log.getSegmentBase(); // the segment which is written by the log right now
+        long expiry = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+        for (LogSegment segment : LogSegment.list(segmentFolder)) {
+            if (segment.getBase() >= sealedBefore) {
+                break;
+            }
+            if (retentionDays > 0 && segment.getFile().lastModified() < expiry) {
+                segment.delete();
+                dictionaries.remove(segment.getBase());
+            } else if (!segment.isCompressed()) {
+                segment.compress();
+            }
+        }
+    }
+
+    /**
+     * Reads the sealed segments which were skipped when the journal was opened, the newest first, to restore their
+     * dictionaries and the names of their players. It's run by the query thread before any query.
+     *
+     * @param bases The bases of the segments, the oldest first.
+     */
+    private void loadSegments(List<Long> bases) {
+        try (LogReader reader = new LogReader(segmentFolder)) {
+            for (int i = bases.size() - 1; i >= 0; i--) {
+                long base = bases.get(i);
+                ItemCodec segmentCodec = new ItemCodec();
+                Map<String, UUID> segmentPlayers = new HashMap<>();
+                try {
+                    if (!reader.readSegment(base, (record, position) ->
+                            addPlayers(TradeRecord.read(ByteBuffer.wrap(record), segmentCodec), segmentPlayers))) {
+                        continue; // deleted meanwhile
+                    }
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Could not read the segment " + base + " of "
+                            + segmentFolder.getPath(), e);
+                    continue;
+                }
+                dictionaries.put(base, segmentCodec);
+                // the newer segments were read before, so their names are kept
+                segmentPlayers.forEach(players::putIfAbsent);
+            }
+        }
+    }
+
+    /**
+     * Remembers the names of the players of a trade.
+     *
+     * @param record The record of the trade.
+     */
+    private void addPlayers(TradeRecord record) {
+        addPlayers(record, players);
+    }
+
+    /**
+     * Adds the names of the players of a trade to a map.
+     *
+     * @param record  The record of the trade.
+     * @param players The uuids of the players by their lower case name.
+     */
+    private static void addPlayers(TradeRecord record, Map<String, UUID> players) {
+        players.put(record.getPlayer1Name().toLowerCase(Locale.ROOT), record.getPlayer1());
+        players.put(record.getPlayer2Name().toLowerCase(Locale.ROOT), record.getPlayer2());
+    }
+
+    /**
+     * A query which is run on the query thread.
+     *
+     * @param <T> The type of the result.
+     */
+    private interface Query<T> {
+
+        /**
+         * Runs the query.
+         *
+         * @param reader     The reader of the segments.
+         * @param readCodecs The codecs used to read the records by their position. Returns <code>null</code> if a
+         *                   record cannot be read.
+         * @return The result.
+         * @throws IOException If the journal or an index cannot be read.
+         */
+        T run(LogReader reader, LongFunction<ItemCodec> readCodecs) throws IOException;
+
+    }
+
+}
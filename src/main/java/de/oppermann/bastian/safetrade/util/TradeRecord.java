@@ -0,0 +1,337 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A finished (successful or aborted) trade as it is stored in the {@link TradeJournal}.
+ */
+public final class TradeRecord {
+
+    /**
+     * The outcome of a trade.
+     */
+    public enum Type {
+
+        /**
+         * Both players accepted the trade and received their items and money.
+         */
+        SUCCESS((byte) 1),
+
+        /**
+         * A player aborted the trade (or the trade was aborted because a player died, left, etc.).
+         */
+        ABORTED((byte) 2),
+
+        /**
+         * A player did not have enough money.
+         */
+        NOT_ENOUGH_MONEY((byte) 3),
+
+        /**
+         * The economy failed or did not respond in time.
+         */
+        ECONOMY_FAILED((byte) 4),
+
+        /**
+         * The {@link de.oppermann.bastian.safetrade.events.TradeSuccessEvent} was cancelled.
+         */
+        CANCELLED((byte) 5);
+
+        private final byte id;
+
+        Type(byte id) {
+            this.id = id;
+        }
+
+        /**
+         * Gets the id of the type which is stored in the journal.
+         *
+         * @return The id of the type.
+         */
+        public byte getId() {
+            return id;
+        }
+
+        /**
+         * Gets the type with the given id.
+         *
+         * @param id The id.
+         * @return The type.
+         * @throws IOException If there is no type with the given id.
+         */
+        public static Type fromId(byte id) throws IOException {
+            for (Type type : values()) {
+                if (type.id == id) {
+                    return type;
+                }
+            }
+            throw new IOException("Unknown record type " + id);
+        }
+
+    }
+
+    private final Type type;
+    private final long timestamp;
+    private final UUID player1;
+    private final String player1Name;
+    private final UUID player2;
+    private final String player2Name;
+    private final UUID abortedBy;
+    private final double money1To2;
+    private final double money2To1;
+    private final List<ItemStack> items1To2;
+    private final List<ItemStack> items2To1;
+
+    private TradeRecord(Type type, long timestamp, UUID player1, String player1Name, UUID player2, String player2Name,
+                        UUID abortedBy, double money1To2, double money2To1, List<ItemStack> items1To2,
+                        List<ItemStack> items2To1) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.player1 = player1;
+        this.player1Name = player1Name;
+        this.player2 = player2;
+        this.player2Name = player2Name;
+        this.abortedBy = abortedBy;
+        this.money1To2 = money1To2;
+        this.money2To1 = money2To1;
+        this.items1To2 = items1To2;
+        this.items2To1 = items2To1;
+    }
+
+    /**
+     * Creates the record of a successful trade.
+     *
+     * @param player1   The first player.
+     * @param player2   The second player.
+     * @param items1To2 The items the second player received.
+     * @param items2To1 The items the first player received.
+     * @param money1To2 The money the second player received.
+     * @param money2To1 The money the first player received.
+     * @return The record.
+     */
+    public static TradeRecord success(Player player1, Player player2, List<ItemStack> items1To2,
+                                      List<ItemStack> items2To1, double money1To2, double money2To1) {
+        return new TradeRecord(Type.SUCCESS, System.currentTimeMillis(),
+                player1.getUniqueId(), player1.getName(), player2.getUniqueId(), player2.getName(), null,
+                money1To2, money2To1, copyItems(items1To2), copyItems(items2To1));
+    }
+
+    /**
+     * Creates the record of a trade which did not succeed.
+     *
+     * @param type      Why the trade did not succeed. Must not be {@link Type#SUCCESS}.
+     * @param player1   The first player.
+     * @param player2   The second player.
+     * @param abortedBy The player who aborted the trade. May be <code>null</code>.
+     * @return The record.
+     */
+    public static TradeRecord failure(Type type, Player player1, Player player2, Player abortedBy) {
+        if (type == Type.SUCCESS) {
+            throw new IllegalArgumentException("A failure record must not be a success");
+        }
+        return new TradeRecord(type, System.currentTimeMillis(),
+                player1.getUniqueId(), player1.getName(), player2.getUniqueId(), player2.getName(),
+                abortedBy == null ? null : abortedBy.getUniqueId(), 0, 0,
+                Collections.<ItemStack>emptyList(), Collections.<ItemStack>emptyList());
+    }
+
+    /**
+     * Gets the outcome of the trade.
+     *
+     * @return The outcome of the trade.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the time the trade was finished.
+     *
+     * @return The time the trade was finished in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets the uuid of the first player.
+     *
+     * @return The uuid of the first player.
+     */
+    public UUID getPlayer1() {
+        return player1;
+    }
+
+    /**
+     * Gets the name of the first player at the time of the trade.
+     *
+     * @return The name of the first player.
+     */
+    public String getPlayer1Name() {
+        return player1Name;
+    }
+
+    /**
+     * Gets the uuid of the second player.
+     *
+     * @return The uuid of the second player.
+     */
+    public UUID getPlayer2() {
+        return player2;
+    }
+
+    /**
+     * Gets the name of the second player at the time of the trade.
+     *
+     * @return The name of the second player.
+     */
+    public String getPlayer2Name() {
+        return player2Name;
+    }
+
+    /**
+     * Gets the uuid of the player who aborted the trade.
+     *
+     * @return The uuid of the player who aborted the trade or <code>null</code>.
+     */
+    public UUID getAbortedBy() {
+        return abortedBy;
+    }
+
+    /**
+     * Gets the money the second player received.
+     *
+     * @return The money the second player received.
+     */
+    public double getMoney1To2() {
+        return money1To2;
+    }
+
+    /**
+     * Gets the money the first player received.
+     *
+     * @return The money the first player received.
+     */
+    public double getMoney2To1() {
+        return money2To1;
+    }
+
+    /**
+     * Gets the items the second player received.
+     *
+     * @return The items the second player received.
+     */
+    public List<ItemStack> getItems1To2() {
+        return items1To2;
+    }
+
+    /**
+     * Gets the items the first player received.
+     *
+     * @return The items the first player received.
+     */
+    public List<ItemStack> getItems2To1() {
+        return items2To1;
+    }
+
+    /**
+     * Writes the record.
+     *
+     * @param out   The buffer.
+     * @param codec The codec of the file the record is written to.
+     */
+    public void write(ByteBuffer out, ItemCodec codec) {
+        out.put(type.getId());
+        out.putLong(timestamp);
+        ByteBufferUtils.writeUUID(out, player1);
+        ByteBufferUtils.writeString(out, player1Name);
+        ByteBufferUtils.writeUUID(out, player2);
+        ByteBufferUtils.writeString(out, player2Name);
+        out.put((byte) (abortedBy != null ? 1 : 0));
+        if (abortedBy != null) {
+            ByteBufferUtils.writeUUID(out, abortedBy);
+        }
+        out.putDouble(money1To2);
+        out.putDouble(money2To1);
+        codec.writeItems(out, items1To2);
+        codec.writeItems(out, items2To1);
+    }
+
+    /**
+     * Reads a record.
+     *
+     * @param in    The buffer.
+     * @param codec The codec of the file the record is read from.
+     * @return The record.
+     * @throws IOException If the record is invalid.
+     */
+    public static TradeRecord read(ByteBuffer in, ItemCodec codec) throws IOException {
+        try {
+            Type type = Type.fromId(in.get());
+            long timestamp = in.getLong();
+            UUID player1 = ByteBufferUtils.readUUID(in);
+            String player1Name = ByteBufferUtils.readString(in);
+            UUID player2 = ByteBufferUtils.readUUID(in);
+            String player2Name = ByteBufferUtils.readString(in);
+            UUID abortedBy = in.get() != 0 ? ByteBufferUtils.readUUID(in) : null;
+            double money1To2 = in.getDouble();
+            double money2To1 = in.getDouble();
+            List<ItemStack> items1To2 = codec.readItems(in);
+            List<ItemStack> items2To1 = codec.readItems(in);
+            return new TradeRecord(type, timestamp, player1, player1Name, player2, player2Name, abortedBy,
+                    money1To2, money2To1, items1To2, items2To1);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Unexpected end of record", e);
+        }
+    }
+
+    /**
+     * Reads only the uuids of both players of a record.
+     *
+     * @param in The buffer which contains the record.
+     * @return The uuids of the first and the second player.
+     * @throws IOException If the record is invalid.
+     */
+    public static UUID[] readPlayers(ByteBuffer in) throws IOException {
+        try {
+            Type.fromId(in.get());
+            in.getLong(); // timestamp
+            UUID player1 = ByteBufferUtils.readUUID(in);
+            ByteBufferUtils.readBytes(in); // name of player 1
+            UUID player2 = ByteBufferUtils.readUUID(in);
+            return new UUID[]{player1, player2};
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Unexpected end of record", e);
+        }
+    }
+
+    /**
+     * Checks if a player took part in the trade.
+     *
+     * @param player The uuid of the player.
+     * @return Whether the player took part in the trade.
+     */
+    public boolean involves(UUID player) {
+        return player1.equals(player) || player2.equals(player);
+    }
+
+    private static List<ItemStack> copyItems(List<ItemStack> items) {
+        List<ItemStack> copy = new ArrayList<>(items.size());
+        for (ItemStack item : items) {
+            if (item != null) {
+                copy.add(item.clone());
+            }
+        }
+        return Collections.unmodifiableList(copy);
+    }
+
+}
@@ -0,0 +1,77 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.bukkit.entity.Player;
+
+/**
+ * A transfer of money from one player to another.
+ */
+public final class Transfer {
+
+    private final Player from;
+    private final Player to;
+    private final double amount;
+    private final boolean covered;
+
+    /**
+     * Class constructor.
+     *
+     * @param from   The player who pays.
+     * @param to     The player who receives the money.
+     * @param amount The amount of money.
+     */
+    public Transfer(Player from, Player to, double amount) {
+        this(from, to, amount, false);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param from    The player who pays.
+     * @param to      The player who receives the money.
+     * @param amount  The amount of money.
+     * @param covered Whether the player who pays must own the money, i.e. he must not get into debt.
+     */
+    public Transfer(Player from, Player to, double amount, boolean covered) {
+        this.from = from;
+        this.to = to;
+        this.amount = amount;
+        this.covered = covered;
+    }
+
+    /**
+     * Gets the player who pays.
+     *
+     * @return The player who pays.
+     */
+    public Player getFrom() {
+        return from;
+    }
+
+    /**
+     * Gets the player who receives the money.
+     *
+     * @return The player who receives the money.
+     */
+    public Player getTo() {
+        return to;
+    }
+
+    /**
+     * Gets the amount of money.
+     *
+     * @return The amount of money.
+     */
+    public double getAmount() {
+        return amount;
+    }
+
+    /**
+     * Checks if the player who pays must own the money.
+     *
+     * @return Whether the player who pays must not get into debt.
+     */
+    public boolean isCovered() {
+        return covered;
+    }
+
+}
@@ -0,0 +1,108 @@
+package de.oppermann.bastian.safetrade.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests the {@link ByteBufferUtils}.
+ */
+public class ByteBufferUtilsTest {
+
+    @Test
+    public void varIntRoundTrip() throws IOException {
+        int[] values = {0, 1, 127, 128, 300, 16383, 16384, 2097151, 2097152, Integer.MAX_VALUE};
+        int[] lengths = {1, 1, 1, 2, 2, 2, 3, 3, 4, 5};
+        for (int i = 0; i < values.length; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            ByteBufferUtils.writeVarInt(buffer, values[i]);
+            assertEquals(lengths[i], buffer.position(), "length of " + values[i]);
+            buffer.flip();
+            assertEquals(values[i], ByteBufferUtils.readVarInt(buffer));
+            assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    @Test
+    public void varIntRejectsNegativeValues() {
+        assertThrows(IllegalArgumentException.class, () -> ByteBufferUtils.writeVarInt(ByteBuffer.allocate(16), -1));
+    }
+
+    @Test
+    public void varIntRejectsInvalidInput() {
+        // the continuation bit is set, but the buffer ends
+        assertThrows(IOException.class, () -> ByteBufferUtils.readVarInt(ByteBuffer.wrap(new byte[]{(byte) 0x80})));
+        // more than 5 bytes
+        byte[] tooLong = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01};
+        assertThrows(IOException.class, () -> ByteBufferUtils.readVarInt(ByteBuffer.wrap(tooLong)));
+        // 5 bytes which overflow into the sign bit
+        byte[] negative = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+        assertThrows(IOException.class, () -> ByteBufferUtils.readVarInt(ByteBuffer.wrap(negative)));
+    }
+
+    @Test
+    public void varLongRoundTrip() throws IOException {
+        long[] values = {0, 1, 127, 128, Integer.MAX_VALUE, 1L << 35, Long.MAX_VALUE};
+        for (long value : values) {
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            ByteBufferUtils.writeVarLong(buffer, value);
+            buffer.flip();
+            assertEquals(value, ByteBufferUtils.readVarLong(buffer));
+            assertFalse(buffer.hasRemaining());
+        }
+        assertThrows(IllegalArgumentException.class, () -> ByteBufferUtils.writeVarLong(ByteBuffer.allocate(16), -1));
+    }
+
+    @Test
+    public void stringRoundTrip() throws IOException {
+        String[] values = {"", "diamond_sword", "Schwert der Gr\u00f6\u00dfe", "\u2694 \ud83d\udde1"};
+        for (String value : values) {
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            ByteBufferUtils.writeString(buffer, value);
+            buffer.flip();
+            assertEquals(value, ByteBufferUtils.readString(buffer));
+            assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    @Test
+    public void bytesRejectTooLongLength() {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        ByteBufferUtils.writeVarInt(buffer, 10);
+        buffer.put(new byte[3]);
+        buffer.flip();
+        assertThrows(IOException.class, () -> ByteBufferUtils.readBytes(buffer));
+    }
+
+    @Test
+    public void bytesRoundTrip() throws IOException {
+        byte[] bytes = {1, 2, 3, (byte) 0xFF};
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        ByteBufferUtils.writeBytes(buffer, bytes);
+        buffer.flip();
+        assertArrayEquals(bytes, ByteBufferUtils.readBytes(buffer));
+    }
+
+    @Test
+    public void uuidRoundTrip() throws IOException {
+        UUID uuid = UUID.randomUUID();
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        ByteBufferUtils.writeUUID(buffer, uuid);
+        buffer.flip();
+        assertEquals(uuid, ByteBufferUtils.readUUID(buffer));
+        assertThrows(IOException.class, () -> ByteBufferUtils.readUUID(ByteBuffer.allocate(15)));
+    }
+
+    @Test
+    public void getRejectsEmptyBuffer() {
+        assertThrows(IOException.class, () -> ByteBufferUtils.get(ByteBuffer.allocate(0)));
+    }
+
+}
@@ -0,0 +1,274 @@
+package de.oppermann.bastian.safetrade.util;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import org.bukkit.Color;
+import org.bukkit.DyeColor;
+import org.bukkit.FireworkEffect;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.block.ShulkerBox;
+import org.bukkit.block.banner.Pattern;
+import org.bukkit.block.banner.PatternType;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.entity.TropicalFish;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BannerMeta;
+import org.bukkit.inventory.meta.BlockDataMeta;
+import org.bukkit.inventory.meta.BlockStateMeta;
+import org.bukkit.inventory.meta.BookMeta;
+import org.bukkit.inventory.meta.CompassMeta;
+import org.bukkit.inventory.meta.CrossbowMeta;
+import org.bukkit.inventory.meta.Damageable;
+import org.bukkit.inventory.meta.EnchantmentStorageMeta;
+import org.bukkit.inventory.meta.FireworkEffectMeta;
+import org.bukkit.inventory.meta.FireworkMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.inventory.meta.KnowledgeBookMeta;
+import org.bukkit.inventory.meta.LeatherArmorMeta;
+import org.bukkit.inventory.meta.MapMeta;
+import org.bukkit.inventory.meta.PotionMeta;
+import org.bukkit.inventory.meta.Repairable;
+import org.bukkit.inventory.meta.SkullMeta;
+import org.bukkit.inventory.meta.SpawnEggMeta;
+import org.bukkit.inventory.meta.SuspiciousStewMeta;
+import org.bukkit.inventory.meta.TropicalFishBucketMeta;
+import org.bukkit.potion.PotionData;
+import org.bukkit.potion.PotionEffect;
+import org.bukkit.potion.PotionEffectType;
+import org.bukkit.potion.PotionType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests the {@link ItemCodec}.
+ */
+public class ItemCodecTest {
+
+    private static ServerMock server;
+
+    @BeforeAll
+    public static void setUp() {
+        server = MockBukkit.mock();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        MockBukkit.unmock();
+    }
+
+    @Test
+    public void encodeRemovesDictionaryEntriesOfOverflowedAttempts() throws IOException {
+        ItemCodec codec = new ItemCodec();
+        ItemStack item = new ItemStack(Material.DIAMOND, 3);
+        // larger than the initial buffer, so the first attempt fails after the material was added to the dictionary
+        byte[] largeRecord = codec.encode((out, itemCodec) -> {
+            itemCodec.writeItem(out, item);
+            out.put(new byte[4096]);
+        });
+
+        ByteBuffer in = ByteBuffer.wrap(largeRecord);
+        assertEquals(0, ByteBufferUtils.readVarInt(in), "the material must be defined inline again");
+        assertEquals("DIAMOND", ByteBufferUtils.readString(in));
+
+        ItemCodec readCodec = new ItemCodec();
+        assertEquals(item, readCodec.readItem(ByteBuffer.wrap(largeRecord)));
+
+        // the next record refers to the entry which was defined by the successful attempt
+        byte[] smallRecord = codec.encode((out, itemCodec) -> itemCodec.writeItem(out, item));
+        assertEquals(1, ByteBufferUtils.readVarInt(ByteBuffer.wrap(smallRecord)));
+        assertEquals(item, readCodec.readItem(ByteBuffer.wrap(smallRecord)));
+    }
+
+    @Test
+    public void encodeRemovesDictionaryEntriesOfFailedRecords() throws IOException {
+        ItemCodec codec = new ItemCodec();
+        ItemStack item = new ItemStack(Material.EMERALD, 5);
+        assertThrows(IllegalStateException.class, () -> codec.encode((out, itemCodec) -> {
+            itemCodec.writeItem(out, item);
+            throw new IllegalStateException();
+        }));
+
+        byte[] record = codec.encode((out, itemCodec) -> itemCodec.writeItem(out, item));
+        assertEquals(0, ByteBufferUtils.readVarInt(ByteBuffer.wrap(record)), "the material must be defined inline");
+        assertEquals(item, new ItemCodec().readItem(ByteBuffer.wrap(record)));
+    }
+
+    @Test
+    public void itemsWithoutMetaAreSimple() throws IOException {
+        ItemStack item = new ItemStack(Material.STONE, 64);
+        assertEquals(0, getFlags(item));
+        assertEquals(item, roundTrip(item));
+    }
+
+    @Test
+    public void damageAndEnchantmentsAreSimple() throws IOException {
+        ItemStack item = new ItemStack(Material.DIAMOND_SWORD);
+        ItemMeta meta = item.getItemMeta();
+        ((Damageable) meta).setDamage(42);
+        meta.addEnchant(Enchantment.DAMAGE_ALL, 5, true);
+        meta.addEnchant(Enchantment.DURABILITY, 3, true);
+        item.setItemMeta(meta);
+
+        assertEquals(ItemCodec.FLAG_DAMAGE | ItemCodec.FLAG_ENCHANTMENTS, getFlags(item));
+        assertEquals(item, roundTrip(item));
+    }
+
+    @Test
+    public void otherMetaIsSerialized() throws IOException {
+        ItemStack item = new ItemStack(Material.DIAMOND_SWORD);
+        ItemMeta meta = item.getItemMeta();
+        meta.addEnchant(Enchantment.DAMAGE_ALL, 5, true);
+        meta.setDisplayName("Excalibur");
+        item.setItemMeta(meta);
+
+        assertEquals(ItemCodec.FLAG_META, getFlags(item));
+        assertEquals(item, roundTrip(item));
+    }
+
+    @Test
+    public void itemListsSkipNulls() throws IOException {
+        List<ItemStack> items = Arrays.asList(new ItemStack(Material.DIRT, 2), null, new ItemStack(Material.DIRT));
+        byte[] record = new ItemCodec().encode((out, codec) -> codec.writeItems(out, items));
+        List<ItemStack> readItems = new ItemCodec().readItems(ByteBuffer.wrap(record));
+        assertEquals(Arrays.asList(items.get(0), items.get(2)), readItems);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("metaItems")
+    public void metaRoundTrip(String name, ItemStack item) throws IOException {
+        assertEquals(item, roundTrip(item));
+    }
+
+    /**
+     * Creates an item with every subtype of {@link ItemMeta}.
+     *
+     * @return The name of the meta type and the item.
+     */
+    static Stream<Arguments> metaItems() {
+        return Stream.of(
+                Arguments.of("ItemMeta", item(Material.DIAMOND_CHESTPLATE, ItemMeta.class, meta -> {
+                    meta.setDisplayName("Armor");
+                    meta.setLore(Arrays.asList("first line", "second line"));
+                    meta.setUnbreakable(true);
+                })),
+                Arguments.of("Repairable", item(Material.IRON_PICKAXE, Repairable.class, meta -> {
+                    meta.setRepairCost(7);
+                    ((Damageable) meta).setDamage(10);
+                })),
+                Arguments.of("BookMeta", item(Material.WRITTEN_BOOK, BookMeta.class, meta -> {
+                    meta.setTitle("Title");
+                    meta.setAuthor("Author");
+                    meta.setPages("first page", "second page");
+                })),
+                Arguments.of("EnchantmentStorageMeta", item(Material.ENCHANTED_BOOK, EnchantmentStorageMeta.class,
+                        meta -> meta.addStoredEnchant(Enchantment.MENDING, 1, true))),
+                Arguments.of("LeatherArmorMeta", item(Material.LEATHER_HELMET, LeatherArmorMeta.class,
+                        meta -> meta.setColor(Color.fromRGB(0x123456)))),
+                Arguments.of("PotionMeta", item(Material.POTION, PotionMeta.class, meta -> {
+                    meta.setBasePotionData(new PotionData(PotionType.SPEED, false, true));
+                    meta.addCustomEffect(new PotionEffect(PotionEffectType.REGENERATION, 200, 1), true);
+                })),
+                Arguments.of("SkullMeta", item(Material.PLAYER_HEAD, SkullMeta.class,
+                        meta -> meta.setOwningPlayer(server.addPlayer()))),
+                Arguments.of("FireworkMeta", item(Material.FIREWORK_ROCKET, FireworkMeta.class, meta -> {
+                    meta.setPower(2);
+                    meta.addEffect(FireworkEffect.builder().withColor(Color.RED).with(FireworkEffect.Type.STAR).build());
+                })),
+                Arguments.of("FireworkEffectMeta", item(Material.FIREWORK_STAR, FireworkEffectMeta.class,
+                        meta -> meta.setEffect(FireworkEffect.builder().withColor(Color.BLUE).withFlicker().build()))),
+                Arguments.of("KnowledgeBookMeta", item(Material.KNOWLEDGE_BOOK, KnowledgeBookMeta.class,
+                        meta -> meta.addRecipe(NamespacedKey.minecraft("diamond_sword")))),
+                Arguments.of("SuspiciousStewMeta", item(Material.SUSPICIOUS_STEW, SuspiciousStewMeta.class,
+                        meta -> meta.addCustomEffect(new PotionEffect(PotionEffectType.NIGHT_VISION, 100, 0), true))),
+                Arguments.of("BannerMeta", item(Material.WHITE_BANNER, BannerMeta.class,
+                        meta -> meta.addPattern(new Pattern(DyeColor.RED, PatternType.CROSS)))),
+                Arguments.of("MapMeta", item(Material.FILLED_MAP, MapMeta.class, meta -> {
+                    meta.setScaling(true);
+                    meta.setLocationName("Spawn");
+                    meta.setColor(Color.fromRGB(0x654321));
+                })),
+                Arguments.of("CompassMeta", item(Material.COMPASS, CompassMeta.class, meta -> {
+                    meta.setLodestone(new Location(server.addSimpleWorld("world"), 10, 64, -20));
+                    meta.setLodestoneTracked(false);
+                })),
+                Arguments.of("CrossbowMeta", item(Material.CROSSBOW, CrossbowMeta.class,
+                        meta -> meta.addChargedProjectile(new ItemStack(Material.ARROW)))),
+                Arguments.of("BlockStateMeta", item(Material.SHULKER_BOX, BlockStateMeta.class, meta -> {
+                    ShulkerBox shulkerBox = (ShulkerBox) meta.getBlockState();
+                    shulkerBox.getInventory().addItem(new ItemStack(Material.DIAMOND, 12));
+                    meta.setBlockState(shulkerBox);
+                })),
+                Arguments.of("BlockDataMeta", item(Material.CAMPFIRE, BlockDataMeta.class,
+                        meta -> meta.setBlockData(server.createBlockData(Material.CAMPFIRE, "[lit=false]")))),
+                Arguments.of("SpawnEggMeta", item(Material.ZOMBIE_SPAWN_EGG, SpawnEggMeta.class,
+                        meta -> meta.setDisplayName("Zombie"))),
+                Arguments.of("TropicalFishBucketMeta", item(Material.TROPICAL_FISH_BUCKET,
+                        TropicalFishBucketMeta.class, meta -> {
+                            meta.setPattern(TropicalFish.Pattern.BETTY);
+                            meta.setBodyColor(DyeColor.ORANGE);
+                            meta.setPatternColor(DyeColor.WHITE);
+                        }))
+        );
+    }
+
+    /**
+     * Creates an item and modifies its meta.
+     *
+     * @param material The material of the item.
+     * @param metaType The type of the meta.
+     * @param modifier Modifies the meta.
+     * @param <T>      The type of the meta.
+     * @return The item.
+     */
+    private static <T extends ItemMeta> ItemStack item(Material material, Class<T> metaType, Consumer<T> modifier) {
+        ItemStack item = new ItemStack(material);
+        T meta = metaType.cast(item.getItemMeta());
+        modifier.accept(meta);
+        item.setItemMeta(meta);
+        return item;
+    }
+
+    /**
+     * Encodes an item with a new codec and decodes it with another new codec.
+     *
+     * @param item The item.
+     * @return The decoded item.
+     * @throws IOException If the item cannot be decoded.
+     */
+    private static ItemStack roundTrip(ItemStack item) throws IOException {
+        byte[] record = new ItemCodec().encode((out, codec) -> codec.writeItem(out, item));
+        return new ItemCodec().readItem(ByteBuffer.wrap(record));
+    }
+
+    /**
+     * Gets the flags of an encoded item.
+     *
+     * @param item The item.
+     * @return The flags.
+     * @throws IOException If the item cannot be decoded.
+     */
+    private static int getFlags(ItemStack item) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(new ItemCodec().encode((out, codec) -> codec.writeItem(out, item)));
+        ByteBufferUtils.readVarInt(in); // the material is defined inline by a new codec
+        ByteBufferUtils.readString(in);
+        ByteBufferUtils.readVarInt(in); // the amount
+        return ByteBufferUtils.get(in);
+    }
+
+}